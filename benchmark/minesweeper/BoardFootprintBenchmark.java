@@ -0,0 +1,103 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import minesweeper.Board.Position;
+import minesweeper.Board.State;
+
+/**
+ * Compare heap footprint of the packed Board with the former
+ * List<List<Grid>> layout, where every square was a Grid object holding
+ * its own Position and State.
+ *
+ * <br> Usage:
+ *      BoardFootprintBenchmark [SIZE ...]
+ * <br> E.g. "BoardFootprintBenchmark 1000 4000" measures a 1000x1000 and a 4000x4000 board.
+ *      Run with a heap large enough for the legacy layout, e.g. -Xmx8g for 4000x4000.
+ */
+public class BoardFootprintBenchmark {
+
+    /** Keeps the measured object reachable until measured. */
+    private static volatile Object sink;
+
+    /** Default square board sizes. */
+    private static final int[] DEFAULT_SIZES = { 100, 1000, 2000 };
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println(String.format("%-12s %16s %16s %12s %12s",
+                "size", "legacy bytes", "packed bytes", "legacy B/sq", "packed B/sq"));
+        for (int size : sizes) {
+            long squares = (long) size * size;
+            long legacy = footprint(() -> new LegacyBoard(size, size));
+            long packed = footprint(() -> new Board(size, size, List.of()));
+            System.out.println(String.format("%-12s %16d %16d %12.1f %12.1f",
+                    size + "x" + size, legacy, packed,
+                    (double) legacy / squares, (double) packed / squares));
+        }
+    }
+
+    /**
+     * @param factory to build the measured object.
+     * @return retained heap bytes of the object built by factory.
+     */
+    private static long footprint(Supplier<Object> factory) {
+        long before = usedHeap();
+        sink = factory.get();
+        long after = usedHeap();
+        sink = null;
+        return after - before;
+    }
+
+    /**
+     * @return used heap bytes after collecting garbage.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try { Thread.sleep(50); } catch (InterruptedException ie) { }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * LegacyBoard reproduce the former Board storage, one Grid per square.
+     */
+    private static class LegacyBoard {
+        @SuppressWarnings("unused") private final List<List<LegacyGrid>> grids = new ArrayList<>();
+
+        private LegacyBoard(int columns, int rows) {
+            for (int y = 0; y < rows; y++) {
+                List<LegacyGrid> row = new ArrayList<>();
+                for (int x = 0; x < columns; x++) {
+                    row.add(new LegacyGrid(new Position(x, y)));
+                }
+                grids.add(row);
+            }
+        }
+    }
+
+    private static class LegacyGrid {
+        @SuppressWarnings("unused") private final Position position;
+        @SuppressWarnings("unused") private State state = State.Untouched;
+        @SuppressWarnings("unused") private int count = 0;
+        @SuppressWarnings("unused") private boolean isBomb = false;
+
+        private LegacyGrid(Position position) {
+            this.position = position;
+        }
+    }
+}
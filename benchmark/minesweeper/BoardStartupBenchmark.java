@@ -0,0 +1,99 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measure Board startup time for the two ways MinesweeperServer creates a board:
+ * a random board for --size and a loaded board for --file, and the read
+ * throughput of the board file alone, BoardText.read, without making the Board.
+ *
+ * <br> Usage:
+ *      BoardStartupBenchmark [SIZE ...]
+ * <br> E.g. "BoardStartupBenchmark 10 100 1000 10000" measures square boards from 10x10 up to 10000x10000.
+ *      10000x10000 board files are about 200 MB and are written to the temporary directory.
+ */
+public class BoardStartupBenchmark {
+
+    /** Default square board sizes. */
+    private static final int[] DEFAULT_SIZES = { 10, 100, 1000, 3000 };
+    /** Measured runs per board size, the median is reported. */
+    private static final int RUNS = 5;
+    /** Fraction of squares containing a bomb in generated board files. */
+    private static final double DENSITY = 0.25;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println(String.format("%-12s %14s %14s %14s", "size", "--size ms", "--file ms", "read MB/s"));
+        for (int size : sizes) {
+            File file = File.createTempFile("board_" + size + "_", ".txt");
+            file.deleteOnExit();
+            writeBoardFile(file, size, size);
+
+            double[] random = new double[RUNS];
+            double[] load = new double[RUNS];
+            double[] read = new double[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                Board.random(size, size);
+                random[run] = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                Board.load(file);
+                load[run] = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                BoardText.read(file);
+                read[run] = file.length() / 1e6 / ((System.nanoTime() - start) / 1e9);
+            }
+            System.out.println(String.format("%-12s %14.2f %14.2f %14.0f",
+                    size + "x" + size, median(random), median(load), median(read)));
+            file.delete();
+        }
+    }
+
+    /**
+     * Write a board file with DENSITY bombs in the format accepted by Board.load.
+     * @param file to write.
+     * @param sizeX board columns size.
+     * @param sizeY board rows size.
+     * @throws IOException if write to disk error.
+     */
+    static void writeBoardFile(File file, int sizeX, int sizeY) throws IOException {
+        Random random = new Random(sizeX * 31L + sizeY);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            writer.write(sizeX + " " + sizeY + "\n");
+            char[] line = new char[2 * sizeX];
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++) {
+                    line[2 * x] = random.nextDouble() < DENSITY ? '1' : '0';
+                    line[2 * x + 1] = x == sizeX - 1 ? '\n' : ' ';
+                }
+                writer.write(line);
+            }
+        }
+    }
+
+    /**
+     * @param values measurements, will be sorted.
+     * @return median of values.
+     */
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
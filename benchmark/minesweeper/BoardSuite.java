@@ -0,0 +1,184 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import minesweeper.Board.Position;
+
+/**
+ * Benchmark the Board operations across board sizes and bomb densities:
+ * construction from a bomb bitmap, dig of a square next to a bomb and of a
+ * square without neighbor bomb, which cascade, flag then deflag, inspect,
+ * isGameOver and toString. See Harness for the options and the JSON export.
+ *
+ * <br> Usage:
+ *      BoardSuite [HARNESS OPTIONS]
+ * <br> E.g. "BoardSuite --sizes 10,100,1000 --densities 0.05,0.25 --json board.json"
+ *      The exit status is 1 if a benchmark regressed from the --baseline results.
+ */
+public class BoardSuite {
+
+    /** Default square board sizes. */
+    private static final int[] DEFAULT_SIZES = { 10, 100, 1000 };
+    /** Default fractions of squares containing a bomb. */
+    private static final double[] DEFAULT_DENSITIES = { 0.05, 0.25 };
+    /** Operations per iteration of the benchmarks of one square. */
+    private static final int OPERATIONS = 1 << 20;
+    /** Squares per iteration of the benchmarks of a whole board, at most 64 boards. */
+    private static final int BOARD_SQUARES = 1 << 16;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness("Board", args, DEFAULT_SIZES, DEFAULT_DENSITIES);
+        for (int size : harness.sizes()) {
+            for (double density : harness.densities()) {
+                run(harness, size, density);
+            }
+        }
+        // fail a script checking for regressions
+        System.exit(harness.export() > 0 ? 1 : 0);
+    }
+
+    private static void run(Harness harness, int size, double density) {
+        Object[] params = { "size", size, "density", density };
+        int squares = size * size;
+        SplittableRandom random = new SplittableRandom(harness.seed);
+        BitSet bombs = new BitSet(squares);
+        for (int i = 0; i < squares; i++) {
+            if (random.nextDouble() < density) bombs.set(i);
+        }
+        // safe squares next to a bomb, and without neighbor bomb, in random order
+        int[] numbered = shuffle(safe(bombs, size, true), random);
+        int[] empty = shuffle(safe(bombs, size, false), random);
+        int boards = Math.max(1, Math.min(64, BOARD_SQUARES / squares));
+
+        harness.measure("new", params, boards, operations -> {
+            long sum = 0;
+            for (int k = 0; k < operations; k++) {
+                sum += new Board(size, size, bombs).sizeX;
+            }
+            return sum;
+        });
+
+        if (numbered.length > 0) {
+            harness.measure("dig.numbered", params, Math.min(numbered.length, 4096), new Harness.Body() {
+                private Board board;
+
+                @Override public void setUp(int operations) {
+                    board = new Board(size, size, bombs);
+                }
+
+                @Override public long run(int operations) {
+                    long sum = 0;
+                    for (int k = 0; k < operations; k++) {
+                        int i = numbered[k];
+                        if (board.dig(new Position(i % size, i / size))) sum++;
+                    }
+                    return sum;
+                }
+            });
+        }
+
+        if (empty.length > 0) {
+            int start = empty[0];
+            Position position = new Position(start % size, start / size);
+            harness.measure("dig.cascade", params, boards, new Harness.Body() {
+                private Board[] fresh;
+
+                @Override public void setUp(int operations) {
+                    fresh = new Board[operations];
+                    for (int k = 0; k < operations; k++) {
+                        fresh[k] = new Board(size, size, bombs);
+                    }
+                }
+
+                @Override public long run(int operations) {
+                    long sum = 0;
+                    for (int k = 0; k < operations; k++) {
+                        if (fresh[k].dig(position)) sum++;
+                    }
+                    return sum;
+                }
+            });
+        }
+
+        Board board = new Board(size, size, bombs);
+        Position[] positions = new Position[Math.min(squares, 4096)];
+        for (int k = 0; k < positions.length; k++) {
+            int i = random.nextInt(squares);
+            positions[k] = new Position(i % size, i / size);
+        }
+        int mask = Integer.highestOneBit(positions.length) - 1;
+
+        harness.measure("flag+deflag", params, OPERATIONS, operations -> {
+            for (int k = 0; k < operations; k++) {
+                Position p = positions[k & mask];
+                board.flag(p);
+                board.deflag(p);
+            }
+            return operations;
+        });
+
+        // dig a few squares so inspect does not only return Untouched
+        for (int k = 0; k < numbered.length; k += 3) {
+            board.dig(new Position(numbered[k] % size, numbered[k] / size));
+        }
+        harness.measure("inspect", params, OPERATIONS, operations -> {
+            long dug = 0;
+            for (int k = 0; k < operations; k++) {
+                if (board.inspect(positions[k & mask]).isDug()) dug++;
+            }
+            return dug;
+        });
+
+        harness.measure("isGameOver", params, OPERATIONS, operations -> {
+            long over = 0;
+            for (int k = 0; k < operations; k++) {
+                if (board.isGameOver()) over++;
+            }
+            return over;
+        });
+
+        harness.measure("toString", params, boards, operations -> {
+            long length = 0;
+            for (int k = 0; k < operations; k++) {
+                length += board.toString().length();
+            }
+            return length;
+        });
+    }
+
+    /**
+     * @return the squares of a size x size board without bomb, with a
+     *         neighbor bomb if numbered, else without.
+     */
+    private static int[] safe(BitSet bombs, int size, boolean numbered) {
+        return IntStream.range(0, size * size).filter(i -> {
+            if (bombs.get(i)) return false;
+            int x = i % size, y = i / size;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = x + dx, ny = y + dy;
+                    if (nx >= 0 && nx < size && ny >= 0 && ny < size && bombs.get(ny * size + nx)) {
+                        return numbered;
+                    }
+                }
+            }
+            return !numbered;
+        }).toArray();
+    }
+
+    private static int[] shuffle(int[] squares, SplittableRandom random) {
+        for (int i = squares.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = squares[i];
+            squares[i] = squares[j];
+            squares[j] = swap;
+        }
+        return squares;
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import minesweeper.Board.Position;
+
+/**
+ * Measure multi-threaded Board throughput for every Board.Locking mode.
+ * Each thread plays random squares of a shared board: 45% flag, 45% deflag
+ * and 10% dig, like many players spread over one large board.
+ *
+ * <br> Usage:
+ *      ConcurrentBoardBenchmark [SIZE [SECONDS [THREADS ...]]]
+ * <br> E.g. "ConcurrentBoardBenchmark 2000 5 1 2 4 8" plays a 2000x2000 board
+ *      for 5 seconds with 1, 2, 4 and 8 threads.
+ * <br> Every locking mode is measured in its own forked JVM, so the JIT
+ *      profile of one mode does not slow down the other.
+ *      -Dlocking=MODE measures only MODE in the current JVM.
+ */
+public class ConcurrentBoardBenchmark {
+
+    /** Fraction of squares containing a bomb. */
+    private static final double DENSITY = 0.2;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+        int[] threadCounts = { 1, 2, 4, 8 };
+        if (args.length > 2) {
+            threadCounts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                threadCounts[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        String only = System.getProperty("locking");
+        if (only == null) {
+            System.out.println(String.format("%-10s %8s %16s", "locking", "threads", "ops/s"));
+            for (Board.Locking locking : Board.Locking.values()) {
+                fork(locking, args);
+            }
+            return;
+        }
+
+        Board.Locking locking = Board.Locking.valueOf(only);
+        BitSet bombs = new BitSet(size * size);
+        SplittableRandom random = new SplittableRandom(6005);
+        for (int i = 0; i < size * size; i++) {
+            if (random.nextDouble() < DENSITY) bombs.set(i);
+        }
+
+        for (int threads : threadCounts) {
+            Board board = new Board(size, size, bombs, locking);
+            double throughput = run(board, threads, seconds);
+            System.out.println(String.format("%-10s %8d %16.0f", locking, threads, throughput));
+        }
+    }
+
+    /**
+     * Run this benchmark for locking only in a new JVM, sharing standard output.
+     * @param locking mode to measure.
+     * @param args arguments of main.
+     */
+    private static void fork(Board.Locking locking, String[] args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dlocking=" + locking);
+        command.add(ConcurrentBoardBenchmark.class.getName());
+        command.addAll(Arrays.asList(args));
+        new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    /**
+     * Play board from threads threads for seconds seconds.
+     * @return operations per second, all threads together.
+     */
+    private static double run(Board board, int threads, double seconds) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        Thread[] players = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final SplittableRandom random = new SplittableRandom(t);
+            players[t] = new Thread(() -> {
+                long count = 0;
+                while (running.get()) {
+                    Position position = new Position(random.nextInt(board.sizeX), random.nextInt(board.sizeY));
+                    int move = random.nextInt(100);
+                    if (move < 45) {
+                        board.flag(position);
+                    } else if (move < 90) {
+                        board.deflag(position);
+                    } else {
+                        board.dig(position);
+                    }
+                    count++;
+                }
+                ops.add(count);
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread player : players) player.start();
+        Thread.sleep((long) (seconds * 1000));
+        running.set(false);
+        for (Thread player : players) player.join();
+        return ops.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,259 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Harness run the benchmarks of a suite the same way every time: a fixed
+ * number of operations per iteration, warmup iterations then measured
+ * iterations, boards drawn from a fixed seed. It print the mean time per
+ * operation of each benchmark and export every iteration as JSON, so two
+ * runs, e.g. before and after a change, can be compared for regressions.
+ * The JSON follow the result format of JMH, one object per benchmark:
+ * <pre>
+ *   { "jvm": ..., "jvmVersion": ..., "os": ..., "processors": ..., "seed": ...,
+ *     "results": [ { "benchmark": "Board.dig.cascade", "mode": "avgt",
+ *                    "params": { "size": "100", "density": "0.05" },
+ *                    "warmupIterations": 5, "measurementIterations": 10, "operations": 64,
+ *                    "primaryMetric": { "score": 1234.5, "scoreError": 12.3, "scoreUnit": "ns/op",
+ *                                       "min": 1220.1, "max": 1260.7, "rawData": [ ... ] } }, ... ] }
+ * </pre>
+ * scoreError is the half width of the 99.9% confidence interval of the mean.
+ * Given the JSON of an earlier run as baseline, a benchmark is reported as a
+ * regression if its confidence interval is above the baseline one.
+ *
+ * <br> Options of every suite:
+ *      [--warmup N] [--iterations N] [--seed SEED] [--filter REGEX] [--json FILE]
+ *      [--baseline FILE] [--sizes SIZE,...] [--densities DENSITY,...]
+ * <br> E.g. "BoardSuite --filter dig --json dig.json" runs the dig benchmarks and export them to dig.json,
+ *      then "BoardSuite --filter dig --baseline dig.json" after a change reports its dig regressions.
+ */
+public class Harness {
+
+    /**
+     * Body is a benchmark, run operations times per iteration.
+     */
+    public interface Body {
+        /**
+         * Prepare an iteration of operations runs, not measured.
+         */
+        default void setUp(int operations) {
+        }
+
+        /**
+         * Run the measured operations.
+         * @return a value depending on every operation, so none is removed.
+         */
+        long run(int operations);
+    }
+
+    /** Student t quantiles for 99.9% confidence, by degrees of freedom 1 to 30. */
+    private static final double[] T999 = {
+        636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+        3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+    /** A result line of the JSON export: benchmark, params, score and scoreError. */
+    private static final Pattern RESULT = Pattern.compile(
+            "\\{ \"benchmark\": (\"[^\"]*\"), .*\"params\": (\\{[^}]*\\}), .*"
+            + "\"score\": ([^,]+), \"scoreError\": ([^,]+),");
+
+    /** Keeps results alive so the measured loops are not removed. */
+    private static volatile long sink;
+
+    public final long seed;
+    private final String suite;
+    private final int warmup;
+    private final int iterations;
+    private final Pattern filter;
+    private final File json;
+    private final int[] sizes;
+    private final double[] densities;
+    private final List<String> results = new ArrayList<>();
+    /** score and scoreError of the baseline results, by benchmark and params */
+    private final Map<String, double[]> baseline = new LinkedHashMap<>();
+    private int regressions = 0;
+
+    /**
+     * Make the harness of a suite from its command line, see Harness.
+     * @param suite name of the suite, prefix of its benchmark names.
+     * @param args command line of the suite.
+     * @param sizes default square board sizes.
+     * @param densities default fractions of squares containing a bomb.
+     * @throws IOException if the --baseline file cannot be read.
+     */
+    public Harness(String suite, String[] args, int[] sizes, double[] densities) throws IOException {
+        int warmup = 5;
+        int iterations = 10;
+        long seed = 6005;
+        Pattern filter = Pattern.compile("");
+        File json = null;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value of " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--warmup": warmup = Integer.parseInt(value); break;
+            case "--iterations": iterations = Integer.parseInt(value); break;
+            case "--seed": seed = Long.parseLong(value); break;
+            case "--filter": filter = Pattern.compile(value); break;
+            case "--json": json = new File(value); break;
+            case "--baseline":
+                for (String line : Files.readAllLines(new File(value).toPath(), StandardCharsets.UTF_8)) {
+                    Matcher result = RESULT.matcher(line);
+                    if (result.find()) {
+                        baseline.put(result.group(1) + result.group(2), new double[] {
+                            Double.parseDouble(result.group(3)), Double.parseDouble(result.group(4)) });
+                    }
+                }
+                break;
+            case "--sizes": sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+            case "--densities": densities = Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray(); break;
+            default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (iterations < 2) throw new IllegalArgumentException("iterations must be at least 2");
+        this.suite = suite;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.seed = seed;
+        this.filter = filter;
+        this.json = json;
+        this.sizes = sizes;
+        this.densities = densities;
+        System.out.println(String.format("%-24s %-44s %12s %12s %12s %12s",
+                "benchmark", "params", "ns/op", "error", "op/s", "baseline"));
+    }
+
+    public int[] sizes() {
+        return sizes.clone();
+    }
+
+    public double[] densities() {
+        return densities.clone();
+    }
+
+    /**
+     * Run a benchmark, unless filtered out, print and record its result.
+     * @param benchmark name of the benchmark in the suite.
+     * @param params name and value pairs of the parameters of this run.
+     * @param operations operations per iteration, requires operations > 0.
+     * @param body the benchmark.
+     */
+    public void measure(String benchmark, Object[] params, int operations, Body body) {
+        String name = suite + "." + benchmark;
+        if (!filter.matcher(name).find()) return;
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            values.put(String.valueOf(params[i]), String.valueOf(params[i + 1]));
+        }
+
+        for (int k = 0; k < warmup; k++) {
+            iteration(operations, body);
+        }
+        double[] raw = new double[iterations];
+        for (int k = 0; k < iterations; k++) {
+            raw[k] = iteration(operations, body);
+        }
+
+        double mean = Arrays.stream(raw).average().getAsDouble();
+        double variance = Arrays.stream(raw).map(ns -> (ns - mean) * (ns - mean)).sum() / (iterations - 1);
+        double error = T999[Math.min(iterations - 1, T999.length) - 1] * Math.sqrt(variance / iterations);
+        double min = Arrays.stream(raw).min().getAsDouble();
+        double max = Arrays.stream(raw).max().getAsDouble();
+        StringBuilder object = new StringBuilder("{");
+        String separator = " ";
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            object.append(separator).append(quote(entry.getKey())).append(": ").append(quote(entry.getValue()));
+            separator = ", ";
+        }
+        String paramsJson = object.append(" }").toString();
+
+        String compared = "";
+        double[] before = baseline.get(quote(name) + paramsJson);
+        if (before != null) {
+            compared = String.format("%+.1f%%", 100 * (mean - before[0]) / before[0]);
+            if (mean - error > before[0] + before[1]) {
+                compared += " REGRESSION";
+                regressions++;
+            }
+        }
+        System.out.println(String.format("%-24s %-44s %12.1f %12.1f %12.0f %12s",
+                name, values.toString(), mean, error, 1e9 / mean, compared));
+
+        StringBuilder result = new StringBuilder();
+        result.append("{ \"benchmark\": ").append(quote(name)).append(", \"mode\": \"avgt\", \"params\": ")
+                .append(paramsJson)
+                .append(", \"warmupIterations\": ").append(warmup)
+                .append(", \"measurementIterations\": ").append(iterations)
+                .append(", \"operations\": ").append(operations)
+                .append(", \"primaryMetric\": { \"score\": ").append(mean)
+                .append(", \"scoreError\": ").append(error)
+                .append(", \"scoreUnit\": \"ns/op\", \"min\": ").append(min)
+                .append(", \"max\": ").append(max)
+                .append(", \"rawData\": ").append(Arrays.toString(raw)).append(" } }");
+        results.add(result.toString());
+    }
+
+    /**
+     * @return mean nanoseconds per operation of one iteration of body.
+     */
+    private static double iteration(int operations, Body body) {
+        body.setUp(operations);
+        long start = System.nanoTime();
+        sink = body.run(operations);
+        return (System.nanoTime() - start) / (double) operations;
+    }
+
+    /**
+     * Export the results recorded so far to the --json file, if any.
+     * @return the number of regressions from the --baseline results so far.
+     * @throws IOException if the file cannot be written.
+     */
+    public int export() throws IOException {
+        if (!baseline.isEmpty()) {
+            System.out.println(regressions + " regressions from the baseline");
+        }
+        if (json == null) return regressions;
+        try (PrintWriter out = new PrintWriter(json, StandardCharsets.UTF_8.name())) {
+            out.println("{ \"jvm\": " + quote(System.getProperty("java.vm.name"))
+                    + ", \"jvmVersion\": " + quote(System.getProperty("java.version"))
+                    + ", \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.arch"))
+                    + ", \"processors\": " + Runtime.getRuntime().availableProcessors()
+                    + ", \"seed\": " + seed + ",");
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                out.println("    " + results.get(i) + (i + 1 < results.size() ? "," : ""));
+            }
+            out.println("  ] }");
+        }
+        System.out.println("results written to " + json);
+        return regressions;
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,135 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+import minesweeper.Board.Position;
+import minesweeper.Board.State;
+
+/**
+ * Compare the interned State with the former State model, which allocated a
+ * new State and String for every count and compared States by string.
+ * dig and toString no longer go through State, since squares are packed and
+ * rendered from the packed byte, so the remaining State hot path is inspect:
+ * look up the State of a square, test isDug and compare it with another State.
+ *
+ * <br> Usage:
+ *      StateBenchmark [SIZE [ROUNDS]]
+ * <br> E.g. "StateBenchmark 1000 20" inspects every square of a 1000x1000 board 20 times.
+ */
+public class StateBenchmark {
+
+    /** Keeps results alive so the measured loops are not removed. */
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // a board with most squares dug, so inspect mostly return counts
+        SplittableRandom random = new SplittableRandom(6005);
+        BitSet bombs = new BitSet();
+        for (int i = 0; i < size * size; i++) {
+            if (random.nextDouble() < 0.15) bombs.set(i);
+        }
+        Board board = new Board(size, size, bombs);
+        for (int i = 0; i < size * size; i += 7) {
+            if (!bombs.get(i)) board.dig(new Position(i % size, i / size));
+        }
+        int[] counts = new int[size * size];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = random.nextInt(9);
+        }
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            interned(counts);
+            legacy(counts);
+            inspect(board);
+        }
+
+        System.out.println(String.format("%-28s %12s", "path", "ns/square"));
+        report("count+isDug+equals legacy", rounds, counts.length, () -> legacy(counts));
+        report("count+isDug+equals interned", rounds, counts.length, () -> interned(counts));
+        report("Board.inspect+isDug", rounds, counts.length, () -> inspect(board));
+    }
+
+    /**
+     * Run body rounds times and print the mean time per square.
+     */
+    private static void report(String path, int rounds, int squares, Runnable body) {
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            body.run();
+        }
+        double ns = (System.nanoTime() - start) / ((double) rounds * squares);
+        System.out.println(String.format("%-28s %12.2f", path, ns));
+    }
+
+    private static void interned(int[] counts) {
+        long dug = 0;
+        for (int i = 1; i < counts.length; i++) {
+            State state = State.count(counts[i]);
+            if (state.isDug() && state.equals(State.count(counts[i - 1]))) dug++;
+        }
+        sink = dug;
+    }
+
+    private static void legacy(int[] counts) {
+        long dug = 0;
+        for (int i = 1; i < counts.length; i++) {
+            LegacyState state = LegacyState.count(counts[i]);
+            if (state.isDug() && state.equals(LegacyState.count(counts[i - 1]))) dug++;
+        }
+        sink = dug;
+    }
+
+    private static void inspect(Board board) {
+        long dug = 0;
+        for (int y = 0; y < board.sizeY; y++) {
+            for (int x = 0; x < board.sizeX; x++) {
+                if (board.inspect(new Position(x, y)).isDug()) dug++;
+            }
+        }
+        sink = dug;
+    }
+
+    /**
+     * LegacyState reproduce the former Board.State.
+     */
+    private static class LegacyState {
+        static final LegacyState Flagged = new LegacyState("F");
+        static final LegacyState Space = new LegacyState(" ");
+        static final LegacyState Untouched = new LegacyState("-");
+
+        private final String s;
+
+        static LegacyState count(int count) {
+            if (count == 0) {
+                return Space;
+            }
+            return new LegacyState(String.valueOf(count));
+        }
+
+        private LegacyState(String symbol) {
+            s = symbol;
+        }
+
+        boolean isDug() {
+            return !this.equals(Flagged) && !this.equals(Untouched);
+        }
+
+        @Override public boolean equals(Object thatObject) {
+            if (thatObject instanceof LegacyState) {
+                return this.s.equals(((LegacyState) thatObject).s);
+            }
+            return false;
+        }
+
+        @Override public int hashCode() {
+            return s.hashCode();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measure request parse throughput for each command type: the former parser,
+ * a regex match, split and Integer.parseInt per line, against Command.parse
+ * on a String and on the raw bytes of the line as the selector server does.
+ *
+ * <br> Usage:
+ *      CommandParseBenchmark [ITERATIONS]
+ * <br> E.g. "CommandParseBenchmark 5000000" parses every command type 5000000 times per parser.
+ */
+public class CommandParseBenchmark {
+
+    /** One request of each type. */
+    private static final String[] LINES = { "look", "help", "bye", "dig 3 10", "flag 11 8", "deflag -9 9" };
+    /** The former request regex. */
+    private static final String REGEX = "(look)|(help)|(bye)|"
+            + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
+
+    /** Copies of each line parsed in turn, so the parse is not hoisted out of the loop. */
+    private static final int COPIES = 64;
+
+    /** Keeps results alive so the measured loops are not removed. */
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        System.out.println(String.format("%-14s %14s %14s %14s", "command", "legacy ns", "String ns", "bytes ns"));
+        for (String line : LINES) {
+            String[] lines = new String[COPIES];
+            byte[][] bytes = new byte[COPIES][];
+            for (int c = 0; c < COPIES; c++) {
+                lines[c] = new String(line);
+                bytes[c] = line.getBytes(StandardCharsets.US_ASCII);
+            }
+            Command command = new Command();
+            for (int warmup = 0; warmup < 3; warmup++) {
+                legacy(lines, iterations / 10);
+                parse(command, lines, iterations / 10);
+                parse(command, bytes, iterations / 10);
+            }
+
+            long start = System.nanoTime();
+            legacy(lines, iterations);
+            double legacy = (System.nanoTime() - start) / (double) iterations;
+            start = System.nanoTime();
+            parse(command, lines, iterations);
+            double string = (System.nanoTime() - start) / (double) iterations;
+            start = System.nanoTime();
+            parse(command, bytes, iterations);
+            double raw = (System.nanoTime() - start) / (double) iterations;
+            System.out.println(String.format("%-14s %14.1f %14.1f %14.1f", line, legacy, string, raw));
+        }
+    }
+
+    private static void legacy(String[] lines, int iterations) {
+        long sum = 0;
+        for (int k = 0; k < iterations; k++) {
+            String line = lines[k & (COPIES - 1)];
+            if (!line.matches(REGEX)) continue;
+            String[] tokens = line.split(" ");
+            if (tokens.length == 3) {
+                sum += Integer.parseInt(tokens[1]) + Integer.parseInt(tokens[2]);
+            }
+            sum += tokens[0].length();
+        }
+        sink = sum;
+    }
+
+    private static void parse(Command command, String[] lines, int iterations) {
+        long sum = 0;
+        for (int k = 0; k < iterations; k++) {
+            if (command.parse(lines[k & (COPIES - 1)])) {
+                sum += command.x + command.y + command.type.ordinal();
+            }
+        }
+        sink = sum;
+    }
+
+    private static void parse(Command command, byte[][] bytes, int iterations) {
+        long sum = 0;
+        for (int k = 0; k < iterations; k++) {
+            byte[] line = bytes[k & (COPIES - 1)];
+            if (command.parse(line, 0, line.length)) {
+                sum += command.x + command.y + command.type.ordinal();
+            }
+        }
+        sink = sum;
+    }
+}
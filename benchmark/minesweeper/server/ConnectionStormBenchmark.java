@@ -0,0 +1,163 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.Board;
+
+/**
+ * Measure how fast MinesweeperServer serves a storm of short connections for
+ * every threads mode: platform, pool:N, virtual and nio.
+ * CLIENTS client threads connect CONNECTIONS times in total, each connection
+ * read the HELLO message, look, and say bye.
+ *
+ * <br> Usage:
+ *      ConnectionStormBenchmark [CONNECTIONS [CLIENTS [MODE ...]]]
+ * <br> E.g. "ConnectionStormBenchmark 20000 200 platform pool:16 virtual nio" measures 20000
+ *      connections from 200 clients in the four modes.
+ * <br> Every mode is measured in its own forked JVM, so threads left by one mode
+ *      do not slow down the other. -Dthreads=MODE measures only MODE in the current JVM.
+ *      virtual is reported unavailable before Java 21.
+ */
+public class ConnectionStormBenchmark {
+
+    /** Default threads modes, nio is the selector server. */
+    private static final String[] DEFAULT_MODES = { "platform", "pool:16", "virtual", "nio" };
+    /** Board side, small so the benchmark measures connections, not rendering. */
+    private static final int SIZE = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        String[] modes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : DEFAULT_MODES;
+
+        String only = System.getProperty("threads");
+        if (only == null) {
+            System.out.println(String.format("%-10s %12s %12s %14s", "threads", "conn/s", "mean ms", "peak threads"));
+            for (String mode : modes) {
+                fork(mode, connections, clients);
+            }
+            return;
+        }
+
+        MinesweeperServer server;
+        try {
+            server = startServer(only);
+        } catch (IllegalArgumentException iae) {
+            System.out.println(String.format("%-10s %s", only, iae.getMessage()));
+            return;
+        }
+        run(server, connections / 10, clients);  // warm up
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        int failed = run(server, connections, clients);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%-10s %12.0f %12.3f %14d%s", only, connections / seconds,
+                1000 * seconds * clients / connections, threads.getPeakThreadCount(),
+                failed > 0 ? "  (" + failed + " failed)" : ""));
+        System.exit(0);
+    }
+
+    /**
+     * Run this benchmark for mode only in a new JVM, sharing standard output.
+     */
+    private static void fork(String mode, int connections, int clients) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dthreads=" + mode);
+        command.add(ConnectionStormBenchmark.class.getName());
+        command.add(String.valueOf(connections));
+        command.add(String.valueOf(clients));
+        new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    /**
+     * Start a server for mode on a free port, with the board locking main would choose.
+     * @throws IllegalArgumentException if mode is not available.
+     */
+    private static MinesweeperServer startServer(String mode) throws IOException {
+        BitSet bombs = new BitSet();
+        SplittableRandom random = new SplittableRandom(6005);
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            if (random.nextDouble() < 0.25) bombs.set(i);
+        }
+        MinesweeperServer server;
+        if (mode.equals("nio")) {
+            server = new MinesweeperServer(new Board(SIZE, SIZE, bombs), 0, true, true);
+        } else {
+            Board.Locking locking = mode.equals("virtual") ? Board.Locking.REENTRANT : Board.Locking.MONITOR;
+            server = new MinesweeperServer(new Board(SIZE, SIZE, bombs, locking), 0, true, MinesweeperServer.threads(mode));
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /**
+     * Make connections connections to server from clients threads.
+     * @return how many connections failed.
+     */
+    private static int run(MinesweeperServer server, int connections, int clients) throws InterruptedException {
+        AtomicInteger left = new AtomicInteger(connections);
+        AtomicInteger failed = new AtomicInteger();
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                while (left.getAndDecrement() > 0) {
+                    try {
+                        connectOnce(server.getPort());
+                    } catch (IOException ioe) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        return failed.get();
+    }
+
+    /**
+     * Connect, read the HELLO message, look, and say bye.
+     * @throws IOException if the connection fails.
+     */
+    private static void connectOnce(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(30000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            if (in.readLine() == null) throw new IOException("no HELLO message");
+            out.write("look\n".getBytes());
+            for (int y = 0; y < SIZE; y++) {
+                if (in.readLine() == null) throw new IOException("short BOARD message");
+            }
+            out.write("bye\n".getBytes());
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import minesweeper.Board;
+
+/**
+ * Load a MinesweeperServer with CONNECTIONS concurrent text connections
+ * sending a mix of look, dig, flag, deflag, help and bye requests at a
+ * target RATE of requests per second in total, then report the throughput,
+ * the latency percentiles of each request type, and the connection churn:
+ * the reconnections after a BOOM disconnect or a bye.
+ *
+ * <br> The schedule is open-loop: each connection send its requests at fixed
+ * times, RATE / CONNECTIONS per second from a random phase, whether the
+ * replies before came back in time or not. A request is late if the server
+ * stalled, and its latency is measured from its scheduled time, not from
+ * when it was sent, so a stall count for every request it delayed instead
+ * of one slow request: the coordinated omission of a client waiting for
+ * each reply before timing the next request.
+ * A connection closed by the server is made again before the next request,
+ * in the latency of that request. bye has no reply, its latency is the
+ * time to send it.
+ *
+ * <br> Usage:
+ *      LoadGenerator [--connections N] [--rate RATE] [--duration SECONDS] [--warmup SECONDS]
+ *                    [--mix TYPE=WEIGHT,...] [--seed SEED]
+ *                    [--port PORT [--host HOST] [--debug] | --size SIZE [--threads MODE | --nio] [--debug]]
+ * <br> E.g. "LoadGenerator --connections 256 --rate 20000 --duration 30 --mix look=4,dig=2,flag=2,deflag=2"
+ *      loads a server started in this JVM, "LoadGenerator --port 4444" a server started before.
+ * <br> --debug tells the server does not disconnect on BOOM; started in this JVM, it start the server so.
+ *      TYPE is look, dig, flag, deflag, help or bye, WEIGHT a non-negative integer.
+ */
+public class LoadGenerator {
+
+    /** Request types, in the order of the reported rows. */
+    private static final String[] TYPES = { "look", "dig", "flag", "deflag", "help", "bye" };
+    private static final int LOOK = 0, DIG = 1, FLAG = 2, DEFLAG = 3, HELP = 4, BYE = 5;
+    /** Default weight of each request type. */
+    private static final String DEFAULT_MIX = "look=30,dig=20,flag=20,deflag=20,help=5,bye=5";
+    /** Lines of a HELP message, the last one empty. */
+    private static final int HELP_LINES = MinesweeperServer.HELP_MSG.split("\n", -1).length;
+    /** The board size in the HELLO message. */
+    private static final Pattern HELLO = Pattern.compile("Board: (\\d+) columns by (\\d+) rows");
+    /** Milliseconds a reply is waited for before the connection is dropped. */
+    private static final int TIMEOUT = 30000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int connections = 64;
+        double rate = 10_000;
+        double duration = 10;
+        double warmup = 2;
+        String mix = DEFAULT_MIX;
+        long seed = 6005;
+        String host = "127.0.0.1";
+        int port = -1;
+        boolean debug = false;
+        int size = 20;
+        String threads = "platform";
+        boolean nio = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--connections": connections = Integer.parseInt(args[++i]); break;
+            case "--rate": rate = Double.parseDouble(args[++i]); break;
+            case "--duration": duration = Double.parseDouble(args[++i]); break;
+            case "--warmup": warmup = Double.parseDouble(args[++i]); break;
+            case "--mix": mix = args[++i]; break;
+            case "--seed": seed = Long.parseLong(args[++i]); break;
+            case "--host": host = args[++i]; break;
+            case "--port": port = Integer.parseInt(args[++i]); break;
+            case "--debug": debug = true; break;
+            case "--size": size = Integer.parseInt(args[++i]); break;
+            case "--threads": threads = args[++i]; break;
+            case "--nio": nio = true; break;
+            default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (connections <= 0 || rate <= 0 || duration <= 0 || warmup < 0) {
+            throw new IllegalArgumentException("connections, rate and duration must be positive");
+        }
+        int[] weights = weights(mix);
+
+        if (port < 0) {
+            port = startServer(size, debug, nio, threads, seed);
+        }
+
+        Load load = new Load(host, port, debug, weights, connections, rate, warmup, duration);
+        Thread[] clients = new Thread[connections];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int c = 0; c < connections; c++) {
+            SplittableRandom connectionRandom = random.split();
+            clients[c] = new Thread(() -> load.connection(connectionRandom), "load-" + c);
+            clients[c].setDaemon(true);
+        }
+        for (Thread client : clients) client.start();
+        for (Thread client : clients) client.join();
+        load.report();
+        // the server started here serve until the JVM exits
+        System.exit(0);
+    }
+
+    /**
+     * @param mix TYPE=WEIGHT pairs separated by commas, types not given weight 0.
+     * @return the weight of each of TYPES.
+     */
+    private static int[] weights(String mix) {
+        int[] weights = new int[TYPES.length];
+        int total = 0;
+        for (String pair : mix.split(",")) {
+            String[] typeWeight = pair.split("=");
+            int type = Arrays.asList(TYPES).indexOf(typeWeight[0]);
+            if (typeWeight.length != 2 || type < 0) throw new IllegalArgumentException("bad mix " + pair);
+            weights[type] = Integer.parseInt(typeWeight[1]);
+            if (weights[type] < 0) throw new IllegalArgumentException("negative weight " + pair);
+            total += weights[type];
+        }
+        if (total == 0) throw new IllegalArgumentException("mix " + mix + " has no request");
+        return weights;
+    }
+
+    /**
+     * Start a server in this JVM on a free port, see ConnectionStormBenchmark.
+     * @return its port.
+     */
+    private static int startServer(int size, boolean debug, boolean nio, String threads, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        BitSet bombs = new BitSet();
+        for (int i = 0; i < size * size; i++) {
+            if (random.nextDouble() < Board.DEFAULT_DENSITY) bombs.set(i);
+        }
+        MinesweeperServer server;
+        if (nio) {
+            server = new MinesweeperServer(new Board(size, size, bombs), 0, debug, true);
+        } else {
+            Board.Locking locking = threads.equals("virtual") ? Board.Locking.REENTRANT : Board.Locking.MONITOR;
+            server = new MinesweeperServer(new Board(size, size, bombs, locking), 0, debug,
+                    MinesweeperServer.threads(threads));
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }, "server");
+        thread.setDaemon(true);
+        thread.start();
+        return server.getPort();
+    }
+
+    /**
+     * Load is the schedule and the results of a run, shared by the connections.
+     */
+    private static class Load {
+        private final String host;
+        private final int port;
+        private final boolean debug;
+        private final int[] weights;
+        private final int totalWeight;
+        private final double rate;
+        private final long interval;
+        private final long start, measured, end;
+
+        private final Histogram all = new Histogram();
+        private final Histogram[] byType = new Histogram[TYPES.length];
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong booms = new AtomicLong();
+        private final AtomicLong byes = new AtomicLong();
+        private final AtomicLong reconnects = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        Load(String host, int port, boolean debug, int[] weights, int connections,
+                double rate, double warmup, double duration) {
+            this.host = host;
+            this.port = port;
+            this.debug = debug;
+            this.weights = weights;
+            this.totalWeight = Arrays.stream(weights).sum();
+            this.rate = rate;
+            this.interval = (long) (1e9 * connections / rate);
+            this.start = System.nanoTime() + 100_000_000;
+            this.measured = start + (long) (warmup * 1e9);
+            this.end = measured + (long) (duration * 1e9);
+            for (int t = 0; t < TYPES.length; t++) {
+                byType[t] = new Histogram();
+            }
+        }
+
+        /**
+         * Send the requests of one connection until the end of the run.
+         */
+        void connection(SplittableRandom random) {
+            Client client = null;
+            for (long intended = start + random.nextLong(interval); intended < end; intended += interval) {
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                boolean measuring = intended >= measured;
+                int type = pick(random);
+                try {
+                    if (client == null) {
+                        client = new Client(host, port);
+                        if (measuring) reconnects.incrementAndGet();
+                    }
+                    boolean boom = client.request(type, random);
+                    long latency = System.nanoTime() - intended;
+                    if (measuring) {
+                        sent.incrementAndGet();
+                        all.record(latency);
+                        byType[type].record(latency);
+                        if (boom) booms.incrementAndGet();
+                        if (type == BYE) byes.incrementAndGet();
+                    }
+                    if (type == BYE || (boom && !debug)) {
+                        client.close();
+                        client = null;
+                    }
+                } catch (IOException ioe) {
+                    if (measuring) errors.incrementAndGet();
+                    if (client != null) client.close();
+                    client = null;
+                }
+            }
+            if (client != null) client.close();
+        }
+
+        private int pick(SplittableRandom random) {
+            int r = random.nextInt(totalWeight);
+            for (int t = 0; ; t++) {
+                r -= weights[t];
+                if (r < 0) return t;
+            }
+        }
+
+        void report() {
+            double seconds = (end - measured) / 1e9;
+            System.out.println(String.format("target %.0f req/s, achieved %.0f req/s over %.1f s, %d errors",
+                    rate, sent.get() / seconds, seconds, errors.get()));
+            System.out.println(String.format("churn: %d BOOM (%.1f/s), %d bye, %d reconnects (%.1f/s)",
+                    booms.get(), booms.get() / seconds, byes.get(), reconnects.get(), reconnects.get() / seconds));
+            System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s",
+                    "request", "count", "p50 ms", "p99 ms", "p999 ms", "max ms", "mean ms"));
+            for (int t = 0; t < TYPES.length; t++) {
+                row(TYPES[t], byType[t]);
+            }
+            row("all", all);
+        }
+
+        private static void row(String request, Histogram latencies) {
+            if (latencies.count() == 0) return;
+            System.out.println(String.format("%-8s %10d %10.3f %10.3f %10.3f %10.3f %10.3f", request,
+                    latencies.count(), latencies.percentile(50) / 1e6, latencies.percentile(99) / 1e6,
+                    latencies.percentile(99.9) / 1e6, latencies.max() / 1e6, latencies.mean() / 1e6));
+        }
+    }
+
+    /**
+     * Client is a text connection to the server, one request at a time.
+     */
+    private static class Client {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final OutputStream out;
+        private final int sizeX, sizeY;
+
+        /**
+         * Connect and read the HELLO message.
+         * @throws IOException if the connection fails.
+         */
+        Client(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            try {
+                socket.setSoTimeout(TIMEOUT);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = socket.getOutputStream();
+                String hello = in.readLine();
+                Matcher size = HELLO.matcher(hello == null ? "" : hello);
+                if (!size.find()) throw new IOException("no HELLO message: " + hello);
+                sizeX = Integer.parseInt(size.group(1));
+                sizeY = Integer.parseInt(size.group(2));
+            } catch (IOException | RuntimeException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Send a request of type on a random square and read its reply, none for bye.
+         * @return whether the reply is a BOOM message.
+         * @throws IOException if the connection fails or closes before the reply.
+         */
+        boolean request(int type, SplittableRandom random) throws IOException {
+            String line = TYPES[type];
+            if (type == DIG || type == FLAG || type == DEFLAG) {
+                line += " " + random.nextInt(sizeX) + " " + random.nextInt(sizeY);
+            }
+            out.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+            if (type == BYE) return false;
+            int lines = type == HELP ? HELP_LINES : sizeY;
+            for (int k = 0; k < lines; k++) {
+                String reply = in.readLine();
+                if (reply == null) throw new IOException("connection closed before the reply");
+                if (k == 0 && type == DIG && reply.equals(MinesweeperServer.BOOM_MSG)) return true;
+            }
+            return false;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // already closed
+            }
+        }
+    }
+}
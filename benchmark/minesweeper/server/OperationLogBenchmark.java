@@ -0,0 +1,79 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+import minesweeper.Board;
+
+/**
+ * Measure the OperationLog of a persisted board: requests appended per second
+ * with group committed fsyncs, and the recovery time of a crash after them,
+ * replaying the whole log on a board opened from its first snapshot.
+ *
+ * <br> Usage:
+ *      OperationLogBenchmark [OPERATIONS [SIZE]]
+ * <br> E.g. "OperationLogBenchmark 10000000 1000" logs and recovers 10M requests on a 1000x1000 board.
+ *      The log is 8 bytes per request, 80 MB for 10M, written to the temporary directory.
+ */
+public class OperationLogBenchmark {
+
+    /** Default logged requests. */
+    private static final int DEFAULT_OPERATIONS = 10_000_000;
+    /** Default square board size. */
+    private static final int DEFAULT_SIZE = 1000;
+    /** Fraction of squares containing a bomb. */
+    private static final double DENSITY = 0.2;
+
+    public static void main(String[] args) throws IOException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OPERATIONS;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE;
+
+        File boardFile = File.createTempFile("board_" + size + "_", ".bin");
+        File logFile = new File(boardFile.getPath() + ".log");
+        boardFile.deleteOnExit();
+        logFile.deleteOnExit();
+        SplittableRandom random = new SplittableRandom(6005);
+        BitSet bombs = new BitSet();
+        for (int i = 0; i < size * size; i++) {
+            if (random.nextDouble() < DENSITY) bombs.set(i);
+        }
+        new Board(size, size, bombs).save(boardFile);
+
+        Board board = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        OperationLog log = OperationLog.open(board, boardFile, logFile,
+                OperationLog.DEFAULT_FLUSH_MILLIS, OperationLog.DEFAULT_FLUSH_OPS);
+        long start = System.nanoTime();
+        for (int k = 0; k < operations; k++) {
+            // mostly flags, digs cascade and end the game early
+            int kind = random.nextInt(16) == 0 ? OperationLog.DIG : 1 + random.nextInt(2);
+            log.apply(kind, random.nextInt(size), random.nextInt(size));
+        }
+        log.flush();
+        double appendSeconds = (System.nanoTime() - start) / 1e9;
+        String expected = board.toString();
+
+        // crash: the board file is the snapshot made by open, the log every request after
+        start = System.nanoTime();
+        Board recovered = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        double openMillis = (System.nanoTime() - start) / 1e6;
+        OperationLog.open(recovered, boardFile, logFile,
+                OperationLog.DEFAULT_FLUSH_MILLIS, OperationLog.DEFAULT_FLUSH_OPS);
+        double recoverSeconds = (System.nanoTime() - start) / 1e9;
+        if (!expected.equals(recovered.toString())) {
+            throw new AssertionError("recovered board differ from the logged board");
+        }
+
+        System.out.println(String.format("%-12s %12s %14s %12s %14s %14s",
+                "size", "operations", "append op/s", "open ms", "recover s", "replay op/s"));
+        System.out.println(String.format("%-12s %12d %14.0f %12.2f %14.2f %14.0f",
+                size + "x" + size, operations, operations / appendSeconds, openMillis,
+                recoverSeconds, operations / recoverSeconds));
+        boardFile.delete();
+        logFile.delete();
+    }
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+import minesweeper.Board;
+import minesweeper.Board.Position;
+
+/**
+ * Measure the size and encode time of the BOARD reply to a mutation in the
+ * text protocol, Board.toString encoded with a newline, against the binary
+ * protocol, BinaryProtocol.boardHeader and Board.toPacked.
+ *
+ * <br> Usage:
+ *      ReplyEncodingBenchmark [SIZE ...]
+ * <br> E.g. "ReplyEncodingBenchmark 100 500 1000" measures square boards from 100x100 up to 1000x1000.
+ */
+public class ReplyEncodingBenchmark {
+
+    /** Default square board sizes. */
+    private static final int[] DEFAULT_SIZES = { 100, 500, 1000 };
+    /** Measured replies per board size. */
+    private static final int REPLIES = 200;
+
+    /** Keeps results alive so the measured loops are not removed. */
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println(String.format("%-12s %12s %12s %12s %12s",
+                "size", "text bytes", "text us", "binary bytes", "binary us"));
+        for (int size : sizes) {
+            SplittableRandom random = new SplittableRandom(6005);
+            BitSet bombs = new BitSet();
+            for (int i = 0; i < size * size; i++) {
+                if (random.nextDouble() < 0.2) bombs.set(i);
+            }
+            Board board = new Board(size, size, bombs);
+
+            for (int warmup = 0; warmup < 3; warmup++) {
+                text(board, random, REPLIES / 4);
+                binary(board, random, REPLIES / 4);
+            }
+            long start = System.nanoTime();
+            int textBytes = text(board, random, REPLIES);
+            double textTime = (System.nanoTime() - start) / 1e3 / REPLIES;
+            start = System.nanoTime();
+            int binaryBytes = binary(board, random, REPLIES);
+            double binaryTime = (System.nanoTime() - start) / 1e3 / REPLIES;
+            System.out.println(String.format("%-12s %12d %12.1f %12d %12.1f",
+                    size + "x" + size, textBytes, textTime, binaryBytes, binaryTime));
+        }
+    }
+
+    /**
+     * Flag a random square and encode the text reply, replies times.
+     * @return size of the last reply.
+     */
+    private static int text(Board board, SplittableRandom random, int replies) {
+        Charset charset = Charset.defaultCharset();
+        int length = 0;
+        for (int k = 0; k < replies; k++) {
+            board.flag(new Position(random.nextInt(board.sizeX), random.nextInt(board.sizeY)));
+            length = (board.toString() + System.lineSeparator()).getBytes(charset).length;
+        }
+        sink = length;
+        return length;
+    }
+
+    /**
+     * Flag a random square and encode the binary reply, replies times.
+     * @return size of the last reply.
+     */
+    private static int binary(Board board, SplittableRandom random, int replies) {
+        int length = 0;
+        for (int k = 0; k < replies; k++) {
+            board.flag(new Position(random.nextInt(board.sizeX), random.nextInt(board.sizeY)));
+            length = BinaryProtocol.boardHeader(board.sizeX, board.sizeY).length + board.toPacked().length;
+        }
+        sink = length;
+        return length;
+    }
+}
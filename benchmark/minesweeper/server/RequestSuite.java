@@ -0,0 +1,93 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+import minesweeper.Board;
+import minesweeper.Harness;
+
+/**
+ * Benchmark the request path of MinesweeperServer for each request type:
+ * Command.parse of the line alone, and Command.parse then handleRequest,
+ * which perform the request on the board and make the reply, across board
+ * sizes and bomb densities. No connection is made, so the socket and the
+ * reply encoding are not measured. See Harness for the options and the JSON
+ * export.
+ *
+ * <br> Usage:
+ *      RequestSuite [HARNESS OPTIONS]
+ * <br> E.g. "RequestSuite --sizes 10,100 --json request.json"
+ *      The exit status is 1 if a benchmark regressed from the --baseline results.
+ */
+public class RequestSuite {
+
+    /** Default square board sizes. */
+    private static final int[] DEFAULT_SIZES = { 10, 100 };
+    /** Default fractions of squares containing a bomb. */
+    private static final double[] DEFAULT_DENSITIES = { 0.25 };
+    /** Requests of each type, X and Y replaced by random squares of the board. */
+    private static final String[] REQUESTS = { "look", "help", "dig X Y", "flag X Y", "deflag X Y", "undo 1 2" };
+    /** Lines of each request type parsed in turn, so the parse is not hoisted out of the loop. */
+    private static final int COPIES = 64;
+    /** Requests per iteration. */
+    private static final int OPERATIONS = 1 << 16;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = new Harness("Request", args, DEFAULT_SIZES, DEFAULT_DENSITIES);
+        for (int size : harness.sizes()) {
+            for (double density : harness.densities()) {
+                run(harness, size, density);
+            }
+        }
+        // the server games are ticked by a thread of their own, and fail a script checking for regressions
+        System.exit(harness.export() > 0 ? 1 : 0);
+    }
+
+    private static void run(Harness harness, int size, double density) throws IOException {
+        SplittableRandom random = new SplittableRandom(harness.seed);
+        BitSet bombs = new BitSet(size * size);
+        for (int i = 0; i < size * size; i++) {
+            if (random.nextDouble() < density) bombs.set(i);
+        }
+        MinesweeperServer server = new MinesweeperServer(new Board(size, size, bombs), 0, false);
+        Session session = new Session(server.games.first());
+        Command command = new Command();
+
+        for (String request : REQUESTS) {
+            String type = request.split(" ")[0];
+            Object[] params = { "size", size, "density", density, "request", type };
+            String[] lines = new String[COPIES];
+            for (int c = 0; c < COPIES; c++) {
+                lines[c] = request.replace("X", String.valueOf(random.nextInt(size)))
+                        .replace("Y", String.valueOf(random.nextInt(size)));
+            }
+
+            harness.measure("parse", params, OPERATIONS, operations -> {
+                long sum = 0;
+                for (int k = 0; k < operations; k++) {
+                    if (command.parse(lines[k & (COPIES - 1)])) {
+                        sum += command.x + command.y + command.type.ordinal();
+                    }
+                }
+                return sum;
+            });
+
+            harness.measure("handleRequest", params, OPERATIONS, operations -> {
+                long length = 0;
+                try {
+                    for (int k = 0; k < operations; k++) {
+                        command.parse(lines[k & (COPIES - 1)]);
+                        length += server.handleRequest(session, command).map(String::length).orElse(0);
+                    }
+                } catch (MinesweeperServer.DisconnectException de) {
+                    throw new AssertionError("no bye request is benchmarked", de);
+                }
+                return length;
+            });
+        }
+    }
+}
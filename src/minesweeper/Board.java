@@ -3,18 +3,27 @@
  */
 package minesweeper;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * Board represent a x columns, y rows minesweeper board to play with.
@@ -30,17 +39,229 @@ public class Board {
 	
 	/**
 	 * Abstraction function:
-	 * 	AF(columns, rows, grids) represent a columns x rows grids Board.
+	 * 	AF(columns, rows, cells) represent a columns x rows Board, square x,y is 
+	 * 	cells[y * columns + x], packed as described on the CELL_* constants.
+	 * 	dug, flagged, bombs and safeLeft count squares of cells dug, flagged,
+	 * 	containing a bomb, and not containing a bomb and not dug.
 	 * rep invariant:
-	 * 	all rows in grids length must be equal to columns. 
+	 * 	cells length must be equal to columns * rows.
+	 * 	a square contain a bomb must not be dug.
+	 * 	neighbor bombs count of every square in range [0-8].
+	 * 	once no dig is running, counters match cells.
+	 * 	renderCache hold the BOARD message of cells, once its dirty squares
+	 * 	are committed.
 	 * rep exposure:
-	 *  grids are defensive copy and Grid are immutable
+	 *  cells are private and never returned, State are immutable.
+	 *  cells of a board opened from a file are shared only with file.
 	 * thread safety:
-	 * 	all public method are monitor pattern
+	 * 	every square is read and written atomically through cells, writers 
+	 * 	compare-and-set the whole square byte.
+	 * 	Locking.MONITOR: dig is monitor pattern,
+	 * 	flag and deflag are a single compare-and-set of their square without lock,
+	 * 	so a flag concurrent with a dig is either fully seen or not seen.
+	 * 	Locking.REENTRANT: as Locking.MONITOR with lock instead of the monitor.
+	 * 	Locking.ACTORS: dig, and the neighbor counts and cascade it change, is 
+	 * 	done by the TileActors worker owning each square, so no lock is taken,
+	 * 	flag and deflag are compare-and-set as in Locking.MONITOR, each worker
+	 * 	commit the squares it wrote for a message once it is handled, so a
+	 * 	version may include a cascade in progress partly done.
+	 * 	Locking.STRIPED: every square is guarded by the lock of its tile in tiles.
+	 * 	flag and deflag lock one tile, save lock every tile,
+	 * 	dig lock tiles as its flood fill reach them, rolling back and locking
+	 * 	again in ascending order when it would wait on a lower tile.
+	 * 	flag and deflag still lock their tile here, otherwise they could see a
+	 * 	square dug by a transaction that is later rolled back.
+	 * 	counters are atomic, dig add what it dug once when it succeed, so 
+	 * 	isGameOver and stats read them without lock.
+	 * 	every square written is marked in renderCache after it is written,
+	 * 	and committed by its writer before it release its locks: by dig the
+	 * 	squares its transaction wrote, with Locking.ACTORS by each worker
+	 * 	the squares it wrote for a message, once handled, by flag and deflag
+	 * 	their square. toString, 
+	 * 	toPacked, changesSince and inspect read the last version committed
+	 * 	without lock, so they never wait for a writer. They see every square
+	 * 	of a dig or none, but with Locking.ACTORS, whose workers commit
+	 * 	apart, so they may see part of a cascade.
+	 * 	listeners is a copy-on-write list, notified after the locks are released.
+	 * 	probe is volatile, told of lock waits under the locks, of renders and
+	 * 	digs after the locks are released.
+	 * 	profiler is volatile, told of every request before its locks are
+	 * 	released, the request and acquire times are kept in locals of the
+	 * 	request thread, so it times concurrent holders of tile locks too.
+	 * 	journal is volatile, told of every dig, flag and deflag before it
+	 * 	release the locks guarding the squares it read, so conflicting
+	 * 	requests are told in the order they changed the board. With a journal
+	 * 	flag and deflag take the monitor or lock but with Locking.STRIPED,
+	 * 	and with Locking.ACTORS dig take the monitor too, a cascade of actors
+	 * 	is not atomic.
+	 * 	save copy the squares under every lock, and write them to disk after.
+	 * 	file header is written under its own monitor.
 	 */
 	
+	/*
+	 * One byte per square:
+	 * 	bits 0-3 how many neighbors contain a bomb,
+	 * 	bit 4 whether square contain a bomb,
+	 * 	bits 5-6 square state, untouched, flagged or dug.
+	 */
+	private static final int CELL_COUNT = 0x0F;
+	private static final int CELL_BOMB = 0x10;
+	private static final int CELL_STATE = 0x60;
+	private static final int CELL_UNTOUCHED = 0x00;
+	private static final int CELL_FLAGGED = 0x20;
+	private static final int CELL_DUG = 0x40;
+	
 	public final int sizeX, sizeY;
-	private final List<List<Grid>> grids;
+	private final Cells cells;
+	/** file mapped as cells when opened by open, null otherwise */
+	private final BoardFile file;
+	/** tile locks when Locking.STRIPED, null otherwise */
+	private final TileLocks tiles;
+	/** whole board lock when Locking.REENTRANT, null otherwise */
+	private final ReentrantLock lock;
+	/** tile workers when Locking.ACTORS, null otherwise */
+	private final TileActors actors;
+	/** dig work state reused under the monitor or lock, journaled, when tiles is null */
+	private final TileLocks.Transaction monitorDig;
+	/** squares without a bomb not dug yet, the game is over when none is left */
+	private final AtomicInteger safeLeft = new AtomicInteger();
+	private final AtomicInteger dug = new AtomicInteger();
+	private final AtomicInteger bombs = new AtomicInteger();
+	private final LongAdder flagged = new LongAdder();
+	/** BOARD message, patched for the squares changed since last toString */
+	private final RenderCache renderCache;
+	/** BOARD message character of square i */
+	private final IntUnaryOperator symbolOf = i -> symbol(cell(i));
+	/** notified after every dig, flag and deflag that changed a square */
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	/** instrumentation of the work of this board, null if none */
+	private volatile Probe probe = null;
+	/** lock profiler of this board, null if none */
+	private volatile Profiler profiler = null;
+	/** told of every change request, null if none */
+	private volatile Journal journal = null;
+	
+	/** Default probability of a bomb in a square of a random board. */
+	public static final double DEFAULT_DENSITY = 0.25;
+	/** Most squares of a board, its text of 2 * squares - 1 chars must fit an array. */
+	public static final int MAX_SQUARES = Integer.MAX_VALUE / 2;
+	/** squares of each stripe generated by random, a multiple of 64 */
+	private static final int STRIPE_SQUARES = 1 << 16;
+	/** rows of each band counted by the constructor */
+	private static final int BAND_ROWS = 64;
+	/** squares from which random and the constructor use every processor */
+	private static final int PARALLEL_SQUARES = 1 << 18;
+	
+	/** digLocked result bits, the squares dug are the bits above DUG_SHIFT */
+	private static final int DUG_BOMB = 1, DUG_ANY = 2, DUG_SHIFT = 2;
+	/** kinds of TileActors work: dig a square, dig a cascade square, decrement a neighbor bombs count */
+	private static final int ACT_DIG = 0, ACT_SPREAD = 1, ACT_DECREMENT = 2;
+	
+	/**
+	 * Listener is notified when squares of a Board change.
+	 */
+	public interface Listener {
+		/**
+		 * Called after a dig, flag or deflag changed squares of board, on the
+		 * thread that changed them and without any lock of board held.
+		 * Must return quickly, e.g. only schedule work, since it delays the 
+		 * change request. Use Board.changesSince to read what changed.
+		 * @param board whose squares changed.
+		 */
+		void changed(Board board);
+	}
+	
+	/**
+	 * Probe is told about the work of a Board, to instrument it. Calls are
+	 * made on the thread of every request, so must be quick and not allocate.
+	 */
+	public interface Probe {
+		/**
+		 * Called once a request hold the board lock, or tile locks, it waited for.
+		 * Not called for Locking.ACTORS digs, which take no lock.
+		 * @param nanos waited for the lock.
+		 */
+		void lockWaited(long nanos);
+		
+		/**
+		 * Called after every dig.
+		 * @param squares dug by it, its cascade included, 0 if none was untouched.
+		 */
+		void dug(int squares);
+		
+		/**
+		 * Called after a BOARD message, packed board or changes were rendered.
+		 * @param nanos taken to render, from the last version committed.
+		 */
+		void rendered(long nanos);
+	}
+	
+	/**
+	 * Operation is a request on a Board told to its Profiler.
+	 */
+	public enum Operation {
+		DIG, FLAG, DEFLAG, INSPECT,
+		/** toString, toPacked or changesSince, each render the whole board */
+		TO_STRING,
+		IS_GAME_OVER,
+		/** save or close, each write the whole board */
+		SAVE
+	}
+	
+	/**
+	 * Profiler is told how long every request of a Board waited for its
+	 * lock and held it, to find where requests queue. Unlike Probe, timing
+	 * the hold cost every request, so a profiler is set only when looked for.
+	 * Requests taking no lock, isGameOver, inspect, toString, toPacked, 
+	 * changesSince, flag and deflag except with Locking.STRIPED, and dig with
+	 * Locking.ACTORS, are told with no wait and their whole time as hold.
+	 */
+	public interface Profiler {
+		/**
+		 * Called once a request is done, just before it release its lock.
+		 * Must be quick, it delays every request waiting for the lock.
+		 * @param operation requested.
+		 * @param waitNanos waited for the lock, or with Locking.STRIPED for
+		 * 		the tile locks of the dig conflicts.
+		 * @param holdNanos the lock was held.
+		 * @param squares dug by a dig, its cascade included, 0 otherwise.
+		 */
+		void held(Operation operation, long waitNanos, long holdNanos, int squares);
+	}
+	
+	/**
+	 * Journal is told of every dig, flag and deflag of a Board, in an order
+	 * that applied one after another to the same board change it the same
+	 * way, e.g. to log the requests of a board and replay them after a crash.
+	 */
+	public interface Journal {
+		/**
+		 * Called by a dig, flag or deflag once it is done, changed or not, 
+		 * just before it release its locks. Must be quick and must not 
+		 * request the board, it delays every request waiting for the locks.
+		 * @param operation DIG, FLAG or DEFLAG.
+		 * @param x column of the square requested.
+		 * @param y row of the square requested.
+		 */
+		void applied(Operation operation, int x, int y);
+	}
+	
+	/**
+	 * Locking is how a Board guard concurrent access to its squares.
+	 */
+	public enum Locking {
+		/** one monitor for the whole board */
+		MONITOR,
+		/** one ReentrantLock for the whole board, does not pin virtual threads */
+		REENTRANT,
+		/** one lock per TileLocks.TILE_SIZE x TileLocks.TILE_SIZE squares tile */
+		STRIPED,
+		/** 
+		 * no lock, tiles owned by the worker threads of TileActors, one per 
+		 * processor. dig wait for its worker, and the workers its cascade reach.
+		 */
+		ACTORS
+	}
     
     // TODO: Specify, test, and implement in problem 2
 	
@@ -52,25 +273,111 @@ public class Board {
 	 * greater than or equal to 0, and less than the board columns and rows size.
 	 */
 	public Board(int columns, int rows, List<Position> bombs) {
+		this(columns, rows, bitmap(columns, bombs));
+	}
+	
+	/**
+	 * Create a x columns, y rows Board, square x,y contain a bomb if bit 
+	 * y * columns + x of bombs is set. Cost is linear in the number of squares.
+	 * @param x Board columns size.
+	 * @param y Board rows size.
+	 * @param bombs bomb bitmap, must not have bits set at or beyond columns * rows.
+	 */
+	public Board(int columns, int rows, BitSet bombs) {
+		this(columns, rows, bombs, Locking.MONITOR);
+	}
+	
+	/**
+	 * Create a x columns, y rows Board, square x,y contain a bomb if bit 
+	 * y * columns + x of bombs is set, guarded by locking.
+	 * @param x Board columns size.
+	 * @param y Board rows size.
+	 * @param bombs bomb bitmap, must not have bits set at or beyond columns * rows.
+	 * @param locking how concurrent access to squares is guarded.
+	 * @throws IllegalArgumentException if the board has more than 
+	 * MAX_SQUARES squares, or locking is Locking.ACTORS and it has 
+	 * TileActors.MAX_SQUARES squares or more.
+	 */
+	public Board(int columns, int rows, BitSet bombs, Locking locking) {
+		this(columns, rows, bombs, locking, null);
+	}
+	
+	/**
+	 * Create a board as Board(columns, rows, bombs, locking), whose tiles
+	 * are owned by the workers of pool with Locking.ACTORS.
+	 * @param pool workers of the board, or null for the workers shared by
+	 * every actor board.
+	 */
+	Board(int columns, int rows, BitSet bombs, Locking locking, TileActors.Pool pool) {
+		this(columns, rows, Cells.heap(squares(columns, rows, locking)), null, locking, pool);
+		long[] words = bombs.toLongArray();
+		int bands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+		IntStream pass = IntStream.range(0, bands);
+		if ((long) columns * rows >= PARALLEL_SQUARES) pass = pass.parallel();
+		pass.forEach(band -> countNeighbors(words, band * BAND_ROWS, Math.min(rows, (band + 1) * BAND_ROWS)));
+		this.bombs.set(bombs.cardinality());
+		this.safeLeft.set(cells.length() - this.bombs.get());
+		checkRep();
+	}
+	
+	/**
+	 * Create a x columns, y rows Board of the squares in cells, guarded by
+	 * locking. The caller must set the counters and mark changed squares.
+	 * @param file mapped as cells, or null.
+	 * @param pool workers of the board with Locking.ACTORS, or null for the
+	 * shared ones.
+	 */
+	private Board(int columns, int rows, Cells cells, BoardFile file, Locking locking, TileActors.Pool pool) {
+		squares(columns, rows, locking);
 		this.sizeX = columns; 
 		this.sizeY = rows;
-		
-		grids = new ArrayList<>();
-		for (int i = 0; i < rows; i++) {
-			grids.add(new ArrayList<>());
-			
-			for (int j = 0; j < columns; j++) {
-				Position position = new Position(j, i);
-				Grid grid = bombs.contains(position) ? new Grid(position, true) : 
-					new Grid(position);
-				grids.get(i).add(grid);
-			}
+		this.cells = cells;
+		this.file = file;
+		this.tiles = locking == Locking.STRIPED ? new TileLocks(columns, rows) : null;
+		this.lock = locking == Locking.REENTRANT ? new ReentrantLock() : null;
+		this.actors = locking == Locking.ACTORS ? new TileActors(columns, rows, actorWork(), pool) : null;
+		this.monitorDig = new TileLocks.Transaction(null, true);
+		this.renderCache = new RenderCache(columns, rows);
+	}
+	
+	/**
+	 * @return most squares of a Board guarded by locking, see squares.
+	 */
+	static int maxSquares(Locking locking) {
+		return locking == Locking.ACTORS ? TileActors.MAX_SQUARES - 1 : MAX_SQUARES;
+	}
+	
+	/**
+	 * @return squares of a columns x rows Board guarded by locking.
+	 * @throws IllegalArgumentException if there are more than MAX_SQUARES 
+	 * squares, or locking is Locking.ACTORS and there are 
+	 * TileActors.MAX_SQUARES squares or more, their index would not fit in a
+	 * message op.
+	 */
+	private static int squares(int columns, int rows, Locking locking) {
+		long squares = (long) columns * rows;
+		if (squares > MAX_SQUARES) {
+			throw new IllegalArgumentException("board of " + columns + "x" + rows
+					+ " squares, must be at most " + MAX_SQUARES);
 		}
-		
+		if (locking == Locking.ACTORS && squares >= TileActors.MAX_SQUARES) {
+			throw new IllegalArgumentException("actors board of " + columns + "x" + rows
+					+ " squares, must be less than " + TileActors.MAX_SQUARES);
+		}
+		return (int) squares;
+	}
+	
+	/**
+	 * @param columns Board columns size.
+	 * @param bombs square Position contain a bomb.
+	 * @return bomb bitmap of bombs, bit y * columns + x set for every Position x,y.
+	 */
+	private static BitSet bitmap(int columns, List<Position> bombs) {
+		BitSet bitmap = new BitSet();
 		for (Position position : bombs) {
-			incrementNeighbors(position);
+			bitmap.set(position.y * columns + position.x);
 		}
-		checkRep();
+		return bitmap;
 	}
 	
 	/**
@@ -80,18 +387,58 @@ public class Board {
 	 * @return a random new board with sizeX columns and sizeY rows.
 	 */
 	static public Board random(int sizeX, int sizeY) {
-		List<Position> bombs = new ArrayList<>();
-		for (int y = 0; y < sizeY; y++) {
-			for (int x = 0; x < sizeX; x++) {
-				if (Math.random() < 0.25) {
-					bombs.add(new Position(x, y));
+		return random(sizeX, sizeY, Locking.MONITOR);
+	}
+	
+	/**
+	 * Generate a random new board with sizeX columns and sizeY rows.
+	 * @param start with a random board with width sizeX.
+	 * @param start with a random board with height sizeY.
+	 * @param locking how concurrent access to squares is guarded.
+	 * @return a random new board with sizeX columns and sizeY rows.
+	 */
+	static public Board random(int sizeX, int sizeY, Locking locking) {
+		return random(sizeX, sizeY, DEFAULT_DENSITY, ThreadLocalRandom.current().nextLong(), locking);
+	}
+	
+	/**
+	 * Generate a random new board with sizeX columns and sizeY rows, each 
+	 * square containing a bomb with probability density. The same arguments
+	 * always generate the same board, whatever the number of processors.
+	 * Stripes of squares are generated in parallel, each from its own 
+	 * SplittableRandom split in order from seed.
+	 * @param sizeX columns of the board.
+	 * @param sizeY rows of the board.
+	 * @param density probability of a bomb in a square, in [0, 1].
+	 * @param seed of the board.
+	 * @param locking how concurrent access to squares is guarded.
+	 * @return a random new board with sizeX columns and sizeY rows.
+	 * @throws IllegalArgumentException if the board has more than 
+	 * MAX_SQUARES squares, or locking is Locking.ACTORS and it has 
+	 * TileActors.MAX_SQUARES squares or more.
+	 */
+	static public Board random(int sizeX, int sizeY, double density, long seed, Locking locking) {
+		int squares = squares(sizeX, sizeY, locking);
+		long[] words = new long[(squares + 63) >>> 6];
+		int stripes = (squares + STRIPE_SQUARES - 1) / STRIPE_SQUARES;
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[stripes];
+		for (int s = 0; s < stripes; s++) {
+			randoms[s] = root.split();
+		}
+		IntStream pass = IntStream.range(0, stripes);
+		if (squares >= PARALLEL_SQUARES) pass = pass.parallel();
+		pass.forEach(s -> {
+			// stripes are whole words, so no two stripes write the same word
+			SplittableRandom random = randoms[s];
+			int end = Math.min(squares, (s + 1) * STRIPE_SQUARES);
+			for (int i = s * STRIPE_SQUARES; i < end; i++) {
+				if (random.nextDouble() < density) {
+					words[i >>> 6] |= 1L << i;
 				}
 			}
-		}
-        System.out.println(bombs.size());
-        System.out.println(sizeX * sizeY);
-        System.out.println((double) bombs.size() / (sizeX * sizeY));
-		return new Board(sizeX, sizeY, bombs);
+		});
+		return new Board(sizeX, sizeY, BitSet.valueOf(words), locking);
 	}
 	
 	/**
@@ -100,41 +447,174 @@ public class Board {
 	 * @throws IOException if read from disk error.
 	 */
 	static public Board load(File file) throws IOException {
-		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-			List<Position> bombs = new ArrayList<>();
-			int sizeX, sizeY;
-			String line; String[] vals;
-			
-			line = reader.readLine();
-			vals = line.split(" ");
-			if (vals.length != 2) throw new FileImproperlyFormatted();
-			sizeX = Integer.parseInt(vals[0]);
-			sizeY = Integer.parseInt(vals[1]);
-			
-			for (int y = 0; y < sizeY; y++) {
-				line = reader.readLine();
-				if (line == null) throw new FileImproperlyFormatted();
-				vals = line.split(" ");
-				if (vals.length != sizeX) throw new FileImproperlyFormatted();
-				
-				for (int x = 0; x < sizeX; x++) {
-					if (vals[x].equals("1")) {
-						bombs.add(new Position(x, y));
-					}
-				}
+		return load(file, Locking.MONITOR);
+	}
+	
+	/**
+	 * Generate a new board loaded from a file.
+	 * @param locking how concurrent access to squares is guarded.
+	 * @return a new board loaded from a file.
+	 * @throws IOException if read from disk error.
+	 */
+	static public Board load(File file, Locking locking) throws IOException {
+		BoardText text = BoardText.read(file);
+		return new Board(text.sizeX, text.sizeY, text.bombs, locking);
+	}
+	
+	/**
+	 * Open a binary board file, see BoardFile, its squares memory-mapped as
+	 * the squares of the board, so nothing is parsed. The board still take
+	 * about 3.6 bytes of heap per square for its renderCache: 2 of BOARD 
+	 * message, 1/2 packed, 1 of change log and a dirty bit, so it is not
+	 * larger than the heap. Every change to the board is written to file by
+	 * the operating system, on disk at the latest on snapshot or close.
+	 * Counters are recounted from the squares if file was not closed.
+	 * @param file binary board file, written by save.
+	 * @param locking how concurrent access to squares is guarded.
+	 * @return the board of file, until close.
+	 * @throws IOException if file cannot be mapped, is not a binary board file,
+	 * or hold more squares than a board guarded by locking can.
+	 */
+	static public Board open(File file, Locking locking) throws IOException {
+		return open(BoardFile.open(file, true, maxSquares(locking)), locking);
+	}
+	
+	/**
+	 * Open a binary board file as open, but memory-mapped copy-on-write: 
+	 * changes to the board are never written to file, whose squares stay 
+	 * those of when it was saved, until the board is saved again.
+	 * Changed squares are held in memory outside the heap.
+	 * @param file binary board file, written by save.
+	 * @param locking how concurrent access to squares is guarded.
+	 * @return the board of file.
+	 * @throws IOException if file cannot be mapped, is not a binary board file,
+	 * or hold more squares than a board guarded by locking can.
+	 */
+	static public Board openPrivate(File file, Locking locking) throws IOException {
+		return open(BoardFile.open(file, false, maxSquares(locking)), locking);
+	}
+	
+	private static Board open(BoardFile mapped, Locking locking) {
+		Board board = new Board(mapped.columns, mapped.rows, mapped.cells, mapped, locking, null);
+		if (mapped.clean) {
+			board.dug.set(mapped.dug);
+			board.flagged.add(mapped.flagged);
+			board.bombs.set(mapped.bombs);
+			board.safeLeft.set(mapped.safeLeft);
+		} else {
+			board.recount();
+		}
+		board.renderCache.mark(0, mapped.cells.length());
+		board.renderCache.commit(board.symbolOf);
+		board.checkRep();
+		return board;
+	}
+	
+	/**
+	 * Set the counters from the squares, once opened from a file not closed.
+	 */
+	private void recount() {
+		for (int i = 0; i < cells.length(); i++) {
+			int cell = cells.get(i);
+			boolean isBomb = (cell & CELL_BOMB) != 0;
+			switch (cell & CELL_STATE) {
+			case CELL_DUG: dug.incrementAndGet(); break;
+			case CELL_FLAGGED: flagged.increment(); break;
+			default: break;
 			}
-			if (reader.readLine() != null) {
-				throw new FileImproperlyFormatted();
+			if (isBomb) {
+				bombs.incrementAndGet();
+			} else if ((cell & CELL_STATE) != CELL_DUG) {
+				safeLeft.incrementAndGet();
 			}
-			
-			return new Board(sizeX, sizeY, bombs);
 		}
 	}
 	
-	private void checkRep() {
-		for (List<Grid> list : grids) {
-			assert list.size() == sizeX;
+	/**
+	 * Write the board to file as a binary board file, to open later,
+	 * replacing file once it is fully written.
+	 * The squares are copied to the file in memory under the locks of the
+	 * board, then forced to disk after they are released, so requests wait
+	 * for the copy only.
+	 * With Locking.ACTORS a dig concurrent with save may be written partly,
+	 * but on a journaled board.
+	 * @param file to write.
+	 * @throws IOException if file cannot be written.
+	 */
+	public void save(File file) throws IOException {
+		save(file, 0);
+	}
+	
+	/**
+	 * Save as save(File), recording checkpoint in file, e.g. how many logged
+	 * changes the saved board include.
+	 * @param file to write.
+	 * @param checkpoint to record, read back by checkpoint() once file is opened.
+	 * @throws IOException if file cannot be written.
+	 */
+	public void save(File file, long checkpoint) throws IOException {
+		save(file, () -> checkpoint);
+	}
+	
+	/**
+	 * Save as save(File), recording the checkpoint read while the squares 
+	 * are copied, e.g. how many requests its Journal was told of so far.
+	 * @param file to write.
+	 * @param checkpoint read under the locks of the board, once, by save.
+	 * @throws IOException if file cannot be written.
+	 */
+	public void save(File file, LongSupplier checkpoint) throws IOException {
+		BoardFile.Copy copy;
+		try {
+			copy = whole(Operation.SAVE, () -> {
+				try {
+					return BoardFile.copy(file, sizeX, sizeY, cells, stats(), checkpoint.getAsLong());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
+		copy.commit();
+	}
+	
+	/**
+	 * @return the checkpoint saved in the file this board was opened from, 
+	 * 0 if this board was not opened from a file.
+	 */
+	public long checkpoint() {
+		return file == null ? 0 : file.checkpoint;
+	}
+	
+	/**
+	 * Write the squares changed and the counters to the file this board was
+	 * opened from by open. The file is still recounted when opened before 
+	 * close, since digs may run during the snapshot.
+	 * @return whether this board was opened by open.
+	 */
+	public boolean snapshot() {
+		if (file == null || !file.shared) return false;
+		file.snapshot(stats(), false);
+		return true;
+	}
+	
+	/**
+	 * Snapshot the board and mark its file clean, so it open without 
+	 * recounting. Requires no change request running or made after close,
+	 * changes after close may still be written to the file but not counted.
+	 * Does nothing if this board was not opened by open.
+	 */
+	public void close() {
+		if (file == null || !file.shared) return;
+		whole(Operation.SAVE, () -> {
+			file.snapshot(stats(), true);
+			return null;
+		});
+	}
+	
+	private void checkRep() {
+		assert cells.length() == sizeX * sizeY;
 	}
 	
 	/**
@@ -148,23 +628,82 @@ public class Board {
 	 * the board size.
 	 * @return whether square x,y contain a bomb.
 	 */
-	synchronized public boolean dig(Position position) {
-		Grid grid = getGrid(position);
-		boolean isBomb = grid.dig();
-		
-		if (isBomb) {
-			decrementNeighbors(position);
+	public boolean dig(Position position) {
+		int result = digLocked(index(position));
+		if ((result & DUG_ANY) != 0) {
+			publish();
 		}
-		
-		if (grid.count == 0) {
-			crossNeighbors(position, p -> {
-				if (getGrid(p).state.equals(State.Untouched))
-					dig(p);
-			});
+		Probe probe = this.probe;
+		if (probe != null) {
+			probe.dug(result >>> DUG_SHIFT);
+		}
+		return (result & DUG_BOMB) != 0;
+	}
+	
+	/**
+	 * Dig square i as described in dig, under the locks of this board.
+	 * @param i index of square in cells.
+	 * @return DUG_BOMB if square i contain a bomb, DUG_ANY if any square was 
+	 * dug, and the squares dug shifted by DUG_SHIFT.
+	 */
+	private int digLocked(int i) {
+		if (actors != null) {
+			Journal journal = this.journal;
+			if (journal == null) {
+				return digActors(i);
+			}
+			synchronized (this) {
+				int result = digActors(i);
+				journaled(journal, Operation.DIG, i);
+				return result;
+			}
+		}
+		if (lock != null) {
+			long requested = lockRequested();
+			lock.lock();
+			try {
+				long acquired = lockAcquired(requested);
+				int result = digWhole(i);
+				lockReleased(Operation.DIG, requested, acquired, result >>> DUG_SHIFT);
+				return result;
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (tiles == null) {
+			long requested = lockRequested();
+			synchronized (this) {
+				long acquired = lockAcquired(requested);
+				int result = digWhole(i);
+				lockReleased(Operation.DIG, requested, acquired, result >>> DUG_SHIFT);
+				return result;
+			}
 		}
 		
-		checkRep();
-		return isBomb;
+		Journal journal = this.journal;
+		TileLocks.Transaction transaction = tiles.transaction();
+		long start = lockRequested();
+		long waited = 0;
+		while (true) {
+			try {
+				boolean isBomb = digSquare(transaction, i);
+				int dug = addCounts(transaction);
+				renderCache.commit(symbolOf, transaction);
+				journaled(journal, Operation.DIG, i);
+				lockReleased(Operation.DIG, start, start + waited, dug);
+				transaction.commit();
+				return dugResult(isBomb, dug);
+			} catch (TileLocks.Conflict conflict) {
+				transaction.rollback(cells);
+				// the wait of a conflict is locking its tiles again in order
+				long requested = lockRequested();
+				transaction.retry();
+				waited += lockAcquired(requested) - requested;
+			} catch (RuntimeException | Error e) {
+				transaction.abort(cells);
+				throw e;
+			}
+		}
 	}
 	
 	/**
@@ -172,10 +711,10 @@ public class Board {
 	 * @param position's x and y must greater than or equal to 0, and less than
 	 * the board size.
 	 */
-	synchronized public void flag(Position position) {
-		Grid grid = getGrid(position);
-		grid.flag();
-		checkRep();
+	public void flag(Position position) {
+		if (changeFlag(Operation.FLAG, index(position))) {
+			publish();
+		}
 	}
 	
 	/**
@@ -183,10 +722,46 @@ public class Board {
 	 * @param position's x and y must greater than or equal to 0, and less than
 	 * the board size.
 	 */
-	synchronized public void deflag(Position position) {
-		Grid grid = getGrid(position);
-		grid.deflag();
-		checkRep();
+	public void deflag(Position position) {
+		if (changeFlag(Operation.DEFLAG, index(position))) {
+			publish();
+		}
+	}
+	
+	/**
+	 * Flag or deflag square i under the lock of its tile with 
+	 * Locking.STRIPED, else under the monitor or lock if journaled, else
+	 * without lock.
+	 * @param operation FLAG or DEFLAG.
+	 * @param i index of square in cells.
+	 * @return whether square i changed.
+	 */
+	private boolean changeFlag(Operation operation, int i) {
+		Journal journal = this.journal;
+		if (tiles != null) {
+			long requested = lockRequested();
+			tiles.lock(i);
+			try {
+				long acquired = lockAcquired(requested);
+				boolean changed = operation == Operation.FLAG ? flagCell(i) : deflagCell(i);
+				journaled(journal, operation, i);
+				lockReleased(operation, requested, acquired, 0);
+				return changed;
+			} finally {
+				tiles.unlock(i);
+			}
+		}
+		if (journal != null) {
+			return whole(operation, () -> {
+				boolean changed = operation == Operation.FLAG ? flagCell(i) : deflagCell(i);
+				journaled(journal, operation, i);
+				return changed;
+			});
+		}
+		long start = profileStart();
+		boolean changed = operation == Operation.FLAG ? flagCell(i) : deflagCell(i);
+		lockReleased(operation, start, start, 0);
+		return changed;
 	}
 	
 	/**
@@ -195,8 +770,74 @@ public class Board {
 	 * the board size.
 	 * @return square x,y state.
 	 */
-	synchronized public State inspect(Position position) {
-		return getGrid(position).state;
+	public State inspect(Position position) {
+		int i = index(position);
+		long start = profileStart();
+		State state = stateOfSymbol(renderCache.symbol(i));
+		lockReleased(Operation.INSPECT, start, start, 0);
+		return state;
+	}
+	
+	/**
+	 * Notify listener after every dig, flag and deflag that change squares,
+	 * see Listener.
+	 * @param listener to add.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Stop notifying listener.
+	 * @param listener to remove.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Tell probe about the work of this board from now on, replacing the
+	 * probe set before, see Probe.
+	 * @param probe to tell, or null for none.
+	 */
+	public void setProbe(Probe probe) {
+		this.probe = probe;
+	}
+	
+	/**
+	 * Tell profiler how long every request of this board from now on waited
+	 * for its lock and held it, replacing the profiler set before, see Profiler.
+	 * @param profiler to tell, or null to stop profiling.
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	/**
+	 * Tell journal of every dig, flag and deflag of this board from now on,
+	 * replacing the journal set before, see Journal. Flag and deflag then 
+	 * lock the board, and dig too with Locking.ACTORS.
+	 * @param journal to tell, or null to stop.
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Tell journal of a request on square i, if any.
+	 */
+	private void journaled(Journal journal, Operation operation, int i) {
+		if (journal != null) {
+			journal.applied(operation, i % sizeX, i / sizeX);
+		}
+	}
+	
+	/**
+	 * @return how concurrent access to squares of this board is guarded.
+	 */
+	public Locking locking() {
+		return tiles != null ? Locking.STRIPED : lock != null ? Locking.REENTRANT 
+				: actors != null ? Locking.ACTORS : Locking.MONITOR;
 	}
 	
 	/**
@@ -204,17 +845,18 @@ public class Board {
 	 * is dug.
 	 * @return whether game is over.
 	 */
-	synchronized public boolean isGameOver() {
-		for (int y = 0; y < sizeY; y++) {
-			for (int x = 0; x < sizeX; x++) {
-				Grid grid = getGrid(new Position(x, y));
-				
-				if (!grid.isBomb && !grid.state.isDug()) {
-					return false;
-				}
-			}
-		}
-		return true;
+	public boolean isGameOver() {
+		long start = profileStart();
+		boolean over = safeLeft.get() == 0;
+		lockReleased(Operation.IS_GAME_OVER, start, start, 0);
+		return over;
+	}
+	
+	/**
+	 * @return current counters of the board, each read atomically.
+	 */
+	public Stats stats() {
+		return new Stats(dug.get(), (int) flagged.sum(), bombs.get(), safeLeft.get());
 	}
     
 	/**
@@ -226,81 +868,540 @@ public class Board {
 	 * 	" " (space) for squares with state dug and 0 neighbors that have a bomb.
 	 * 	integer COUNT in range [1-8] for squares with state dug and COUNT neighbors that have a bomb.
 	 */
-	@Override synchronized public String toString() {
-		String[] rows = new String[this.sizeY];
-		List<String> square = new ArrayList<>();
-		for (int y = 0; y < sizeY; y++) {
-			for (int x = 0; x < sizeX; x++) {
-				square.add(inspect(new Position(x, y)).toString());
+	@Override public String toString() {
+		return render(renderCache::render);
+	}
+	
+	/**
+	 * @return the state of every square, row by row, packed 4 bits per square 
+	 * with the first square of each byte in the high 4 bits:
+	 * 	0-8 for squares with state dug and COUNT neighbors that have a bomb.
+	 * 	9 for squares with state untouched.
+	 * 	10 for squares with state flagged.
+	 * The last low 4 bits are 0 when the board has an odd number of squares.
+	 */
+	public byte[] toPacked() {
+		return render(renderCache::packed);
+	}
+	
+	/**
+	 * Changes let a client keeping its own copy of the BOARD message follow 
+	 * the board with only the squares changed since its copy.
+	 * @param version version of the client copy, from previous Changes, or -1 for none.
+	 * @return every square changed since version with its character in the 
+	 * BOARD message, or a snapshot of the whole BOARD message if version is -1
+	 * or too many squares changed since.
+	 */
+	public Changes changesSince(long version) {
+		return render(() -> renderCache.changesSince(version));
+	}
+	
+	/**
+	 * Read the whole board atomically, under the monitor, lock, or every 
+	 * tile lock, or change it, e.g. a journaled flag.
+	 * @param operation reading, for the profiler.
+	 * @param read read squares of the board.
+	 * @return what read return.
+	 */
+	private <T> T whole(Operation operation, Supplier<T> read) {
+		long requested = lockRequested();
+		if (lock != null) {
+			lock.lock();
+			try {
+				long acquired = lockAcquired(requested);
+				T value = read.get();
+				lockReleased(operation, requested, acquired, 0);
+				return value;
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (tiles == null) {
+			synchronized (this) {
+				long acquired = lockAcquired(requested);
+				T value = read.get();
+				lockReleased(operation, requested, acquired, 0);
+				return value;
 			}
-			rows[y] = String.join(" ", square);
-			square.clear();
 		}
-		return String.join("\n", rows);
+		tiles.lockAll();
+		try {
+			long acquired = lockAcquired(requested);
+			T value = read.get();
+			lockReleased(operation, requested, acquired, 0);
+			return value;
+		} finally {
+			tiles.unlockAll();
+		}
+	}
+	
+	/**
+	 * Render the last version committed to renderCache, without lock, timed
+	 * for the probe and profiler.
+	 * @param render read the version.
+	 * @return what render return.
+	 */
+	private <T> T render(Supplier<T> render) {
+		Probe probe = this.probe;
+		long start = probe == null ? profileStart() : System.nanoTime();
+		T rendered = render.get();
+		if (probe != null) {
+			probe.rendered(System.nanoTime() - start);
+		}
+		lockReleased(Operation.TO_STRING, start, start, 0);
+		return rendered;
+	}
+	
+	/**
+	 * @return when a lock is requested, for lockAcquired, 0 without probe 
+	 * nor profiler.
+	 */
+	private long lockRequested() {
+		return probe == null && profiler == null ? 0 : System.nanoTime();
+	}
+	
+	/**
+	 * @return when a request taking no lock start, for lockReleased, 0 
+	 * without profiler.
+	 */
+	private long profileStart() {
+		return profiler == null ? 0 : System.nanoTime();
+	}
+	
+	/**
+	 * Tell the probe the wait for a lock, now held.
+	 * @param requested when the lock was requested, from lockRequested.
+	 * @return when the lock was acquired, for lockReleased, 0 if requested is 0.
+	 */
+	private long lockAcquired(long requested) {
+		if (requested == 0) {
+			return 0;
+		}
+		long acquired = System.nanoTime();
+		Probe probe = this.probe;
+		if (probe != null) {
+			probe.lockWaited(acquired - requested);
+		}
+		return acquired;
+	}
+	
+	/**
+	 * Tell the profiler the wait for a lock and its hold until now, the 
+	 * caller still holding it.
+	 * @param operation holding the lock.
+	 * @param requested when the lock was requested, from lockRequested.
+	 * @param acquired when the lock was acquired, from lockAcquired.
+	 * @param squares dug by a dig, 0 otherwise.
+	 */
+	private void lockReleased(Operation operation, long requested, long acquired, int squares) {
+		Profiler profiler = this.profiler;
+		if (requested != 0 && acquired != 0 && profiler != null) {
+			profiler.held(operation, acquired - requested, System.nanoTime() - acquired, squares);
+		}
+	}
+	
+	/**
+	 * Dig square i with monitorDig, count what it dug and commit it, the 
+	 * caller must hold the monitor or lock.
+	 * @param i index of square in cells.
+	 * @return as digLocked.
+	 */
+	private int digWhole(int i) {
+		boolean isBomb = digSquare(monitorDig, i);
+		int result = dugResult(isBomb, addCounts(monitorDig));
+		renderCache.commit(symbolOf, monitorDig);
+		monitorDig.commit();
+		journaled(journal, Operation.DIG, i);
+		return result;
+	}
+	
+	/**
+	 * Dig square i with the workers of actors, without lock.
+	 * @param i index of square in cells.
+	 * @return as digLocked.
+	 */
+	private int digActors(int i) {
+		long start = profileStart();
+		TileActors.Job job = actors.run(ACT_DIG, i);
+		int dug = job.dug.get();
+		lockReleased(Operation.DIG, start, start, dug);
+		return dugResult(job.bomb, dug);
+	}
+	
+	/**
+	 * @return digLocked result of a dig that found a bomb if isBomb, and dug squares.
+	 */
+	private static int dugResult(boolean isBomb, int dug) {
+		return (isBomb ? DUG_BOMB : 0) | (dug > 0 ? DUG_ANY : 0) | dug << DUG_SHIFT;
+	}
+	
+	/**
+	 * Dig square i as described in dig, the caller must hold the monitor or 
+	 * run transaction.
+	 * @param transaction guarding every square read or written.
+	 * @param i index of square in cells.
+	 * @return whether square i contain a bomb.
+	 */
+	private boolean digSquare(TileLocks.Transaction transaction, int i) {
+		boolean isBomb = digCell(transaction, i);
+		renderCache.mark(i);
+		
+		if (isBomb) {
+			decrementNeighbors(transaction, i);
+		}
+		
+		if ((cell(i) & CELL_COUNT) == 0) {
+			floodFill(transaction, i);
+		}
+		
+		checkRep();
+		return isBomb;
+	}
+	
+	/**
+	 * @return the work of TileActors on squares, as digSquare, with the 
+	 * cascade spreading square by square through the workers.
+	 */
+	private TileActors.Handler actorWork() {
+		return new TileActors.Handler() {
+			@Override public void handle(TileActors.Worker worker, int kind, int i) {
+				TileLocks.Transaction t = worker.transaction;
+				switch (kind) {
+				case ACT_DIG:
+					int dugBefore = t.dug;
+					if (digCell(t, i)) {
+						worker.job().bomb = true;
+						int x = i % sizeX, y = i / sizeX;
+						for (int ny = Math.max(0, y - 1); ny <= Math.min(sizeY - 1, y + 1); ny++) {
+							for (int nx = Math.max(0, x - 1); nx <= Math.min(sizeX - 1, x + 1); nx++) {
+								if (nx != x || ny != y) worker.send(ACT_DECREMENT, ny * sizeX + nx);
+							}
+						}
+					}
+					if (t.dug != dugBefore) renderCache.mark(i);
+					// as floodFill, a space spread even if it was dug before
+					if ((cell(i) & CELL_COUNT) == 0) spread(worker, i);
+					break;
+				case ACT_SPREAD:
+					int before = t.dug;
+					digCell(t, i);
+					if (t.dug == before) break;
+					renderCache.mark(i);
+					if ((cell(i) & CELL_COUNT) == 0) spread(worker, i);
+					break;
+				default:
+					int cell;
+					do {
+						cell = cell(i);
+					} while ((cell & CELL_COUNT) > 0 && !casCell(i, cell, cell - 1));
+					if ((cell & CELL_STATE) == CELL_DUG && (cell & CELL_COUNT) > 0) {
+						renderCache.mark(i);
+						t.record(i, cell);
+					}
+				}
+			}
+			
+			@Override public void finished(TileActors.Worker worker) {
+				// only this worker write the squares of its band
+				TileLocks.Transaction t = worker.transaction;
+				renderCache.commit(symbolOf, t);
+				worker.job().dug.addAndGet(addCounts(t));
+				t.commit();
+			}
+		};
+	}
+	
+	/**
+	 * Send the dig of the left, right, top and bottom neighbors of square i.
+	 * @param worker owning square i.
+	 * @param i index of a dug square with no neighbor bombs.
+	 */
+	private void spread(TileActors.Worker worker, int i) {
+		int x = i % sizeX;
+		if (x > 0) worker.send(ACT_SPREAD, i - 1);
+		if (x < sizeX - 1) worker.send(ACT_SPREAD, i + 1);
+		if (i >= sizeX) worker.send(ACT_SPREAD, i - sizeX);
+		if (i + sizeX < cells.length()) worker.send(ACT_SPREAD, i + sizeX);
+	}
+	
+	/**
+	 * Change square i to flagged state if is in the untouched state, 
+	 * atomically, without any lock, and commit it.
+	 * @param i index of square in cells.
+	 */
+	private boolean flagCell(int i) {
+		while (true) {
+			int cell = cell(i);
+			if ((cell & CELL_STATE) != CELL_UNTOUCHED) {
+				return false;
+			}
+			if (casCell(i, cell, cell & ~CELL_STATE | CELL_FLAGGED)) {
+				renderCache.mark(i);
+				renderCache.commit(symbolOf, i);
+				flagged.increment();
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Change square i to untouched state if is in the flagged state, 
+	 * atomically, without any lock, and commit it.
+	 * @param i index of square in cells.
+	 */
+	private boolean deflagCell(int i) {
+		while (true) {
+			int cell = cell(i);
+			if ((cell & CELL_STATE) != CELL_FLAGGED) {
+				return false;
+			}
+			if (casCell(i, cell, cell & ~CELL_STATE | CELL_UNTOUCHED)) {
+				renderCache.mark(i);
+				renderCache.commit(symbolOf, i);
+				flagged.decrement();
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Add the squares dug by transaction to the counters, and reset its counts.
+	 * @param transaction of a successful dig.
+	 * @return the squares transaction dug.
+	 */
+	private int addCounts(TileLocks.Transaction transaction) {
+		int squares = transaction.dug;
+		if (squares > 0) {
+			dug.addAndGet(squares);
+			bombs.addAndGet(-transaction.bombsDug);
+			safeLeft.addAndGet(-(squares - transaction.bombsDug));
+		}
+		transaction.dug = transaction.bombsDug = 0;
+		return squares;
+	}
+	
+	/**
+	 * Notify every listener that squares changed, the caller must not hold 
+	 * any lock of this board.
+	 */
+	private void publish() {
+		for (Listener listener : listeners) {
+			listener.changed(this);
+		}
 	}
 	
 	/**
-	 * Get Grid x,y.
 	 * @param position's x and y must greater than or equal to 0, and less than
 	 * the board size.
-	 * @return Grid x,y.
+	 * @return index of square x,y in cells.
 	 */
-	private Grid getGrid(Position position) {
-		return grids.get(position.y).get(position.x);
+	private int index(Position position) {
+		if (!inBoard(position)) {
+			throw new IndexOutOfBoundsException(position.x + "," + position.y);
+		}
+		return position.y * sizeX + position.x;
 	}
 	
 	/**
-	 * Increment middle square neighbors bombs count.
-	 * @param middle square position.
+	 * @param cell packed square.
+	 * @return the character of the packed square in the BOARD message.
 	 */
-	private void incrementNeighbors(final Position middle) {
-		neighbors(middle, p -> getGrid(p).increment());
+	private static int symbol(int cell) {
+		switch (cell & CELL_STATE) {
+		case CELL_UNTOUCHED: return '-';
+		case CELL_FLAGGED: return 'F';
+		default: 
+			int count = cell & CELL_COUNT;
+			return count == 0 ? ' ' : '0' + count;
+		}
+	}
+	
+	/**
+	 * @param i index of square in cells.
+	 * @return packed square i, read atomically.
+	 */
+	private int cell(int i) {
+		return cells.get(i);
+	}
+	
+	/**
+	 * Atomically set packed square i to value if it is equal to expected.
+	 * @param i index of square in cells.
+	 * @param expected packed square i expected.
+	 * @param value new packed square i.
+	 * @return whether square i was expected and is now value.
+	 */
+	private boolean casCell(int i, int expected, int value) {
+		return cells.compareAndSet(i, expected, value);
+	}
+	
+	/**
+	 * @param symbol BOARD message character of a square.
+	 * @return State of the square.
+	 */
+	private static State stateOfSymbol(int symbol) {
+		switch (symbol) {
+		case '-': return State.Untouched;
+		case 'F': return State.Flagged;
+		case ' ': return State.count(0);
+		default: return State.count(symbol - '0');
+		}
+	}
+	
+	/**
+	 * Change square i to dug state if square i is untouched, and remove the 
+	 * bomb it contain. The caller must mark square i in renderCache.
+	 * @param transaction guarding square i.
+	 * @param i index of square in cells.
+	 * @return whether square i contained a bomb before dug.
+	 */
+	private boolean digCell(TileLocks.Transaction transaction, int i) {
+		transaction.guard(i);
+		while (true) {
+			int cell = cell(i);
+			if ((cell & CELL_STATE) != CELL_UNTOUCHED) {
+				return false;
+			}
+			if (casCell(i, cell, cell & CELL_COUNT | CELL_DUG)) {
+				transaction.record(i, cell);
+				boolean isBomb = (cell & CELL_BOMB) != 0;
+				transaction.dug++;
+				if (isBomb) transaction.bombsDug++;
+				return isBomb;
+			}
+		}
+	}
+	
+	/**
+	 * Set the squares of rows [from, to) from the bomb bitmap words: the bomb
+	 * bit, and the neighbor bombs count as the sum of the 3x3 bombs around 
+	 * each square less its own, from the column sums of the rows above, at
+	 * and below. Rows only write their own squares, so bands run in parallel.
+	 * @param words bomb bitmap, bit y * sizeX + x for square x,y, may be shorter.
+	 */
+	private void countNeighbors(long[] words, int from, int to) {
+		// columns[x + 1] is the bombs of column x in the rows around y, 0 outside the board
+		int[] columns = new int[sizeX + 2];
+		for (int y = from; y < to; y++) {
+			int row = y * sizeX;
+			for (int x = 0; x < sizeX; x++) {
+				int sum = bit(words, row + x);
+				if (y > 0) sum += bit(words, row - sizeX + x);
+				if (y + 1 < sizeY) sum += bit(words, row + sizeX + x);
+				columns[x + 1] = sum;
+			}
+			for (int x = 0; x < sizeX; x++) {
+				int bomb = bit(words, row + x);
+				int count = columns[x] + columns[x + 1] + columns[x + 2] - bomb;
+				cells.set(row + x, count | (bomb != 0 ? CELL_BOMB : 0));
+			}
+		}
+	}
+	
+	/**
+	 * @return bit i of words, 0 beyond words.
+	 */
+	private static int bit(long[] words, int i) {
+		int word = i >>> 6;
+		return word < words.length ? (int) (words[word] >>> i) & 1 : 0;
 	}
 
 	/**
 	 * Decrement middle square neighbors bombs count.
-	 * @param middle square position.
+	 * @param transaction guarding every neighbor.
+	 * @param middle index of square in cells.
 	 */
-	private void decrementNeighbors(final Position middle) {
-		neighbors(middle, p -> getGrid(p).decrement());
+	private void decrementNeighbors(TileLocks.Transaction transaction, int middle) {
+		int x = middle % sizeX, y = middle / sizeX;
+		for (int ny = Math.max(0, y - 1); ny <= Math.min(sizeY - 1, y + 1); ny++) {
+			for (int nx = Math.max(0, x - 1); nx <= Math.min(sizeX - 1, x + 1); nx++) {
+				int i = ny * sizeX + nx;
+				if (i == middle) continue;
+				transaction.guard(i);
+				int cell;
+				do {
+					cell = cell(i);
+				} while ((cell & CELL_COUNT) > 0 && !casCell(i, cell, cell - 1));
+				if ((cell & CELL_COUNT) > 0) {
+					transaction.record(i, cell);
+					if ((cell & CELL_STATE) == CELL_DUG) renderCache.mark(i);
+				}
+			}
+		}
 	}
 
 	/**
-	 * For every neighbors nearby middle, apply function f
-	 * @param middle square to find out the neighbors
-	 * @param f to called for every neighbors
+	 * Dig every untouched square reachable from start through left, right, top,
+	 * bottom neighbors, spreading only from squares with no neighbor bombs.
+	 * Scanline fill: each seed on the flood work stack is widened into a run of
+	 * squares with no neighbor bombs in its row, then the rows above and below
+	 * the run are scanned for new seeds. Squares reached never contain a bomb,
+	 * since they neighbor a square with no neighbor bombs.
+	 * @param transaction guarding every square reached, and holding the flood
+	 * work stack.
+	 * @param start index of a dug square with no neighbor bombs.
 	 */
-	private void neighbors(Position middle, Consumer<Position> f) {
-		final Function<Position, Boolean> isNeighbor = p -> inBoard(p) && !p.equals(middle);
-		final Position lt = new Position(middle.x-1, middle.y-1);
-		
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
-				
-				final Position inspect = new Position(lt.x+j, lt.y+i);
-				if (isNeighbor.apply(inspect)) {
-					f.accept(inspect);
+	private void floodFill(TileLocks.Transaction transaction, int start) {
+		final TileLocks.Transaction t = transaction;
+		int top = 0;
+		t.flood[top++] = start;
+		while (top > 0) {
+			int seed = t.flood[--top];
+			if (seed != start && !isUntouchedSpace(t, seed)) continue;
+			digCell(t, seed);
+			
+			int rowStart = seed - seed % sizeX;
+			int rowEnd = rowStart + sizeX;
+			int left = seed, right = seed + 1;
+			while (left > rowStart && isUntouchedSpace(t, left - 1)) digCell(t, --left);
+			while (right < rowEnd && isUntouchedSpace(t, right)) digCell(t, right++);
+			if (left > rowStart) digCell(t, left - 1);
+			if (right < rowEnd) digCell(t, right);
+			renderCache.mark(Math.max(rowStart, left - 1), Math.min(rowEnd, right + 1));
+			
+			if (rowStart > 0) top = floodRow(t, left - sizeX, right - sizeX, top);
+			if (rowEnd < cells.length()) top = floodRow(t, left + sizeX, right + sizeX, top);
+		}
+	}
+	
+	/**
+	 * Dig the squares from, to-1 of a row next to a flood run, and push a seed 
+	 * on the flood work stack for every run of untouched squares with no 
+	 * neighbor bombs, they are dug when their seed is popped.
+	 * @param t guarding every square reached, and holding the flood work stack.
+	 * @param from index of first square in cells.
+	 * @param to index after the last square in cells, in the same row as from.
+	 * @param top flood work stack size.
+	 * @return new flood work stack size.
+	 */
+	private int floodRow(TileLocks.Transaction t, int from, int to, int top) {
+		boolean run = false;
+		for (int i = from; i < to; i++) {
+			if (isUntouchedSpace(t, i)) {
+				if (!run) {
+					if (top == t.flood.length) {
+						t.flood = Arrays.copyOf(t.flood, 2 * top);
+					}
+					t.flood[top++] = i;
 				}
+				run = true;
+			} else {
+				digCell(t, i);
+				run = false;
 			}
 		}
+		renderCache.mark(from, to);
+		return top;
 	}
 	
 	/**
-	 * For every cross neighbors nearby middle, apply function f.
-	 * Cross neighbors is in the left, right, top, bottom relative to
-	 * middle.
-	 * @param middle square to find out the cross neighbors
-	 * @param f to called for every cross neighbors
+	 * @param t guarding square i.
+	 * @param i index of square in cells.
+	 * @return whether square i is untouched and has no neighbor bombs.
 	 */
-	private void crossNeighbors(Position middle, Consumer<Position> f) {
-		final List<Position> cross = List.of(
-				new Position(middle.x-1, middle.y),
-				new Position(middle.x+1, middle.y),
-				new Position(middle.x, middle.y-1),
-				new Position(middle.x, middle.y+1));
-		for (Position pos : cross) {
-			if (inBoard(pos)) f.accept(pos);
-		}
+	private boolean isUntouchedSpace(TileLocks.Transaction t, int i) {
+		t.guard(i);
+		return (cell(i) & (CELL_STATE | CELL_COUNT)) == CELL_UNTOUCHED;
 	}
 	
 	/**
@@ -312,42 +1413,50 @@ public class Board {
 	}
 
 	/**
-	 * State represent a Grid state in Board.
+	 * State represent a square state in Board.
 	 * The mapping of characters is as follows:
 	 * 	"-" for squares with state untouched .
 	 * 	"F" for squares with state flagged .
 	 * 	" " (space) for squares with state dug and 0 neighbors that have a bomb.
 	 * 	integer COUNT in range [1-8] for squares with state dug and COUNT neighbors that have a bomb.
 	 */
-	static public class State {
+	static public final class State {
 		
-		static public final State Flagged = new State("F");
-		static public final State Space = new State(" ");
-		static public final State Untouched = new State("-");
+		/*
+		 * State is interned: there is exactly one State for each symbol, 
+		 * created here, so States are compared by identity and never allocated
+		 * while playing.
+		 */
+		
+		static public final State Flagged = new State("F", false);
+		static public final State Untouched = new State("-", false);
+		static private final State[] COUNTS = new State[9];
+		static {
+			COUNTS[0] = new State(" ", true);
+			for (int count = 1; count < COUNTS.length; count++) {
+				COUNTS[count] = new State(String.valueOf(count), true);
+			}
+		}
+		static public final State Space = COUNTS[0];
 		
 		private final String s;
+		private final boolean dug;
 		
+		/**
+		 * @param count neighbor bombs count, in range [0-8].
+		 * @return the State of a dug square with count neighbors that have a bomb.
+		 */
 		static public State count(int count) {
-			if (count == 0) {
-				return Space;
-			}
-			return new State(String.valueOf(count));
+			return COUNTS[count];
 		}
 		
-		private State(String symbol) {
-			s = symbol;
+		private State(String symbol, boolean dug) {
+			this.s = symbol;
+			this.dug = dug;
 		}
 		
 		public boolean isDug() {
-			return !this.equals(State.Flagged) && !this.equals(State.Untouched);
-		}
-	
-		@Override public boolean equals(Object thaObject) {
-			if (thaObject instanceof State) {
-				State that = (State) thaObject;
-				return this.s.equals(that.s);
-			}
-			return false;
+			return dug;
 		}
 		
 		@Override public String toString() {
@@ -356,94 +1465,113 @@ public class Board {
 	}
 	
 	/**
-	 * Grid represent a grid in Board.
+	 * Stats represent counters of a Board at some point of play.
+	 * Stats is immutable.
 	 */
-	private class Grid {
+	public static class Stats {
+		
+		/** squares dug */
+		public final int dug;
+		/** squares flagged */
+		public final int flagged;
+		/** squares still containing a bomb */
+		public final int bombs;
+		/** squares not containing a bomb and not dug yet */
+		public final int safeLeft;
 		
 		/**
 		 * Abstraction function:
-		 * 	AF(position, state, count, isBomb) represent a grid in Board at x,y position
-		 *  with state, how many bombs nearby in count and whether is a bomb.
+		 * 	AF(dug, flagged, bombs, safeLeft) represent the counters of a Board.
 		 * rep invariant:
-		 * 	If grid is a bomb, state must not be Dug.
-		 * 	If state is Dug, must not be bomb.
+		 * 	all counters greater than or equal to 0
 		 * rep exposure:
-		 *  position are final, all fields are immutable.
+		 *  all fields are final and immutable
 		 */
 		
-		private final Position position;
-		
-		private State state = State.Untouched;
-		
-		private int count = 0;
-		
-		private boolean isBomb = false;
-		
-		private Grid(Position position, boolean bomb) {
-			this.position = position;
-			this.isBomb = bomb;
-			checkRep();
+		private Stats(int dug, int flagged, int bombs, int safeLeft) {
+			this.dug = dug;
+			this.flagged = flagged;
+			this.bombs = bombs;
+			this.safeLeft = safeLeft;
 		}
 		
-		private Grid(Position position) {
-			this.position = position;
-			checkRep();
+		@Override public String toString() {
+			return String.format("dug %d, flagged %d, bombs %d, safe left %d", 
+					dug, flagged, bombs, safeLeft);
 		}
+	}
+	
+	/**
+	 * Changes are the squares of a Board changed between two versions, or a
+	 * snapshot of the whole BOARD message.
+	 */
+	public static class Changes {
 		
-		private void checkRep() {
-			if (isBomb) assert state != State.Space;
-			if (state == State.Space) assert !isBomb;
-			assert count >= 0;
-		}
+		/** version of the board including these changes */
+		public final long version;
 		
-		private boolean dig() {
-			boolean result = false;
-			if (state.equals(State.Untouched)) {
-				result = isBomb;
-				state = State.count(count);
-				isBomb = false;
-				checkRep();
-			}
-			return result;
-		}
+		private final int columns;
+		private final String snapshot;
+		private final int[] squares;
+		private final byte[] symbols;
 		
-		private void flag() {
-			if (state.equals(State.Untouched)) {
-				state = State.Flagged;
-				checkRep();
-			}
+		/**
+		 * Abstraction function:
+		 * 	AF(version, snapshot, squares, symbols) represent the whole BOARD
+		 * 	message snapshot if not null, else square squares[k] of a columns 
+		 * 	wide board now show character symbols[k], in the order changed.
+		 * rep invariant:
+		 * 	snapshot is null iff squares and symbols are not null, 
+		 * 	squares.length == symbols.length
+		 * rep exposure:
+		 * 	squares and symbols are private and never returned
+		 */
+		
+		Changes(int columns, long version, String snapshot, int[] squares, byte[] symbols) {
+			this.columns = columns;
+			this.version = version;
+			this.snapshot = snapshot;
+			this.squares = squares;
+			this.symbols = symbols;
 		}
 		
-		private void deflag() {
-			if (state.equals(State.Flagged)) {
-				state = State.Untouched;
-				checkRep();
-			}
+		/**
+		 * @return whether these changes are a snapshot of the whole board.
+		 */
+		public boolean isSnapshot() {
+			return snapshot != null;
 		}
 		
-		private void decrement() {
-			if (count > 0) {
-				count--;
-				if (state.isDug()) state = State.count(count);
-			}
-			checkRep();
+		/**
+		 * @return the BOARD message, requires isSnapshot().
+		 */
+		public String snapshot() {
+			if (snapshot == null) throw new IllegalStateException("not a snapshot");
+			return snapshot;
 		}
 		
-		private void increment() {
-			count++;
-			if (state.isDug()) state = State.count(count);
-			checkRep();
+		/**
+		 * @return how many squares changed, 0 if isSnapshot().
+		 */
+		public int size() {
+			return squares == null ? 0 : squares.length;
 		}
 		
-		@Override public boolean equals(Object thatObject) {
-			if (thatObject instanceof Grid) {
-				Grid that = (Grid) thatObject;
-				return this.position.equals(that.position) && this.state.equals(that.state) &&
-						this.count == that.count && this.isBomb == that.isBomb;
- 			}
-			return false;
+		/**
+		 * @param k change number, in [0, size()).
+		 * @return position of the square of change k.
+		 */
+		public Position position(int k) {
+			return new Position(squares[k] % columns, squares[k] / columns);
 		}
 		
+		/**
+		 * @param k change number, in [0, size()).
+		 * @return character of the square of change k in the BOARD message.
+		 */
+		public char symbol(int k) {
+			return (char) symbols[k];
+		}
 	}
 	
 	/**
@@ -478,6 +1606,10 @@ public class Board {
 			}
 			return false;
 		}
+		
+		@Override public int hashCode() {
+			return 31 * x + y;
+		}
 	}
 	
 	public static class FileImproperlyFormatted extends RuntimeException {
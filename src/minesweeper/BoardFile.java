@@ -0,0 +1,207 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * BoardFile is the binary board file format, memory-mapped as the squares
+ * of a Board by Board.open, so reopening a board parse nothing.
+ * Every integer is 4 bytes, big-endian.
+ * <pre>
+ *   FILE ::= MAGIC VERSION COLUMNS ROWS DUG FLAGGED BOMBS SAFE_LEFT CLEAN CHECKPOINT RESERVED SQUARES
+ *   MAGIC ::= "MSWB"
+ *   VERSION ::= 1
+ *   CLEAN ::= 1 if the counters match SQUARES, else 0
+ *   CHECKPOINT ::= 8 bytes, recorded by Board.save, see Board.checkpoint
+ *   RESERVED ::= zero bytes, up to HEADER_SIZE
+ *   SQUARES ::= COLUMNS * ROWS bytes, each a square packed as Board cells, zero padded to a multiple of 4
+ * </pre>
+ * While a Board has the file open shared CLEAN is 0, and the counters are
+ * those of the last snapshot, so a file left by a crash is recounted when
+ * opened. A file open private is never written, see Board.openPrivate.
+ */
+final class BoardFile {
+
+    /**
+     * Abstraction function:
+     * 	AF(channel, buffer, cells) represent an open board file, its header
+     * 	at the start of buffer and its squares in cells.
+     * rep invariant:
+     * 	buffer map the whole file, cells start at HEADER_SIZE.
+     * rep exposure:
+     * 	cells is shared with the Board of the file
+     * thread safety:
+     * 	header writes are synchronized, cells are thread safe.
+     */
+
+    static final int MAGIC = 'M' << 24 | 'S' << 16 | 'W' << 8 | 'B';
+    static final int VERSION = 1;
+    /** Size in bytes of the header, squares start there. */
+    static final int HEADER_SIZE = 64;
+
+    private static final int COUNTERS = 16;
+    private static final int CLEAN = 32;
+    private static final int CHECKPOINT = 36;
+    /** Bytes of squares copied at once by write. */
+    private static final int CHUNK = 64 * 1024;
+
+    final int columns, rows;
+    /** counters of the file when opened, recounted by Board if !clean */
+    final int dug, flagged, bombs, safeLeft;
+    final boolean clean;
+    /** whether changes to cells are written to the file */
+    final boolean shared;
+    /** checkpoint of the board saved in the file */
+    final long checkpoint;
+    final Cells.Mapped cells;
+    private final MappedByteBuffer buffer;
+
+    private BoardFile(MappedByteBuffer buffer, boolean shared, int maxSquares) throws IOException {
+        this.buffer = buffer;
+        this.shared = shared;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a binary board file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unknown board file version " + buffer.getInt(4));
+        }
+        this.columns = buffer.getInt(8);
+        this.rows = buffer.getInt(12);
+        if (columns < 0 || rows < 0 || (long) columns * rows > maxSquares
+                || buffer.capacity() < HEADER_SIZE + padded(columns * rows)) {
+            throw new IOException("board file truncated or corrupt");
+        }
+        this.dug = buffer.getInt(COUNTERS);
+        this.flagged = buffer.getInt(COUNTERS + 4);
+        this.bombs = buffer.getInt(COUNTERS + 8);
+        this.safeLeft = buffer.getInt(COUNTERS + 12);
+        this.clean = buffer.getInt(CLEAN) == 1;
+        this.checkpoint = buffer.getLong(CHECKPOINT);
+        this.cells = new Cells.Mapped(buffer, HEADER_SIZE, columns * rows);
+    }
+
+    /**
+     * Map file read-write if shared, and mark it not clean until the next 
+     * close, else map it copy-on-write.
+     * @param file a binary board file.
+     * @param shared whether changes to the cells are written to file.
+     * @param maxSquares most squares of the board, see Board.maxSquares.
+     * @return the open file.
+     * @throws IOException if file cannot be mapped or is not a binary board file.
+     */
+    static BoardFile open(File file, boolean shared, int maxSquares) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("board file too large");
+            }
+            // the mapping stay valid once the channel is closed
+            FileChannel.MapMode mode = shared ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.PRIVATE;
+            BoardFile opened = new BoardFile(channel.map(mode, 0, channel.size()), shared, maxSquares);
+            if (shared) {
+                opened.buffer.putInt(CLEAN, 0);
+                opened.buffer.force(0, HEADER_SIZE);
+            }
+            return opened;
+        }
+    }
+
+    /**
+     * Write the counters, and clean if the board is closing, then write 
+     * every changed page to the file, requires shared.
+     */
+    synchronized void snapshot(Board.Stats stats, boolean clean) {
+        buffer.putInt(COUNTERS, stats.dug);
+        buffer.putInt(COUNTERS + 4, stats.flagged);
+        buffer.putInt(COUNTERS + 8, stats.bombs);
+        buffer.putInt(COUNTERS + 12, stats.safeLeft);
+        cells.force();
+        if (clean) {
+            // only once the squares are on disk
+            buffer.putInt(CLEAN, 1);
+            buffer.force(0, HEADER_SIZE);
+        }
+    }
+
+    /**
+     * Copy a clean binary board file to a temporary file in memory, to
+     * replace file once the copy is committed. A board open on file keep
+     * mapping the previous file.
+     * @param file to replace.
+     * @param columns of the board.
+     * @param rows of the board.
+     * @param cells squares of the board, not changing while copied.
+     * @param stats counters of the board.
+     * @param checkpoint to record.
+     * @return the copy, not forced to disk yet.
+     * @throws IOException if the temporary file cannot be made.
+     */
+    static Copy copy(File file, int columns, int rows, Cells cells, Board.Stats stats, long checkpoint) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temporary = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) padded(cells.length()));
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(columns).putInt(rows)
+                  .putInt(stats.dug).putInt(stats.flagged).putInt(stats.bombs).putInt(stats.safeLeft)
+                  .putInt(1).putLong(checkpoint);
+            buffer.position(HEADER_SIZE);
+
+            byte[] chunk = new byte[Math.min(CHUNK, padded(cells.length()))];
+            for (int from = 0; from < cells.length(); from += chunk.length) {
+                int length = Math.min(chunk.length, cells.length() - from);
+                cells.copyTo(from, chunk, 0, length);
+                buffer.put(chunk, 0, length);
+            }
+            return new Copy(temporary, target, buffer);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Copy is a binary board file copied in memory, see copy, replacing its
+     * file once committed.
+     */
+    static final class Copy {
+        private final Path temporary;
+        private final Path target;
+        private final MappedByteBuffer buffer;
+
+        private Copy(Path temporary, Path target, MappedByteBuffer buffer) {
+            this.temporary = temporary;
+            this.target = target;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Force the copy to disk, then replace its file by it.
+         * @throws IOException if the copy cannot be written.
+         */
+        void commit() throws IOException {
+            try {
+                buffer.force();
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return length rounded up to a multiple of 4.
+     */
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+}
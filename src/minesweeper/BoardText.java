@@ -0,0 +1,220 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * BoardText read the text board file format of Board.load, streaming bytes
+ * from a FileChannel straight into a bomb bitmap, without a String per line
+ * or per square. It accept exactly the files the line reader did: lines end
+ * with "\n", "\r" or "\r\n", the last one may not; squares are separated by
+ * single spaces, an empty square between two spaces still count, trailing
+ * ones do not; a square is a bomb iff it is "1".
+ */
+final class BoardText {
+
+    /**
+     * Abstraction function:
+     * 	AF(sizeX, sizeY, words, bombs) represent a board file of sizeX columns
+     * 	and sizeY rows, square x,y a bomb iff bit y * sizeX + x of words, or 
+     * 	bombs once read, is set.
+     * rep invariant:
+     * 	no bit of words set at or beyond sizeX * sizeY
+     * rep exposure:
+     * 	bombs is handed to the Board made from it, not kept
+     * thread safety:
+     * 	confined to the loading thread
+     */
+
+    /** Bytes read from the file at once. */
+    private static final int CHUNK = 1 << 20;
+    /** Longest header line accepted. */
+    private static final int MAX_HEADER = 1024;
+
+    final int sizeX, sizeY;
+    /** bombs, once the whole file is read */
+    BitSet bombs;
+    /** bomb bitmap while reading */
+    private long[] words;
+
+    /** row being scanned, squares ended in it, squares up to the last non-empty one */
+    private int y = 0, x = 0, counted = 0;
+    /** bytes of the square being scanned, and whether they are "1" so far */
+    private int squareLength = 0;
+    private boolean squareIsOne = false;
+    /** whether the row has a space, a row without is one square even if empty */
+    private boolean rowHasSpace = false;
+    /** whether any byte of the row was read */
+    private boolean rowStarted = false;
+
+    private BoardText(int sizeX, int sizeY) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.words = new long[(int) (((long) Math.max(0, sizeX) * Math.max(0, sizeY) + 63) >>> 6)];
+    }
+
+    /**
+     * Read a text board file, see MinesweeperServer.main for its grammar.
+     * @param file to read.
+     * @return the size and bombs of the board in file.
+     * @throws IOException if read from disk error.
+     * @throws Board.FileImproperlyFormatted if file does not follow the grammar.
+     * @throws NumberFormatException if the size in file are not integers.
+     */
+    static BoardText read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK, Math.max(channel.size(), 1)));
+            byte[] bytes = buffer.array();
+            BoardText text = null;
+            byte[] header = new byte[MAX_HEADER];
+            int headerLength = 0;
+            boolean skipNewline = false;
+
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                if (read == 0 && buffer.hasRemaining()) continue;
+                int at = 0;
+                int end = buffer.position();
+                if (skipNewline && at < end) {
+                    if (bytes[at] == '\n') at++;
+                    skipNewline = false;
+                }
+                if (text == null) {
+                    for (; at < end; at++) {
+                        byte b = bytes[at];
+                        if (b == '\n' || b == '\r') break;
+                        if (headerLength == MAX_HEADER) throw new Board.FileImproperlyFormatted();
+                        header[headerLength++] = b;
+                    }
+                    if (at == end) {
+                        buffer.clear();
+                        continue;
+                    }
+                    text = header(new String(header, 0, headerLength, StandardCharsets.UTF_8), channel.size());
+                    if (bytes[at++] == '\r') {
+                        if (at == end) {
+                            skipNewline = true;
+                        } else if (bytes[at] == '\n') {
+                            at++;
+                        }
+                    }
+                }
+                if (at < end) {
+                    skipNewline = text.scan(bytes, at, end);
+                }
+                buffer.clear();
+            }
+            if (text == null) {
+                if (headerLength == 0) throw new Board.FileImproperlyFormatted();
+                text = header(new String(header, 0, headerLength, StandardCharsets.UTF_8), channel.size());
+            }
+            text.finish();
+            return text;
+        }
+    }
+
+    /**
+     * @param line header line of a board file.
+     * @param fileSize bytes of the board file.
+     * @return the board of the size given by line, without bombs yet.
+     */
+    private static BoardText header(String line, long fileSize) {
+        String[] vals = line.split(" ");
+        if (vals.length != 2) throw new Board.FileImproperlyFormatted();
+        int sizeX = Integer.parseInt(vals[0]);
+        int sizeY = Integer.parseInt(vals[1]);
+        // a row is at least the sizeX - 1 spaces between its squares, which may be
+        // empty, and every row but the last a newline, so the bitmap is not
+        // allocated for a size the file cannot hold
+        if ((long) sizeY * sizeX - 1 > fileSize) throw new Board.FileImproperlyFormatted();
+        return new BoardText(sizeX, sizeY);
+    }
+
+    /**
+     * Scan bytes[from, to) of the rows.
+     * @return whether bytes[to - 1] is "\r", so a "\n" following it is skipped.
+     */
+    private boolean scan(byte[] bytes, int from, int to) {
+        // the row state is kept in locals while scanning, in fields between chunks
+        long[] words = this.words;
+        int x = this.x, counted = this.counted, squareLength = this.squareLength;
+        boolean squareIsOne = this.squareIsOne, rowHasSpace = this.rowHasSpace, rowStarted = this.rowStarted;
+        int rowStart = y * sizeX;
+        boolean skipNewline = false;
+        for (int at = from; at < to; at++) {
+            byte b = bytes[at];
+            if (squareLength == 0 && (b == '0' || b == '1') && at + 1 < to && bytes[at + 1] == ' ') {
+                // most squares are one digit and a space
+                if (b == '1' && x < sizeX && y < sizeY) {
+                    int i = rowStart + x;
+                    words[i >>> 6] |= 1L << i;
+                }
+                counted = ++x;
+                rowHasSpace = rowStarted = true;
+                at++;
+            } else if (b == ' ' || b == '\n' || b == '\r') {
+                // end the square
+                if (squareLength > 0) {
+                    if (squareIsOne && x < sizeX && y < sizeY) {
+                        int i = rowStart + x;
+                        words[i >>> 6] |= 1L << i;
+                    }
+                    counted = x + 1;
+                }
+                x++;
+                squareLength = 0;
+                squareIsOne = false;
+                if (b == ' ') {
+                    rowHasSpace = rowStarted = true;
+                    continue;
+                }
+                // end the row, as String.split trailing empty squares are dropped,
+                // a row without space is one square
+                int squares = rowHasSpace ? counted : 1;
+                if (y >= sizeY || squares != sizeX) throw new Board.FileImproperlyFormatted();
+                y++;
+                rowStart += sizeX;
+                x = counted = 0;
+                rowHasSpace = rowStarted = false;
+                if (b == '\r') {
+                    if (at + 1 == to) {
+                        skipNewline = true;
+                    } else if (bytes[at + 1] == '\n') {
+                        at++;
+                    }
+                }
+            } else {
+                squareIsOne = squareLength == 0 && b == '1';
+                squareLength++;
+                rowStarted = true;
+            }
+        }
+        this.x = x;
+        this.counted = counted;
+        this.squareLength = squareLength;
+        this.squareIsOne = squareIsOne;
+        this.rowHasSpace = rowHasSpace;
+        this.rowStarted = rowStarted;
+        return skipNewline;
+    }
+
+    /**
+     * End the last row, if not ended by a newline, and check every row was read.
+     */
+    private void finish() {
+        if (rowStarted) {
+            scan(new byte[] { '\n' }, 0, 1);
+        }
+        if (y != sizeY) throw new Board.FileImproperlyFormatted();
+        bombs = BitSet.valueOf(words);
+        words = null;
+    }
+}
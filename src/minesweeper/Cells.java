@@ -0,0 +1,156 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Cells store the packed squares of a Board, one byte per square, in a heap
+ * array or in a memory-mapped BoardFile.
+ */
+abstract class Cells {
+
+    /**
+     * @param length number of squares.
+     * @return cells in a new heap array, every square 0.
+     */
+    static Cells heap(int length) {
+        return new Heap(length);
+    }
+
+    /**
+     * @return number of squares.
+     */
+    abstract int length();
+
+    /**
+     * @param i index of square.
+     * @return square i, read atomically with acquire semantics.
+     */
+    abstract int get(int i);
+
+    /**
+     * Set square i, requires no other thread access it concurrently.
+     * @param i index of square.
+     * @param value new square i.
+     */
+    abstract void set(int i, int value);
+
+    /**
+     * Atomically set square i to value if it is equal to expected.
+     * @param i index of square.
+     * @return whether square i was expected and is now value.
+     */
+    abstract boolean compareAndSet(int i, int expected, int value);
+
+    /**
+     * Copy squares [from, from + length) into dst[offset, offset + length).
+     */
+    abstract void copyTo(int from, byte[] dst, int offset, int length);
+
+    /**
+     * Heap is cells in a byte array.
+     */
+    private static final class Heap extends Cells {
+        private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+        private final byte[] bytes;
+
+        Heap(int length) {
+            this.bytes = new byte[length];
+        }
+
+        @Override int length() {
+            return bytes.length;
+        }
+
+        @Override int get(int i) {
+            return (byte) BYTES.getAcquire(bytes, i);
+        }
+
+        @Override void set(int i, int value) {
+            bytes[i] = (byte) value;
+        }
+
+        @Override boolean compareAndSet(int i, int expected, int value) {
+            return BYTES.compareAndSet(bytes, i, (byte) expected, (byte) value);
+        }
+
+        @Override void copyTo(int from, byte[] dst, int offset, int length) {
+            System.arraycopy(bytes, from, dst, offset, length);
+        }
+    }
+
+    /**
+     * Mapped is cells in a memory-mapped buffer, from offset. Byte buffers
+     * have no atomic byte access, so a square is compare-and-set through the
+     * aligned int holding it.
+     */
+    static final class Mapped extends Cells {
+        private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+        private static final boolean LITTLE = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        private final MappedByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        /**
+         * @param buffer holding the squares, from offset.
+         * @param offset of square 0 in buffer, a multiple of 4.
+         * @param length number of squares, buffer must hold them rounded up to a multiple of 4.
+         */
+        Mapped(MappedByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override int length() {
+            return length;
+        }
+
+        /**
+         * @return shift of square i in the int holding it.
+         */
+        private static int shift(int i) {
+            return LITTLE ? (i & 3) << 3 : (3 - (i & 3)) << 3;
+        }
+
+        @Override int get(int i) {
+            int word = (int) INTS.getAcquire(buffer, offset + (i & ~3));
+            return (byte) (word >>> shift(i));
+        }
+
+        @Override void set(int i, int value) {
+            buffer.put(offset + i, (byte) value);
+        }
+
+        @Override boolean compareAndSet(int i, int expected, int value) {
+            int at = offset + (i & ~3);
+            int shift = shift(i);
+            while (true) {
+                int word = (int) INTS.getVolatile(buffer, at);
+                if ((byte) (word >>> shift) != (byte) expected) {
+                    return false;
+                }
+                int updated = word & ~(0xFF << shift) | (value & 0xFF) << shift;
+                if (INTS.compareAndSet(buffer, at, word, updated)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override void copyTo(int from, byte[] dst, int offset, int length) {
+            buffer.get(this.offset + from, dst, offset, length);
+        }
+
+        /**
+         * Write the changed pages of buffer to its file.
+         */
+        void force() {
+            buffer.force();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * RenderCache keep versions of the BOARD message of a Board, see
+ * Board.toString, and of its packed form, see Board.toPacked, so they are
+ * read without any lock of the Board.
+ * Squares are marked dirty by mutations, from any thread, and committed by
+ * the writer once its change is whole, while it still hold the Board locks:
+ * the dirty squares are patched into a new immutable version, copying only
+ * the chunks of bytes they are in, and the version is published for readers.
+ * Every square committed is appended to a bounded change log, see
+ * Board.changesSince. An unchanged board is served with no rendering at all.
+ */
+class RenderCache {
+
+    /**
+     * Abstraction function:
+     * 	AF(sizeX, current, dirty, log, version) represent the BOARD message of
+     * 	a sizeX columns Board as of its last commit, current.text(), and its
+     * 	packed form, current.packed, the squares whose bit is set in dirty
+     * 	may have changed since.
+     * 	version count the squares committed so far, the last
+     * 	min(version, log.length) of them are in log, square committed number v
+     * 	at log[v % log.length].
+     * rep invariant:
+     * 	current.text length is 2 * squares - 1, text[2 * i + 1] is '\n' at the
+     * 	end of a row and ' ' elsewhere, split in chunks of 2^chunkShift bytes.
+     * 	current.packed length is (squares + 1) / 2, nibble i is
+     * 	nibble(text[2 * i]), split in chunks of 2^chunkShift bytes.
+     * rep exposure:
+     * 	dirty, log and the chunks are private and never returned, text() is
+     * 	immutable, packed() return a copy.
+     * thread safety:
+     * 	mark is thread safe: dirty bits are set atomically through DIRTY, then
+     * 	pending is set, after the square is written.
+     * 	commits are serialized by the monitor, each clear the dirty bits it
+     * 	patch, then fence, before reading their squares. dirty and pending are
+     * 	read volatile, so either a commit read the square written or the
+     * 	writer see its bit cleared and set it again: a square marked during
+     * 	commit is patched by this or a later commit.
+     * 	a Version is never written once published through the volatile
+     * 	current, a commit copy every chunk it write, so readers of a version
+     * 	see every square of the same commits. Version.rendered is a benign
+     * 	race, a String of the same immutable chunks.
+     * 	changesSince read the log under the monitor.
+     */
+
+    /** Nibble of an untouched square in the packed form, 0-8 are dug squares COUNT. */
+    static final int PACKED_UNTOUCHED = 9;
+    /** Nibble of a flagged square in the packed form. */
+    static final int PACKED_FLAGGED = 10;
+
+    /** smallest chunk, 64 bytes */
+    private static final int MIN_CHUNK_SHIFT = 6;
+
+    /** atomic access to dirty elements */
+    private static final VarHandle DIRTY = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int sizeX;
+    /**
+     * bytes of each chunk copied on write, about the square root of the
+     * text length, so a commit copy as many chunk references as chunk bytes
+     */
+    private final int chunkShift, chunkMask;
+    private final int textLength;
+    private final int packedLength;
+    private final long[] dirty;
+    private volatile boolean pending = false;
+    private final int[] log;
+    /** squares committed so far */
+    private long version = 0;
+    /** the last version committed */
+    private volatile Version current;
+    /** chunks of the version being committed, null until a square is patched */
+    private byte[][] nextText, nextPacked;
+
+    /**
+     * Make the render cache of a sizeX columns, sizeY rows board with every
+     * square untouched.
+     * @param sizeX Board columns size.
+     * @param sizeY Board rows size.
+     */
+    RenderCache(int sizeX, int sizeY) {
+        int squares = sizeX * sizeY;
+        this.sizeX = sizeX;
+        this.textLength = Math.max(0, 2 * squares - 1);
+        this.packedLength = (squares + 1) / 2;
+        this.chunkShift = Math.max(MIN_CHUNK_SHIFT, (33 - Integer.numberOfLeadingZeros(textLength)) / 2);
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.dirty = new long[(squares + 63) >>> 6];
+        // a delta larger than this is no smaller than the BOARD message
+        this.log = new int[squares / 4 + 64];
+        byte[] text = new byte[textLength];
+        byte[] packed = new byte[packedLength];
+        for (int i = 0; i < squares; i++) {
+            text[2 * i] = '-';
+            if (2 * i + 1 < text.length) {
+                text[2 * i + 1] = (byte) ((i + 1) % sizeX == 0 ? '\n' : ' ');
+            }
+        }
+        Arrays.fill(packed, (byte) (PACKED_UNTOUCHED << 4 | PACKED_UNTOUCHED));
+        if (squares % 2 != 0) {
+            packed[packedLength - 1] = (byte) (PACKED_UNTOUCHED << 4);
+        }
+        this.current = new Version(chunks(text), chunks(packed));
+    }
+
+    /**
+     * Mark square i as changed, it is patched on the next commit of it.
+     * @param i index of square in Board.
+     */
+    void mark(int i) {
+        int word = i >>> 6;
+        long bit = 1L << i;
+        if (((long) DIRTY.getVolatile(dirty, word) & bit) == 0) {
+            DIRTY.getAndBitwiseOr(dirty, word, bit);
+        }
+        if (!pending) {
+            pending = true;
+        }
+    }
+
+    /**
+     * Mark squares from, to-1 as changed, they are patched on the next commit of them.
+     * @param from index of first square in Board.
+     * @param to index after the last square in Board.
+     */
+    void mark(int from, int to) {
+        while (from < to) {
+            int word = from >>> 6;
+            int end = Math.min(to, (word + 1) << 6);
+            long bits = (-1L >>> (64 - (end - from))) << from;
+            if (((long) DIRTY.getVolatile(dirty, word) & bits) != bits) {
+                DIRTY.getAndBitwiseOr(dirty, word, bits);
+            }
+            from = end;
+        }
+        if (!pending) {
+            pending = true;
+        }
+    }
+
+    /**
+     * Commit every square marked, requires no square being changed but
+     * atomically, e.g. under the Board monitor.
+     * @param symbol return the BOARD message character of square i.
+     */
+    synchronized void commit(IntUnaryOperator symbol) {
+        if (!pending) return;
+        pending = false;
+        for (int word = 0; word < dirty.length; word++) {
+            if ((long) DIRTY.getVolatile(dirty, word) == 0) continue;
+            long bits = (long) DIRTY.getAndSet(dirty, word, 0L);
+            VarHandle.fullFence();
+            while (bits != 0) {
+                patch((word << 6) + Long.numberOfTrailingZeros(bits), symbol);
+                bits &= bits - 1;
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Commit square i if it is marked, requires square i not being changed
+     * but atomically.
+     * @param symbol return the BOARD message character of square i.
+     */
+    synchronized void commit(IntUnaryOperator symbol, int i) {
+        commitSquare(i, symbol);
+        publish();
+    }
+
+    /**
+     * Commit every square written by transaction that is marked, requires
+     * its squares not being changed but by transaction, e.g. under the
+     * Board monitor or the tiles transaction hold.
+     * @param symbol return the BOARD message character of square i.
+     * @param transaction of a successful dig, journaled, not committed yet.
+     */
+    synchronized void commit(IntUnaryOperator symbol, TileLocks.Transaction transaction) {
+        for (int k = 0; k < transaction.writes(); k++) {
+            commitSquare(transaction.written(k), symbol);
+        }
+        publish();
+    }
+
+    /**
+     * @return the BOARD message as of the last commit.
+     */
+    String render() {
+        return current.text(textLength, chunkShift);
+    }
+
+    /**
+     * @return the nibble of every square as of the last commit, see Board.toPacked.
+     */
+    byte[] packed() {
+        return concat(current.packed, packedLength, chunkShift);
+    }
+
+    /**
+     * @param i index of square in Board.
+     * @return the BOARD message character of square i as of the last commit.
+     */
+    int symbol(int i) {
+        return current.text[(2 * i) >>> chunkShift][(2 * i) & chunkMask];
+    }
+
+    /**
+     * @param since version of previous changes, or -1 for none.
+     * @return squares committed since version since, or the BOARD message if
+     * since is -1 or older than the log.
+     */
+    synchronized Board.Changes changesSince(long since) {
+        Version last = current;
+        if (since < 0 || since > version || version - since > log.length) {
+            return new Board.Changes(sizeX, version, last.text(textLength, chunkShift), null, null);
+        }
+        int count = (int) (version - since);
+        int[] squares = new int[count];
+        byte[] symbols = new byte[count];
+        for (int k = 0; k < count; k++) {
+            int i = log[(int) ((since + k) % log.length)];
+            squares[k] = i;
+            symbols[k] = (byte) symbol(i);
+        }
+        return new Board.Changes(sizeX, version, null, squares, symbols);
+    }
+
+    /**
+     * Clear the dirty bit of square i and patch it if it was set.
+     */
+    private void commitSquare(int i, IntUnaryOperator symbol) {
+        int word = i >>> 6;
+        long bit = 1L << i;
+        if (((long) DIRTY.getVolatile(dirty, word) & bit) != 0
+                && ((long) DIRTY.getAndBitwiseAnd(dirty, word, ~bit) & bit) != 0) {
+            VarHandle.fullFence();
+            patch(i, symbol);
+        }
+    }
+
+    /**
+     * Write square i into the version being committed, and log it.
+     */
+    private void patch(int i, IntUnaryOperator symbol) {
+        if (nextText == null) {
+            nextText = current.text.clone();
+            nextPacked = current.packed.clone();
+        }
+        int c = symbol.applyAsInt(i);
+        writable(nextText, current.text, (2 * i) >>> chunkShift)[(2 * i) & chunkMask] = (byte) c;
+        byte[] chunk = writable(nextPacked, current.packed, (i >> 1) >>> chunkShift);
+        int at = (i >> 1) & chunkMask;
+        int shift = (i & 1) == 0 ? 4 : 0;
+        chunk[at] = (byte) (chunk[at] & ~(0xF << shift) | nibble(c) << shift);
+        log[(int) (version++ % log.length)] = i;
+    }
+
+    /**
+     * Publish the version being committed, if any square was patched.
+     */
+    private void publish() {
+        if (nextText != null) {
+            current = new Version(nextText, nextPacked);
+            nextText = nextPacked = null;
+        }
+    }
+
+    /**
+     * @return chunk c of next, copied first if it is still the chunk of published.
+     */
+    private static byte[] writable(byte[][] next, byte[][] published, int c) {
+        if (next[c] == published[c]) {
+            next[c] = published[c].clone();
+        }
+        return next[c];
+    }
+
+    /**
+     * @return bytes split in chunks of 2^chunkShift bytes, the last one shorter.
+     */
+    private byte[][] chunks(byte[] bytes) {
+        byte[][] chunks = new byte[(bytes.length + chunkMask) >>> chunkShift][];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = Arrays.copyOfRange(bytes, c << chunkShift,
+                    Math.min(bytes.length, (c + 1) << chunkShift));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return chunks of 2^chunkShift bytes joined in a new array of length bytes.
+     */
+    private static byte[] concat(byte[][] chunks, int length, int chunkShift) {
+        byte[] bytes = new byte[length];
+        for (int c = 0; c < chunks.length; c++) {
+            System.arraycopy(chunks[c], 0, bytes, c << chunkShift, chunks[c].length);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param symbol BOARD message character of a square.
+     * @return packed value of the square.
+     */
+    private static int nibble(int symbol) {
+        switch (symbol) {
+        case '-': return PACKED_UNTOUCHED;
+        case 'F': return PACKED_FLAGGED;
+        case ' ': return 0;
+        default: return symbol - '0';
+        }
+    }
+
+    /**
+     * Version is an immutable BOARD message and packed form, chunks shared
+     * with the versions before and after it where no square changed.
+     */
+    private static final class Version {
+        final byte[][] text;
+        final byte[][] packed;
+        /** text as a String, null until rendered */
+        private String rendered;
+
+        Version(byte[][] text, byte[][] packed) {
+            this.text = text;
+            this.packed = packed;
+        }
+
+        /**
+         * @return the BOARD message of this version, of length bytes in
+         * chunks of 2^chunkShift bytes.
+         */
+        String text(int length, int chunkShift) {
+            String text = rendered;
+            if (text == null) {
+                text = new String(concat(this.text, length, chunkShift), StandardCharsets.ISO_8859_1);
+                rendered = text;
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TileActors split a Board into bands of TileLocks.TILE_SIZE x TILE_SIZE
+ * squares tiles, each band owned by one worker thread, for
+ * Board.Locking.ACTORS. A dig is a message to the worker owning its square,
+ * work reaching a square of another band is a message to that band worker,
+ * so squares are only written by their worker and no lock is taken.
+ *
+ * <br> Workers are shared by every actor Board, one per available processor
+ *      unless set by the system property minesweeper.actors, or by the
+ *      boards of a Pool, each owning band k of every board. A worker handle one message at a
+ *      time, with the work it spawn in its own band, before the next one.
+ *      Messages from one worker to another are handled in the order sent.
+ */
+final class TileActors {
+
+    /**
+     * Abstraction function:
+     * 	AF(sizeX, tilesX, tileCount, workers, handler) represent the tiles of
+     * 	a sizeX columns Board, tile t owned by worker
+     * 	t * workers.length / tileCount, whose work on a square is done by
+     * 	handler.
+     * rep invariant:
+     * 	tileCount == tilesX * tilesY > 0, workers.length > 0
+     * rep exposure:
+     * 	every field is private and never returned
+     * thread safety:
+     * 	fields are final, a Worker is confined to its thread, messages are
+     * 	passed through concurrent queues, a Job is completed through atomic
+     * 	pending counts and volatile flags, no lock is taken.
+     */
+
+    /**
+     * Handler does the work of one board on its squares, on the thread of
+     * the worker owning them.
+     */
+    interface Handler {
+        /**
+         * Do kind of work on square, called by the worker owning square.
+         * @param worker owning square, to send work to other squares.
+         * @param kind of work, as given to send.
+         * @param square index of square in Board.
+         */
+        void handle(Worker worker, int kind, int square);
+
+        /**
+         * Called once worker finished a message and the work it spawned in
+         * its band, before the message job may complete.
+         * @param worker that finished the message.
+         */
+        void finished(Worker worker);
+    }
+
+    /** Squares of a Board must be less, so ops square << 2 | kind are non-negative. */
+    static final int MAX_SQUARES = 1 << 29;
+
+    /** Workers shared by every actor Board, system property minesweeper.actors or one per processor. */
+    private static final Pool SHARED = new Pool(
+            Integer.getInteger("minesweeper.actors", Runtime.getRuntime().availableProcessors()));
+
+    private final int sizeX;
+    private final int tilesX;
+    private final int tileCount;
+    private final Worker[] workers;
+    private final Handler handler;
+
+    /**
+     * Make the tile actors of a sizeX columns, sizeY rows Board.
+     * @param sizeX Board columns size.
+     * @param sizeY Board rows size, sizeX * sizeY must be less than MAX_SQUARES.
+     * @param handler the work on squares of the Board.
+     * @param pool workers owning the tiles, or null for the workers shared
+     *             by every actor Board.
+     */
+    TileActors(int sizeX, int sizeY, Handler handler, Pool pool) {
+        this.sizeX = sizeX;
+        this.workers = (pool == null ? SHARED : pool).workers;
+        this.tilesX = Math.max(1, (sizeX + TileLocks.TILE_SIZE - 1) >> TileLocks.TILE_SHIFT);
+        this.tileCount = tilesX * Math.max(1, (sizeY + TileLocks.TILE_SIZE - 1) >> TileLocks.TILE_SHIFT);
+        this.handler = handler;
+    }
+
+    /**
+     * Send kind of work on square to its worker, and wait until it and all
+     * the work it spawned on every worker is done.
+     * @param kind of work.
+     * @param square index of square in Board.
+     * @return the finished Job, holding what the work found.
+     * @throws RuntimeException or Error thrown by a handler of the work, once
+     *         the job is done, the Board may have part of the work done.
+     */
+    Job run(int kind, int square) {
+        Job job = new Job(Thread.currentThread());
+        job.pending.set(1);
+        workers[owner(square)].post(new Message(this, job, new int[] { op(kind, square) }, 1));
+        while (!job.done) {
+            LockSupport.park(job);
+        }
+        Throwable failure = job.failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw (RuntimeException) failure;
+        return job;
+    }
+
+    /**
+     * @param i index of square in Board.
+     * @return index of the worker owning square i.
+     */
+    private int owner(int i) {
+        int y = i / sizeX;
+        int x = i - y * sizeX;
+        int tile = (y >> TileLocks.TILE_SHIFT) * tilesX + (x >> TileLocks.TILE_SHIFT);
+        return (int) ((long) tile * workers.length / tileCount);
+    }
+
+    private static int op(int kind, int square) {
+        return square << 2 | kind;
+    }
+
+    private static Worker[] startWorkers(int count) {
+        Worker[] workers = new Worker[count];
+        for (int w = 0; w < count; w++) {
+            workers[w] = new Worker(w, count);
+        }
+        for (Worker worker : workers) {
+            Thread thread = new Thread(worker::run, "tile-actor-" + worker.index);
+            thread.setDaemon(true);
+            worker.thread = thread;
+            thread.start();
+        }
+        return workers;
+    }
+
+    /**
+     * Pool is a set of workers, each owning its band of every actor Board
+     * made with the pool. Its threads are daemons, parked while idle.
+     */
+    static final class Pool {
+        private final Worker[] workers;
+
+        /**
+         * Start count workers.
+         * @param count requires count > 0.
+         */
+        Pool(int count) {
+            this.workers = startWorkers(count);
+        }
+    }
+
+    /**
+     * Job is one request run on the workers, done once every message it
+     * spawned is handled.
+     */
+    static final class Job {
+        /** messages of this job not handled yet */
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Thread waiter;
+        private volatile boolean done = false;
+        /** what the work found, set by handlers before the job is done */
+        volatile boolean bomb = false;
+        /** squares dug by the job */
+        final AtomicInteger dug = new AtomicInteger();
+        /** a RuntimeException or Error thrown by a handler of the job, null if none */
+        private volatile Throwable failure = null;
+
+        private Job(Thread waiter) {
+            this.waiter = waiter;
+        }
+    }
+
+    /**
+     * Message is work on squares of one band, ops packed as square << 2 | kind.
+     */
+    private static final class Message {
+        final TileActors actors;
+        final Job job;
+        final int[] ops;
+        final int count;
+
+        Message(TileActors actors, Job job, int[] ops, int count) {
+            this.actors = actors;
+            this.job = job;
+            this.ops = ops;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Worker is the thread owning band index of every actor Board of its
+     * pool, with its mailbox, its queue of work in its band, and a work outbox per other worker.
+     */
+    static final class Worker {
+
+        /** squares dug and written by the message handled, journaled, for Handler.finished */
+        final TileLocks.Transaction transaction = new TileLocks.Transaction(null, true);
+
+        private final int index;
+        private Thread thread;
+        private final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<>();
+        /** true while the thread is about to park or parked */
+        private volatile boolean sleeping = false;
+
+        /** message being handled */
+        private Message message;
+        /** work in this band, FIFO, ops[head, tail) */
+        private int[] queue = new int[64];
+        private int head = 0, tail = 0;
+        /** work for other workers, outbox[w][0, outboxCount[w]) */
+        private final int[][] outbox;
+        private final int[] outboxCount;
+
+        private Worker(int index, int workers) {
+            this.index = index;
+            this.outbox = new int[workers][];
+            this.outboxCount = new int[workers];
+        }
+
+        /**
+         * Do kind of work on square after the work already sent, on the worker
+         * owning square, as part of the message being handled.
+         * @param kind of work, in [0, 3].
+         * @param square index of square in Board.
+         */
+        void send(int kind, int square) {
+            int owner = message.actors.owner(square);
+            int op = op(kind, square);
+            if (owner == index) {
+                if (tail == queue.length) {
+                    System.arraycopy(queue, head, queue, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                    if (tail == queue.length) queue = Arrays.copyOf(queue, 2 * tail);
+                }
+                queue[tail++] = op;
+                return;
+            }
+            int[] ops = outbox[owner];
+            int count = outboxCount[owner];
+            if (ops == null) {
+                ops = outbox[owner] = new int[16];
+            } else if (count == ops.length) {
+                ops = outbox[owner] = Arrays.copyOf(ops, 2 * count);
+            }
+            ops[count] = op;
+            outboxCount[owner] = count + 1;
+        }
+
+        /**
+         * @return the job of the message being handled.
+         */
+        Job job() {
+            return message.job;
+        }
+
+        private void post(Message message) {
+            mailbox.add(message);
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void run() {
+            while (true) {
+                Message next = mailbox.poll();
+                if (next == null) {
+                    sleeping = true;
+                    // a message posted before sleeping was set is seen here
+                    if (mailbox.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                try {
+                    handle(next);
+                } catch (RuntimeException | Error e) {
+                    // a broken handler must not stop the worker of every board
+                    abort(next.job, e);
+                }
+            }
+        }
+
+        /**
+         * Handle message and the work it spawn in this band, then send the
+         * work for other bands and complete its job if nothing is pending.
+         */
+        private void handle(Message message) {
+            this.message = message;
+            Handler handler = message.actors.handler;
+            for (int k = 0; k < message.count; k++) {
+                send(message.ops[k] & 3, message.ops[k] >>> 2);
+            }
+            while (head < tail) {
+                int op = queue[head++];
+                handler.handle(this, op & 3, op >>> 2);
+            }
+            head = tail = 0;
+            handler.finished(this);
+
+            Job job = message.job;
+            for (int w = 0; w < outbox.length; w++) {
+                if (outboxCount[w] == 0) continue;
+                job.pending.incrementAndGet();
+                message.actors.workers[w].post(new Message(message.actors, job, outbox[w], outboxCount[w]));
+                outbox[w] = null;
+                outboxCount[w] = 0;
+            }
+            complete(job);
+            this.message = null;
+        }
+
+        /**
+         * Drop the work of the message that failed, and its squares not
+         * finished yet, so the next message start clean, then record failure
+         * on its job for its waiter.
+         */
+        private void abort(Job job, Throwable failure) {
+            head = tail = 0;
+            Arrays.fill(outboxCount, 0);
+            transaction.dug = transaction.bombsDug = 0;
+            transaction.commit();
+            message = null;
+            if (job.failure == null) {
+                job.failure = failure;
+            }
+            complete(job);
+        }
+
+        /**
+         * Count one message of job handled, wake up its waiter if it was the last.
+         */
+        private static void complete(Job job) {
+            if (job.pending.decrementAndGet() == 0) {
+                job.done = true;
+                LockSupport.unpark(job.waiter);
+            }
+        }
+    }
+}
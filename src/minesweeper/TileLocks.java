@@ -0,0 +1,299 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TileLocks split a Board into TILE_SIZE x TILE_SIZE squares tiles, each
+ * guarded by its own lock, for Board.Locking.STRIPED.
+ * Tiles are numbered row by row, and a thread only ever blocks on a tile
+ * numbered higher than every tile it holds, so locking is deadlock free.
+ */
+class TileLocks {
+
+    /**
+     * Abstraction function:
+     * 	AF(sizeX, tilesX, locks) represent the locks of a sizeX columns Board
+     * 	split in tilesX x (locks.length / tilesX) tiles, square x,y belong to
+     * 	tile (y / TILE_SIZE) * tilesX + x / TILE_SIZE.
+     * rep invariant:
+     * 	locks.length == tilesX * tilesY
+     * rep exposure:
+     * 	locks are private and never returned
+     * thread safety:
+     * 	locks are final and thread safe, a Transaction is confined to one thread
+     */
+
+    /** log2 of the tile side. */
+    static final int TILE_SHIFT = 5;
+    /** Tile side in squares. */
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    private final int sizeX;
+    private final int tilesX;
+    private final ReentrantLock[] locks;
+    private final ThreadLocal<Transaction> transactions;
+
+    /**
+     * Make tile locks for a sizeX columns, sizeY rows Board.
+     * @param sizeX Board columns size.
+     * @param sizeY Board rows size.
+     */
+    TileLocks(int sizeX, int sizeY) {
+        this.sizeX = sizeX;
+        this.tilesX = (sizeX + TILE_SIZE - 1) >> TILE_SHIFT;
+        int tilesY = (sizeY + TILE_SIZE - 1) >> TILE_SHIFT;
+        this.locks = new ReentrantLock[Math.max(1, tilesX * tilesY)];
+        for (int t = 0; t < locks.length; t++) {
+            locks[t] = new ReentrantLock();
+        }
+        this.transactions = ThreadLocal.withInitial(() -> new Transaction(this));
+    }
+
+    /**
+     * @param i index of square in Board, y * sizeX + x.
+     * @return tile of square i.
+     */
+    int tile(int i) {
+        int y = i / sizeX;
+        int x = i - y * sizeX;
+        return (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+    }
+
+    /**
+     * Lock the tile of square i.
+     * @param i index of square in Board.
+     */
+    void lock(int i) {
+        locks[tile(i)].lock();
+    }
+
+    /**
+     * Unlock the tile of square i, must be held by the current thread.
+     * @param i index of square in Board.
+     */
+    void unlock(int i) {
+        locks[tile(i)].unlock();
+    }
+
+    /**
+     * Lock every tile, in ascending order.
+     */
+    void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    /**
+     * Unlock every tile, must all be held by the current thread.
+     */
+    void unlockAll() {
+        for (int t = locks.length - 1; t >= 0; t--) {
+            locks[t].unlock();
+        }
+    }
+
+    /**
+     * @return the Transaction of the current thread, not in progress.
+     */
+    Transaction transaction() {
+        return transactions.get();
+    }
+
+    /**
+     * Conflict is thrown by Transaction.guard when a tile cannot be locked
+     * without risking a deadlock; the transaction must be rolled back and retried.
+     */
+    static final class Conflict extends RuntimeException {
+        private static final long serialVersionUID = 2911325394518271652L;
+        private static final Conflict INSTANCE = new Conflict();
+
+        private Conflict() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Transaction hold the work state of one Board.dig: the flood work stack
+     * and, when guarding tile locks, the tiles locked so far and an undo log
+     * of every square written.
+     * A Transaction without TileLocks guard nothing and only hold the flood
+     * work stack, for Board.Locking.MONITOR, and if journaled a log of the
+     * squares written, never undone.
+     */
+    static final class Transaction {
+
+        /** flood work stack of square indices, grown by Board as needed */
+        int[] flood = new int[64];
+        /** squares dug so far, and how many of them contained a bomb */
+        int dug = 0, bombsDug = 0;
+
+        private final TileLocks owner;
+        /** whether writes are recorded in undo */
+        private final boolean journal;
+        /** tiles held, in locking order */
+        private int[] held = new int[8];
+        private int heldCount = 0;
+        /** highest tile held, -1 if none */
+        private int maxHeld = -1;
+        /** heldMark[t] == epoch iff tile t is held */
+        private final int[] heldMark;
+        private int epoch = 1;
+        /** undo log, pairs of square index and former square value */
+        private int[] undo = new int[64];
+        private int undoCount = 0;
+
+        /**
+         * @param owner tile locks to guard, or null to guard nothing.
+         */
+        Transaction(TileLocks owner) {
+            this(owner, owner != null);
+        }
+
+        /**
+         * @param owner tile locks to guard, or null to guard nothing.
+         * @param journal whether to record writes without owner, see written.
+         */
+        Transaction(TileLocks owner, boolean journal) {
+            this.owner = owner;
+            this.journal = journal;
+            this.heldMark = owner == null ? null : new int[owner.locks.length];
+        }
+
+        /**
+         * Make sure the tile of square i is locked by this transaction before
+         * square i is read or written.
+         * @param i index of square in Board.
+         * @throws Conflict if the tile is held by another thread and locking it
+         * could deadlock.
+         */
+        void guard(int i) {
+            if (owner == null) return;
+            int t = owner.tile(i);
+            if (heldMark[t] == epoch) return;
+
+            ReentrantLock lock = owner.locks[t];
+            if (t > maxHeld) {
+                lock.lock();
+            } else if (!lock.tryLock()) {
+                want(t);
+                throw Conflict.INSTANCE;
+            }
+            hold(t);
+        }
+
+        /**
+         * Record square i value before it is written, guard(i) must have been called.
+         * @param i index of square in Board.
+         * @param value former value of square i.
+         */
+        void record(int i, int value) {
+            if (!journal) return;
+            if (undoCount + 2 > undo.length) {
+                undo = Arrays.copyOf(undo, 2 * undo.length);
+            }
+            undo[undoCount++] = i;
+            undo[undoCount++] = value;
+        }
+
+        /**
+         * @return writes recorded since the transaction started, 0 when not
+         * journaled.
+         */
+        int writes() {
+            return undoCount / 2;
+        }
+
+        /**
+         * @param k requires 0 <= k < writes().
+         * @return index of the square of the k-th write recorded, squares
+         * written more than once are repeated.
+         */
+        int written(int k) {
+            return undo[2 * k];
+        }
+
+        /**
+         * Finish the transaction, keeping every write, and unlock every tile.
+         */
+        void commit() {
+            undoCount = 0;
+            if (owner == null) return;
+            release();
+            heldCount = 0;
+        }
+
+        /**
+         * Undo every write into cells and unlock every tile, keeping the tiles
+         * held or wanted so far for retry().
+         * @param cells Board squares written by this transaction.
+         */
+        void rollback(Cells cells) {
+            dug = bombsDug = 0;
+            if (owner == null) return;
+            while (undoCount > 0) {
+                int value = undo[--undoCount];
+                int i = undo[--undoCount];
+                cells.set(i, value);
+            }
+            release();
+        }
+
+        /**
+         * Lock again, in ascending order, every tile held or wanted before
+         * rollback, ready to run the transaction again.
+         */
+        void retry() {
+            int[] tiles = Arrays.copyOf(held, heldCount);
+            Arrays.sort(tiles);
+            heldCount = 0;
+            for (int t : tiles) {
+                owner.locks[t].lock();
+                hold(t);
+            }
+        }
+
+        /**
+         * Undo every write into cells and unlock every tile, giving up the transaction.
+         * @param cells Board squares written by this transaction.
+         */
+        void abort(Cells cells) {
+            rollback(cells);
+            heldCount = 0;
+        }
+
+        private void hold(int t) {
+            want(t);
+            heldMark[t] = epoch;
+            maxHeld = Math.max(maxHeld, t);
+        }
+
+        /**
+         * Add tile t to the tiles of this transaction, without locking it.
+         */
+        private void want(int t) {
+            if (heldCount == held.length) {
+                held = Arrays.copyOf(held, 2 * heldCount);
+            }
+            if (heldMark[t] != epoch) {
+                held[heldCount++] = t;
+            }
+        }
+
+        /**
+         * Unlock every locked tile, keeping the held list.
+         */
+        private void release() {
+            for (int k = heldCount - 1; k >= 0; k--) {
+                ReentrantLock lock = owner.locks[held[k]];
+                if (lock.isHeldByCurrentThread()) lock.unlock();
+            }
+            epoch++;
+            maxHeld = -1;
+        }
+    }
+}
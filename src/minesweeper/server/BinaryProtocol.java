@@ -0,0 +1,135 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryProtocol encode and decode the frames of the binary protocol, an
+ * alternative to the text protocol with fixed-width requests and the board
+ * packed 4 bits per square in replies.
+ *
+ * <br> A client switch its connection to the binary protocol by sending the
+ *      text request "binary" as its first request. The server answers with a
+ *      BOARD frame, and from then on every request and reply is a frame.
+ *      The client must wait for that BOARD frame before sending frames.
+ *
+ * <br> Every integer is 4 bytes, big-endian.
+ * <pre>
+ *   REQUEST ::= OPCODE X Y                       (REQUEST_SIZE bytes, X and Y ignored unless dig, flag or deflag)
+ *   OPCODE ::= LOOK | DIG | FLAG | DEFLAG | HELP | BYE
+ *   REPLY ::= BOARD_REPLY SIZE_X SIZE_Y SQUARES  (squares as Board.toPacked, (SIZE_X * SIZE_Y + 1) / 2 bytes)
+ *           | BOOM_REPLY
+ *           | HELP_REPLY LENGTH TEXT             (TEXT is LENGTH bytes of UTF-8)
+ * </pre>
+ * An unknown opcode is answered with a HELP_REPLY.
+ */
+class BinaryProtocol {
+
+    /** Text request switching a connection to the binary protocol. */
+    static final String NEGOTIATE = "binary";
+
+    /** Size in bytes of every request frame. */
+    static final int REQUEST_SIZE = 9;
+    static final byte LOOK = 1;
+    static final byte DIG = 2;
+    static final byte FLAG = 3;
+    static final byte DEFLAG = 4;
+    static final byte HELP = 5;
+    static final byte BYE = 6;
+
+    static final byte BOARD_REPLY = 1;
+    static final byte BOOM_REPLY = 2;
+    static final byte HELP_REPLY = 3;
+
+    /** Size in bytes of the BOARD reply before the squares. */
+    static final int BOARD_HEADER_SIZE = 9;
+
+    private static final byte[] BOOM_FRAME = { BOOM_REPLY };
+    private static final byte[] HELP_FRAME = helpFrame();
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Decode the request frame at frame[offset, offset + REQUEST_SIZE) into command.
+     * @return whether the frame is a valid request, command.type is null if not.
+     */
+    static boolean decode(byte[] frame, int offset, Command command) {
+        switch (frame[offset]) {
+        case LOOK: command.type = Command.Type.LOOK; break;
+        case DIG: command.type = Command.Type.DIG; break;
+        case FLAG: command.type = Command.Type.FLAG; break;
+        case DEFLAG: command.type = Command.Type.DEFLAG; break;
+        case HELP: command.type = Command.Type.HELP; break;
+        case BYE: command.type = Command.Type.BYE; break;
+        default:
+            command.type = null;
+            return false;
+        }
+        command.x = getInt(frame, offset + 1);
+        command.y = getInt(frame, offset + 5);
+        return true;
+    }
+
+    /**
+     * Encode a request frame.
+     * @param opcode one of the request opcodes.
+     * @return request frame of opcode with x and y.
+     */
+    static byte[] request(byte opcode, int x, int y) {
+        byte[] frame = new byte[REQUEST_SIZE];
+        frame[0] = opcode;
+        putInt(frame, 1, x);
+        putInt(frame, 5, y);
+        return frame;
+    }
+
+    /**
+     * @return header of the BOARD reply of a sizeX columns, sizeY rows board,
+     * to be followed by Board.toPacked.
+     */
+    static byte[] boardHeader(int sizeX, int sizeY) {
+        byte[] header = new byte[BOARD_HEADER_SIZE];
+        header[0] = BOARD_REPLY;
+        putInt(header, 1, sizeX);
+        putInt(header, 5, sizeY);
+        return header;
+    }
+
+    /**
+     * @return the BOOM reply, must not be modified.
+     */
+    static byte[] boom() {
+        return BOOM_FRAME;
+    }
+
+    /**
+     * @return the HELP reply, must not be modified.
+     */
+    static byte[] help() {
+        return HELP_FRAME;
+    }
+
+    private static byte[] helpFrame() {
+        byte[] text = MinesweeperServer.HELP_MSG.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[5 + text.length];
+        frame[0] = HELP_REPLY;
+        putInt(frame, 1, text.length);
+        System.arraycopy(text, 0, frame, 5, text.length);
+        return frame;
+    }
+
+    static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
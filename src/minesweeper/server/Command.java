@@ -0,0 +1,211 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command is a client request decoded in a single pass over its line, with no
+ * regex, split or substring. A Command is reused for every line of a
+ * connection, parse overwrite the previous request.
+ * The grammar is:
+ * <pre>
+ *   MESSAGE ::= "look" | "help" | "bye" | "binary" | "delta" | "watch" | "games" | "stats"
+ *             | ( ( "dig" | "flag" | "deflag" | "new" ) SPACE INT SPACE INT ) | ( "join" SPACE INT )
+ *   INT ::= "-"? [0-9]+
+ *   SPACE ::= " "
+ * </pre>
+ * "binary" switch the connection to BinaryProtocol, whose frames are decoded
+ * into a Command by BinaryProtocol.decode. "delta" switch the connection to
+ * DeltaReplies. "watch" subscribe the connection to Watchers. "games", "new"
+ * and "join" list, make and join the games of Games. "stats" read the
+ * Metrics of the server.
+ */
+class Command {
+
+    /**
+     * Abstraction function:
+     * 	AF(type, x, y) represent the request type, with coordinates x,y
+     * 	for DIG, FLAG and DEFLAG, size x,y for NEW, game x for JOIN, or the
+     * 	last line was invalid if type is null.
+     * rep invariant:
+     * 	true
+     * rep exposure:
+     * 	type, x and y are package visible for the server reading the request,
+     * 	bytes is a view of the last buffer parsed and never returned.
+     * thread safety:
+     * 	not thread safe, confined to the thread serving one connection or selector.
+     */
+
+    /**
+     * Type is the kind of a request.
+     */
+    enum Type {
+        LOOK, HELP, BYE, BINARY, DELTA, WATCH, GAMES, DIG, FLAG, DEFLAG, NEW, JOIN, STATS
+    }
+
+    /** type of the last line parsed, null if it was invalid */
+    Type type;
+    /** coordinates of DIG, FLAG and DEFLAG requests, size of NEW, game of JOIN */
+    int x, y;
+
+    /** value of the last integer decoded */
+    private int value;
+
+    private final Bytes bytes = new Bytes();
+
+    /**
+     * Decode line.
+     * @param line request without newline.
+     * @return whether line is a valid request, type is null if not.
+     */
+    boolean parse(CharSequence line) {
+        type = decode(line);
+        return type != null;
+    }
+
+    /**
+     * Decode bytes[from, to) as a request, each byte one character.
+     * @param bytes buffer holding the request, without newline.
+     * @param from index of the first byte of the request.
+     * @param to index after the last byte of the request.
+     * @return whether the bytes are a valid request, type is null if not.
+     */
+    boolean parse(byte[] bytes, int from, int to) {
+        this.bytes.wrap(bytes, from, to);
+        return parse(this.bytes);
+    }
+
+    private Type decode(CharSequence line) {
+        int length = line.length();
+        if (length == 0) return null;
+        switch (line.charAt(0)) {
+        case 'l':
+            return word(line, "look") == length ? Type.LOOK : null;
+        case 'h':
+            return word(line, "help") == length ? Type.HELP : null;
+        case 'b':
+            if (length > 1 && line.charAt(1) == 'i') {
+                return word(line, BinaryProtocol.NEGOTIATE) == length ? Type.BINARY : null;
+            }
+            return word(line, "bye") == length ? Type.BYE : null;
+        case 'd':
+            if (length > 2 && line.charAt(1) == 'e' && line.charAt(2) == 'l') {
+                return word(line, "delta") == length ? Type.DELTA : null;
+            }
+            if (length > 1 && line.charAt(1) == 'e') {
+                return coordinates(line, word(line, "deflag")) ? Type.DEFLAG : null;
+            }
+            return coordinates(line, word(line, "dig")) ? Type.DIG : null;
+        case 'f':
+            return coordinates(line, word(line, "flag")) ? Type.FLAG : null;
+        case 'w':
+            return word(line, "watch") == length ? Type.WATCH : null;
+        case 'g':
+            return word(line, "games") == length ? Type.GAMES : null;
+        case 'n':
+            return coordinates(line, word(line, "new")) ? Type.NEW : null;
+        case 'j':
+            return game(line, word(line, "join")) ? Type.JOIN : null;
+        case 's':
+            return word(line, "stats") == length ? Type.STATS : null;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return the length of word if line start with word, else -1.
+     */
+    private static int word(CharSequence line, String word) {
+        if (line.length() < word.length()) return -1;
+        for (int i = 0; i < word.length(); i++) {
+            if (line.charAt(i) != word.charAt(i)) return -1;
+        }
+        return word.length();
+    }
+
+    /**
+     * Decode SPACE INT SPACE INT from start to the end of line into x and y.
+     * @return whether the rest of line is two coordinates.
+     */
+    private boolean coordinates(CharSequence line, int start) {
+        if (start < 0) return false;
+        int end = integer(line, start);
+        if (end < 0) return false;
+        x = value;
+        end = integer(line, end);
+        if (end != line.length()) return false;
+        y = value;
+        return true;
+    }
+
+    /**
+     * Decode SPACE INT from start to the end of line into x.
+     * @return whether the rest of line is a game id.
+     */
+    private boolean game(CharSequence line, int start) {
+        if (start < 0) return false;
+        if (integer(line, start) != line.length()) return false;
+        x = value;
+        return true;
+    }
+
+    /**
+     * Decode SPACE INT at start into value, values beyond the int range are
+     * clamped to it, they are off the board either way.
+     * @return index after INT, or -1 if there is none.
+     */
+    private int integer(CharSequence line, int start) {
+        int length = line.length();
+        int i = start;
+        if (i >= length || line.charAt(i++) != ' ') return -1;
+        boolean negative = i < length && line.charAt(i) == '-';
+        if (negative) i++;
+
+        int digits = i;
+        long magnitude = 0;
+        for (; i < length; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') break;
+            if (magnitude <= Integer.MAX_VALUE) {
+                magnitude = 10 * magnitude + (c - '0');
+            }
+        }
+        if (i == digits) return -1;
+        long signed = negative ? -magnitude : magnitude;
+        value = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, signed));
+        return i;
+    }
+
+    /**
+     * Bytes is a reusable CharSequence view of a byte array range, one char per byte.
+     */
+    private static final class Bytes implements CharSequence {
+        private byte[] bytes;
+        private int from, length;
+
+        void wrap(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.from = from;
+            this.length = to - from;
+        }
+
+        @Override public int length() {
+            return length;
+        }
+
+        @Override public char charAt(int index) {
+            return (char) (bytes[from + index] & 0xFF);
+        }
+
+        @Override public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override public String toString() {
+            return new String(bytes, from, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import minesweeper.Board;
+
+/**
+ * DeltaReplies are the BOARD replies of a connection in delta mode, switched
+ * on by the text request "delta". look still reply the whole BOARD message,
+ * dig, flag and deflag reply only the squares changed since the last reply
+ * of this connection, by this or any other client, as a DELTA message:
+ * <pre>
+ *   DELTA ::= "DELTA" SPACE N (NEWLINE X SPACE Y SPACE SYMBOL){N}
+ *   N ::= INT
+ *   SYMBOL ::= "-" | "F" | " " | [1-8]
+ * </pre>
+ * in the order changed, a square changed twice is listed twice with its
+ * current SYMBOL. If too many squares changed, the whole BOARD message is sent
+ * instead, which never start with "DELTA".
+ */
+class DeltaReplies {
+
+    /**
+     * Abstraction function:
+     * 	AF(seen) represent a client whose copy of the board is at version seen,
+     * 	or who has no copy if seen is -1.
+     * rep invariant:
+     * 	seen >= -1
+     * rep exposure:
+     * 	no field is returned
+     * thread safety:
+     * 	not thread safe, confined to the thread serving the connection.
+     */
+
+    static final String DELTA_PREFIX = "DELTA ";
+
+    private long seen = -1;
+
+    /**
+     * @param board played by the client.
+     * @return the whole BOARD message, the client copy is now up to date.
+     */
+    String snapshot(Board board) {
+        Board.Changes changes = board.changesSince(-1);
+        seen = changes.version;
+        return changes.snapshot();
+    }
+
+    /**
+     * @param board played by the client.
+     * @return a DELTA message of the squares changed since the last reply,
+     * or the whole BOARD message, the client copy is now up to date.
+     */
+    String delta(Board board) {
+        Board.Changes changes = board.changesSince(seen);
+        seen = changes.version;
+        if (changes.isSnapshot()) {
+            return changes.snapshot();
+        }
+        return message(DELTA_PREFIX, changes);
+    }
+
+    /**
+     * @param prefix first word of the message and a space.
+     * @param changes squares changed, requires !changes.isSnapshot().
+     * @return prefix, the count of changes and a "X Y SYMBOL" line per change.
+     */
+    static String message(String prefix, Board.Changes changes) {
+        StringBuilder message = new StringBuilder(prefix.length() + 12 * changes.size());
+        message.append(prefix).append(changes.size());
+        for (int k = 0; k < changes.size(); k++) {
+            Board.Position position = changes.position(k);
+            message.append('\n').append(position.x).append(' ').append(position.y)
+                   .append(' ').append(changes.symbol(k));
+        }
+        return message.toString();
+    }
+}
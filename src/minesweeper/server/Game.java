@@ -0,0 +1,132 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.Board;
+
+/**
+ * Game is one board hosted by a MinesweeperServer, with its players and
+ * watchers. A game is evicted by Games once it has no player for a while,
+ * an evicted game cannot be joined again.
+ */
+class Game {
+
+    /**
+     * Abstraction function:
+     * 	AF(id, board, players, idleSince) represent game id played on board by
+     * 	players connections, or evicted if players is -1, without player since
+     * 	idleSince milliseconds if players is 0.
+     * rep invariant:
+     * 	players >= -1
+     * rep exposure:
+     * 	board and watchers are shared with the connections of the game,
+     * 	board requests go through log when it is not null.
+     * thread safety:
+     * 	board, log and watchers are thread safe, players is atomic and only
+     * 	become -1 from 0, so a joined game is never evicted.
+     */
+
+    final int id;
+    final Board board;
+    final Watchers watchers;
+    /** write-ahead log of board, null if not logged */
+    private final OperationLog log;
+    private final AtomicInteger players = new AtomicInteger();
+    private volatile long idleSince = System.currentTimeMillis();
+
+    /**
+     * Make game id.
+     * @param id of the game in Games.
+     * @param board to play.
+     * @param ticker run the pushes of watchers.
+     * @param tickMillis milliseconds between pushes to watchers.
+     */
+    Game(int id, Board board, ScheduledExecutorService ticker, long tickMillis) {
+        this(id, board, null, ticker, tickMillis);
+    }
+
+    /**
+     * Make game id, its board requests logged by log.
+     * @param log write-ahead log of board, or null.
+     * @see #Game(int, Board, ScheduledExecutorService, long) for the other parameters.
+     */
+    Game(int id, Board board, OperationLog log, ScheduledExecutorService ticker, long tickMillis) {
+        this.id = id;
+        this.board = board;
+        this.log = log;
+        this.watchers = new Watchers(board, ticker, tickMillis);
+    }
+
+    /**
+     * Dig square x,y of board, through the log if logged.
+     * @return whether the square contained a bomb, see Board.dig.
+     */
+    boolean dig(int x, int y) {
+        return log != null ? log.apply(OperationLog.DIG, x, y) : board.dig(new Board.Position(x, y));
+    }
+
+    /**
+     * Flag square x,y of board, through the log if logged.
+     */
+    void flag(int x, int y) {
+        if (log != null) {
+            log.apply(OperationLog.FLAG, x, y);
+        } else {
+            board.flag(new Board.Position(x, y));
+        }
+    }
+
+    /**
+     * Deflag square x,y of board, through the log if logged.
+     */
+    void deflag(int x, int y) {
+        if (log != null) {
+            log.apply(OperationLog.DEFLAG, x, y);
+        } else {
+            board.deflag(new Board.Position(x, y));
+        }
+    }
+
+    /**
+     * Add a player.
+     * @return players including the new one, or -1 if the game is evicted.
+     */
+    int join() {
+        return players.updateAndGet(count -> count < 0 ? count : count + 1);
+    }
+
+    /**
+     * Remove a player, requires a player joined and did not leave yet.
+     * @return players left.
+     */
+    int leave() {
+        int left = players.decrementAndGet();
+        if (left == 0) {
+            idleSince = System.currentTimeMillis();
+        }
+        return left;
+    }
+
+    /**
+     * @return players of the game, -1 if evicted.
+     */
+    int players() {
+        return players.get();
+    }
+
+    /**
+     * Evict the game if it has no player since idleMillis before now.
+     * @return whether the game is evicted.
+     */
+    boolean evictIfIdle(long now, long idleMillis) {
+        if (players.get() != 0 || now - idleSince < idleMillis || !players.compareAndSet(0, -1)) {
+            return false;
+        }
+        watchers.close();
+        return true;
+    }
+}
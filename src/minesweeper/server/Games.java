@@ -0,0 +1,193 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import minesweeper.Board;
+
+/**
+ * Games is the registry of the games hosted by one MinesweeperServer, so one
+ * process serve many independent boards. Game 0 is the board the server was
+ * started with, every connection start in it and it is never evicted.
+ * Other games are made by the text request "new X Y" and evicted once
+ * they have no player for idleMillis.
+ * <pre>
+ *   GAMES ::= "GAMES" SPACE N (NEWLINE ID SPACE X SPACE Y SPACE PLAYERS){N}
+ *   JOINED ::= "JOINED" SPACE ID SPACE X SPACE Y SPACE PLAYERS
+ * </pre>
+ * are the replies of "games", and of "new X Y" and "join ID".
+ */
+class Games {
+
+    /**
+     * Abstraction function:
+     * 	AF(games) represent the games not evicted, by id.
+     * rep invariant:
+     * 	games contain game 0, every game id is less than nextId.
+     * 	hosted <= MAX_GAMES count the games of games and the games being
+     * 	created, squares <= MAX_SQUARES their squares but those of game 0.
+     * rep exposure:
+     * 	every Game returned is shared with the connections playing it
+     * thread safety:
+     * 	games is a concurrent map, ids are atomic, a Game is removed once
+     * 	evicted so a join racing the eviction fail, see Game.
+     * 	create reserve its game and squares atomically in hosted and squares
+     * 	before making the board, so racing creates never exceed the caps.
+     * 	ticker is one daemon thread running eviction and the pushes of every game.
+     */
+
+    /** Default milliseconds without player before a game is evicted. */
+    static final long DEFAULT_IDLE = 10 * 60 * 1000;
+    /** Largest columns or rows of a new game. */
+    static final int MAX_SIZE = 1024;
+    /** Most games hosted at once, game 0 included. */
+    static final int MAX_GAMES = 4096;
+    /** Most squares of the games hosted at once, game 0 excluded, 16 games of MAX_SIZE. */
+    static final long MAX_SQUARES = 1L << 24;
+
+    private final ConcurrentHashMap<Integer, Game> games = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger hosted = new AtomicInteger(1);
+    private final AtomicLong squares = new AtomicLong();
+    private final ScheduledExecutorService ticker;
+    private final Board.Locking locking;
+    private final Metrics metrics;
+    private final long tickMillis;
+
+    /**
+     * Make the registry of a server started with first.
+     * @param first board of game 0, its locking is used by every new game.
+     * @param tickMillis milliseconds between pushes to watchers, requires tickMillis > 0.
+     * @param idleMillis milliseconds without player before a game is evicted, requires idleMillis > 0.
+     */
+    Games(Board first, long tickMillis, long idleMillis) {
+        this(first, null, null, tickMillis, idleMillis);
+    }
+
+    /**
+     * Make the registry of a server started with first, logged by log.
+     * @param log write-ahead log of first, or null.
+     * @param metrics instrumenting the board of every game, or null.
+     * @see #Games(Board, long, long) for the other parameters.
+     */
+    Games(Board first, OperationLog log, Metrics metrics, long tickMillis, long idleMillis) {
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "games-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.locking = first.locking();
+        this.metrics = metrics;
+        this.tickMillis = tickMillis;
+        instrument(first);
+        games.put(0, new Game(nextId.getAndIncrement(), first, log, ticker, tickMillis));
+        long sweep = Math.max(1, idleMillis / 2);
+        ticker.scheduleWithFixedDelay(() -> evictIdle(idleMillis), sweep, sweep, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return game 0, never evicted.
+     */
+    Game first() {
+        return games.get(0);
+    }
+
+    /**
+     * Make a game with a random sizeX columns, sizeY rows board and join it.
+     * @return the game joined, or null if a size is not in [1, MAX_SIZE], or
+     * MAX_GAMES are hosted, or its squares would exceed MAX_SQUARES.
+     */
+    Game create(int sizeX, int sizeY) {
+        if (sizeX < 1 || sizeY < 1 || sizeX > MAX_SIZE || sizeY > MAX_SIZE) {
+            return null;
+        }
+        long size = (long) sizeX * sizeY;
+        if (hosted.getAndUpdate(n -> n < MAX_GAMES ? n + 1 : n) >= MAX_GAMES) {
+            return null;
+        }
+        if (squares.getAndUpdate(n -> n + size <= MAX_SQUARES ? n + size : n) + size > MAX_SQUARES) {
+            hosted.decrementAndGet();
+            return null;
+        }
+        Board board;
+        try {
+            board = Board.random(sizeX, sizeY, locking);
+        } catch (RuntimeException | Error e) {
+            release(size);
+            throw e;
+        }
+        instrument(board);
+        Game game = new Game(nextId.getAndIncrement(), board, ticker, tickMillis);
+        // joined before it is listed, so it is not evicted before
+        game.join();
+        games.put(game.id, game);
+        return game;
+    }
+
+    private void instrument(Board board) {
+        if (metrics != null) {
+            metrics.instrument(board);
+        }
+    }
+
+    /**
+     * Join game id.
+     * @return the game joined, or null if there is no game id.
+     */
+    Game join(int id) {
+        Game game = games.get(id);
+        return game != null && game.join() >= 0 ? game : null;
+    }
+
+    /**
+     * @return GAMES message listing every game by id.
+     */
+    String list() {
+        List<Game> all = new ArrayList<>(games.values());
+        all.sort((a, b) -> Integer.compare(a.id, b.id));
+        StringBuilder list = new StringBuilder("GAMES ").append(all.size());
+        for (Game game : all) {
+            list.append('\n').append(game.id).append(' ').append(game.board.sizeX)
+                .append(' ').append(game.board.sizeY).append(' ').append(Math.max(0, game.players()));
+        }
+        return list.toString();
+    }
+
+    /**
+     * @param game joined by a connection.
+     * @return JOINED message of game.
+     */
+    static String joined(Game game) {
+        return "JOINED " + game.id + " " + game.board.sizeX + " " + game.board.sizeY + " " + Math.max(0, game.players());
+    }
+
+    /**
+     * Evict every game except game 0 without player for idleMillis.
+     */
+    void evictIdle(long idleMillis) {
+        long now = System.currentTimeMillis();
+        for (Game game : games.values()) {
+            if (game.id != 0 && game.evictIfIdle(now, idleMillis)) {
+                games.remove(game.id);
+                release((long) game.board.sizeX * game.board.sizeY);
+            }
+        }
+    }
+
+    /**
+     * Release the game and squares reserved by a game evicted or not made.
+     */
+    private void release(long size) {
+        squares.addAndGet(-size);
+        hosted.decrementAndGet();
+    }
+}
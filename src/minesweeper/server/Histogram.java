@@ -0,0 +1,104 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram count values, e.g. latencies in nanoseconds, in log-linear
+ * buckets as HdrHistogram does: values below 128 exactly, larger values in
+ * 64 buckets per power of two, so a percentile is within 1.6% of the value.
+ * Values from 0 to 2^63 are recorded in a fixed array of buckets, without
+ * allocation, by any thread.
+ */
+class Histogram {
+
+    /**
+     * Abstraction function:
+     * 	AF(counts, total, sum, max) represent the multiset of values recorded,
+     * 	counts[index(v)] of them in the bucket of v, total of them in all,
+     * 	summing to sum, the largest max.
+     * rep invariant:
+     * 	total is the sum of counts, once no record is running.
+     * rep exposure:
+     * 	every field is private and never returned
+     * thread safety:
+     * 	every field is atomic, a value is recorded without lock, so counts,
+     * 	total, sum and max read during a record may include it or not.
+     */
+
+    /** Buckets per power of two, above 2 * SUB. */
+    private static final int SUB = 64;
+    private static final int SUB_BITS = 6;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record value, or 0 if value is negative.
+     */
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        total.incrementAndGet();
+        sum.addAndGet(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    /**
+     * @return the middle of bucket index.
+     */
+    private static long value(int index) {
+        if (index < 2 * SUB) return index;
+        int shift = index / SUB - 1;
+        return ((long) (index % SUB + SUB) << shift) + (1L << shift) / 2;
+    }
+
+    /**
+     * @return values recorded.
+     */
+    long count() {
+        return total.get();
+    }
+
+    /**
+     * @return mean of the values recorded, 0 if none.
+     */
+    double mean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @return largest value recorded, 0 if none.
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percent in [0, 100].
+     * @return the value percent of the values recorded are at most, 0 if none.
+     */
+    long percentile(double percent) {
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * total.get()));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(value(i), max.get());
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,164 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import minesweeper.Board;
+
+/**
+ * LockProfiler find where requests queue on the boards of a server: for
+ * every Board.Operation a histogram of the nanoseconds waited for the board
+ * lock and of the nanoseconds it was held, the holds of digs by cascade
+ * size, and a trace of the last TRACES holds of at least a threshold.
+ * Set on every board of a server started with --profile-locks, read in
+ * the reply to "stats", after the metrics, as
+ * <pre>
+ *   PROFILE ::= (NEWLINE NAME (SPACE KEY SPACE VALUE)*)*
+ * </pre>
+ * "locks.OPERATION.wait.ns" and "locks.OPERATION.hold.ns" histograms,
+ * "locks.dig.hold.squares.MIN-MAX" holds of digs of MIN to MAX squares,
+ * "locks.traced" holds of at least the threshold since the start, and a
+ * "locks.trace" line per hold traced, oldest first.
+ */
+class LockProfiler implements Board.Profiler {
+
+    /**
+     * Abstraction function:
+     * 	AF(wait, hold, cascades, traces, traced, thresholdNanos) represent the
+     * 	lock waits and holds of the requests of a server since it started:
+     * 	wait[o] and hold[o] those of operation o, cascades[4 * b + CASCADE_*]
+     * 	the count, sum, max of the holds of digs of 2^(b-1) to 2^b - 1
+     * 	squares, b = 0 for none, and how many held at least thresholdNanos,
+     * 	traces[t % TRACES] the t-th hold of at least thresholdNanos, traced of
+     * 	them in all.
+     * rep invariant:
+     * 	wait.length == hold.length == OPERATIONS.length,
+     * 	cascades.length == 4 * CASCADES, thresholdNanos >= 0.
+     * rep exposure:
+     * 	every field is private and never returned, Trace are immutable.
+     * thread safety:
+     * 	every field is final and atomic or a thread safe Histogram, recorded
+     * 	without lock, so a report may miss the holds recorded while it is
+     * 	made, and a trace being replaced by a newer one.
+     */
+
+    private static final Board.Operation[] OPERATIONS = Board.Operation.values();
+    /** Names of OPERATIONS in reports, the Board methods. */
+    private static final String[] NAMES = { "dig", "flag", "deflag", "inspect", "toString", "isGameOver", "save" };
+    /** Holds of at least the threshold kept for the report. */
+    static final int TRACES = 64;
+    /** Cascade size buckets, up to 2^31 - 1 squares. */
+    private static final int CASCADES = 32;
+    private static final int CASCADE_COUNT = 0, CASCADE_SUM = 1, CASCADE_MAX = 2, CASCADE_LONG = 3;
+
+    private final Histogram[] wait = new Histogram[OPERATIONS.length];
+    private final Histogram[] hold = new Histogram[OPERATIONS.length];
+    private final AtomicLongArray cascades = new AtomicLongArray(4 * CASCADES);
+    private final AtomicReferenceArray<Trace> traces = new AtomicReferenceArray<>(TRACES);
+    private final AtomicLong traced = new AtomicLong();
+    private final long thresholdNanos;
+
+    /**
+     * Make a profiler tracing the holds of at least thresholdNanos.
+     * @param thresholdNanos requires thresholdNanos >= 0.
+     */
+    LockProfiler(long thresholdNanos) {
+        this.thresholdNanos = thresholdNanos;
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            wait[o] = new Histogram();
+            hold[o] = new Histogram();
+        }
+    }
+
+    /**
+     * Record a request, allocating only a Trace for a hold of at least the
+     * threshold, since it is called under the board lock.
+     */
+    @Override public void held(Board.Operation operation, long waitNanos, long holdNanos, int squares) {
+        wait[operation.ordinal()].record(waitNanos);
+        hold[operation.ordinal()].record(holdNanos);
+        boolean isLong = holdNanos >= thresholdNanos;
+        if (operation == Board.Operation.DIG) {
+            int b = 4 * (32 - Integer.numberOfLeadingZeros(squares));
+            cascades.incrementAndGet(b + CASCADE_COUNT);
+            cascades.addAndGet(b + CASCADE_SUM, holdNanos);
+            cascades.accumulateAndGet(b + CASCADE_MAX, holdNanos, Math::max);
+            if (isLong) {
+                cascades.incrementAndGet(b + CASCADE_LONG);
+            }
+        }
+        if (isLong) {
+            Trace trace = new Trace(operation, waitNanos, holdNanos, squares,
+                    Thread.currentThread().getId(), System.currentTimeMillis());
+            traces.set((int) (traced.getAndIncrement() % TRACES), trace);
+        }
+    }
+
+    /**
+     * Append the PROFILE of the holds recorded so far to report.
+     */
+    void report(StringBuilder report) {
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            Metrics.histogram(report, "locks." + NAMES[o] + ".wait.ns", Metrics.summary(wait[o]));
+            Metrics.histogram(report, "locks." + NAMES[o] + ".hold.ns", Metrics.summary(hold[o]));
+        }
+        for (int b = 0; b < CASCADES; b++) {
+            long count = cascades.get(4 * b + CASCADE_COUNT);
+            if (count == 0) continue;
+            long min = b == 0 ? 0 : 1L << (b - 1);
+            long max = b == 0 ? 0 : (1L << b) - 1;
+            report.append("\nlocks.dig.hold.squares.").append(min).append('-').append(max)
+                  .append(" count ").append(count)
+                  .append(" mean ").append(cascades.get(4 * b + CASCADE_SUM) / count)
+                  .append(" max ").append(cascades.get(4 * b + CASCADE_MAX))
+                  .append(" long ").append(cascades.get(4 * b + CASCADE_LONG));
+        }
+        long total = traced.get();
+        report.append("\nlocks.traced ").append(total);
+        for (long t = Math.max(0, total - TRACES); t < total; t++) {
+            Trace trace = traces.get((int) (t % TRACES));
+            if (trace != null) {
+                report.append("\nlocks.trace operation ").append(NAMES[trace.operation.ordinal()])
+                      .append(" wait ").append(trace.waitNanos)
+                      .append(" hold ").append(trace.holdNanos)
+                      .append(" squares ").append(trace.squares)
+                      .append(" thread ").append(trace.thread)
+                      .append(" at ").append(trace.millis);
+            }
+        }
+    }
+
+    /**
+     * @return the PROFILE of the holds recorded so far, without its first NEWLINE.
+     */
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report(report);
+        return report.substring(1);
+    }
+
+    /**
+     * Trace is a hold of at least the threshold: the operation holding, its
+     * wait and hold in nanoseconds, the squares it dug, the id of its thread
+     * and when it was released in milliseconds since the epoch.
+     */
+    private static class Trace {
+        final Board.Operation operation;
+        final long waitNanos, holdNanos;
+        final int squares;
+        final long thread, millis;
+
+        Trace(Board.Operation operation, long waitNanos, long holdNanos, int squares, long thread, long millis) {
+            this.operation = operation;
+            this.waitNanos = waitNanos;
+            this.holdNanos = holdNanos;
+            this.squares = squares;
+            this.thread = thread;
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import minesweeper.Board;
+
+/**
+ * Metrics instrument a MinesweeperServer: requests by type, the latency of
+ * handling text requests, bytes in and out, connections, and through
+ * Board.Probe the board lock waits, render times and dig cascade sizes of
+ * every game. Recording never allocate nor lock, so metrics are always on.
+ * They are read by the text request "stats", whose reply is
+ * <pre>
+ *   STATS ::= "STATS" (NEWLINE NAME SPACE VALUE)* (NEWLINE NAME (SPACE KEY SPACE VALUE)*)*
+ * </pre>
+ * a counter per line, then a histogram per line, then the LockProfiler
+ * report if the boards are profiled, and through JMX, see MetricsMXBean.
+ */
+class Metrics implements Board.Probe, MetricsMXBean {
+
+    /**
+     * Abstraction function:
+     * 	AF(requests, handleRequest, lockWait, render, digSquares, bytesIn,
+     * 	bytesOut, active, connections, profiler) represent the work of a server since
+     * 	it started: requests[t] requests of type t, the last of them invalid,
+     * 	the latencies, waits, render times and dig sizes recorded in each
+     * 	histogram, the bytes read and written, the connections open now and
+     * 	accepted, and the lock waits and holds of every board recorded by
+     * 	profiler if not null.
+     * rep invariant:
+     * 	requests.length == TYPES.length + 1, active >= 0 once no connection
+     * 	is opening or closing.
+     * rep exposure:
+     * 	every field is private, reads return copies, profiler is only set on
+     * 	boards, which do not expose it.
+     * thread safety:
+     * 	every field is an adder, atomic or a thread safe Histogram, recorded
+     * 	without lock, so a report may miss the records running while it is made.
+     */
+
+    private static final Command.Type[] TYPES = Command.Type.values();
+    /** Index of invalid requests in requests. */
+    private static final int INVALID = TYPES.length;
+    /** Percentiles of every histogram reported. */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_KEYS = { "p50", "p90", "p99", "p999" };
+
+    private final LongAdder[] requests = new LongAdder[TYPES.length + 1];
+    private final Histogram handleRequest = new Histogram();
+    private final Histogram lockWait = new Histogram();
+    private final Histogram render = new Histogram();
+    private final Histogram digSquares = new Histogram();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicLong active = new AtomicLong();
+    private final LongAdder connections = new LongAdder();
+    private final LockProfiler profiler;
+
+    /**
+     * Make the metrics of a server whose boards are not profiled.
+     */
+    Metrics() {
+        this(null);
+    }
+
+    /**
+     * Make the metrics of a server.
+     * @param profiler set with this as probe on every board by instrument, or null.
+     */
+    Metrics(LockProfiler profiler) {
+        this.profiler = profiler;
+        for (int t = 0; t < requests.length; t++) {
+            requests[t] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a request handled.
+     * @param type of the request, null if invalid.
+     * @param nanos taken to handle it and make its reply.
+     */
+    void request(Command.Type type, long nanos) {
+        count(type);
+        handleRequest.record(nanos);
+    }
+
+    /**
+     * Record a request handled outside handleRequest, not timed.
+     * @param type of the request, null if invalid.
+     */
+    void count(Command.Type type) {
+        requests[type == null ? INVALID : type.ordinal()].increment();
+    }
+
+    /** Record a connection accepted. */
+    void connected() {
+        connections.increment();
+        active.incrementAndGet();
+    }
+
+    /** Record a connection closed, once per connection accepted. */
+    void disconnected() {
+        active.decrementAndGet();
+    }
+
+    /** Record bytes read from a client. */
+    void bytesRead(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    /** Record bytes written to a client. */
+    void bytesWritten(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * @return in, counting the bytes read from it.
+     */
+    InputStream counted(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytesRead(1);
+                return b;
+            }
+
+            @Override public int read(byte[] bytes, int offset, int length) throws IOException {
+                int n = super.read(bytes, offset, length);
+                if (n > 0) bytesRead(n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * @return out, counting the bytes written to it.
+     */
+    OutputStream counted(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten(1);
+            }
+
+            @Override public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+                bytesWritten(length);
+            }
+        };
+    }
+
+    /**
+     * Tell these metrics, and the lock profiler if any, about the work of board.
+     */
+    void instrument(Board board) {
+        board.setProbe(this);
+        board.setProfiler(profiler);
+    }
+
+    @Override public void lockWaited(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    @Override public void dug(int squares) {
+        digSquares.record(squares);
+    }
+
+    @Override public void rendered(long nanos) {
+        render.record(nanos);
+    }
+
+    /**
+     * Register these metrics with the platform MBean server.
+     * @param port of the server, naming the metrics.
+     * @throws JMException if metrics of a server on port are registered already.
+     */
+    void register(int port) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("minesweeper.server:type=Metrics,port=" + port));
+    }
+
+    @Override public long getActiveConnections() {
+        return active.get();
+    }
+
+    @Override public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override public Map<String, Long> getRequests() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Command.Type type : TYPES) {
+            counts.put(type.name().toLowerCase(Locale.ROOT), requests[type.ordinal()].sum());
+        }
+        counts.put("invalid", requests[INVALID].sum());
+        return counts;
+    }
+
+    @Override public Map<String, Long> getHandleRequestNanos() {
+        return summary(handleRequest);
+    }
+
+    @Override public Map<String, Long> getLockWaitNanos() {
+        return summary(lockWait);
+    }
+
+    @Override public Map<String, Long> getRenderNanos() {
+        return summary(render);
+    }
+
+    @Override public Map<String, Long> getDigSquares() {
+        return summary(digSquares);
+    }
+
+    static Map<String, Long> summary(Histogram histogram) {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.count());
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            summary.put(PERCENTILE_KEYS[p], histogram.percentile(PERCENTILES[p]));
+        }
+        summary.put("max", histogram.max());
+        summary.put("mean", Math.round(histogram.mean()));
+        return summary;
+    }
+
+    @Override public String getReport() {
+        StringBuilder report = new StringBuilder("STATS");
+        line(report, "connections.active", getActiveConnections());
+        line(report, "connections.total", getConnections());
+        line(report, "bytes.in", getBytesIn());
+        line(report, "bytes.out", getBytesOut());
+        for (Map.Entry<String, Long> count : getRequests().entrySet()) {
+            line(report, "requests." + count.getKey(), count.getValue());
+        }
+        histogram(report, "handleRequest.ns", getHandleRequestNanos());
+        histogram(report, "lockWait.ns", getLockWaitNanos());
+        histogram(report, "render.ns", getRenderNanos());
+        histogram(report, "dig.squares", getDigSquares());
+        if (profiler != null) {
+            profiler.report(report);
+        }
+        return report.toString();
+    }
+
+    @Override public String getLockProfile() {
+        return profiler == null ? "" : profiler.report();
+    }
+
+    private static void line(StringBuilder report, String name, long value) {
+        report.append('\n').append(name).append(' ').append(value);
+    }
+
+    static void histogram(StringBuilder report, String name, Map<String, Long> summary) {
+        report.append('\n').append(name);
+        for (Map.Entry<String, Long> entry : summary.entrySet()) {
+            report.append(' ').append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+    }
+}
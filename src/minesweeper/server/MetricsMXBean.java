@@ -0,0 +1,48 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.Map;
+
+/**
+ * MetricsMXBean is the JMX view of the metrics of a MinesweeperServer,
+ * registered as "minesweeper.server:type=Metrics,port=PORT". Every
+ * histogram is a map of "count", "p50", "p90", "p99", "p999", "max" and
+ * "mean" to their value.
+ */
+public interface MetricsMXBean {
+
+    /** @return connections open now. */
+    long getActiveConnections();
+
+    /** @return connections accepted since the server started. */
+    long getConnections();
+
+    /** @return bytes read from clients. */
+    long getBytesIn();
+
+    /** @return bytes written to clients. */
+    long getBytesOut();
+
+    /** @return requests handled by type, lower case as sent, and "invalid". */
+    Map<String, Long> getRequests();
+
+    /** @return histogram of nanoseconds handling a text request, rendering its reply included. */
+    Map<String, Long> getHandleRequestNanos();
+
+    /** @return histogram of nanoseconds waiting for a board lock. */
+    Map<String, Long> getLockWaitNanos();
+
+    /** @return histogram of nanoseconds rendering the last version committed of a board. */
+    Map<String, Long> getRenderNanos();
+
+    /** @return histogram of squares dug by a dig, its cascade included. */
+    Map<String, Long> getDigSquares();
+
+    /** @return the LockProfiler report, empty if the boards are not profiled. */
+    String getLockProfile();
+
+    /** @return the STATS message of every metric. */
+    String getReport();
+}
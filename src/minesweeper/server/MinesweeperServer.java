@@ -5,7 +5,18 @@ package minesweeper.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 import javax.swing.plaf.basic.BasicInternalFrameTitlePane.IconifyAction;
 
@@ -15,6 +26,8 @@ import minesweeper.Board;
  * Multiplayer Minesweeper server.
  * MinesweeperServer handle multiple connection concurrent.
  * Concurrent request will be synchronized.
+ * One server host many games, see Games, each with its own board and locks,
+ * so the players of a hot game only contend with each other.
  */
 public class MinesweeperServer {
 
@@ -27,15 +40,33 @@ public class MinesweeperServer {
     private static final int MAXIMUM_PORT = 65535;
     /** Default square board size. */
     private static final int DEFAULT_SIZE = 10;
+    /** Maximum pending connections, large enough for connection bursts of many players. */
+    private static final int BACKLOG = 1024;
+    /** Most pushes queued to a watcher, a watcher not reading more is disconnected. */
+    private static final int MAX_PENDING_PUSHES = 64;
+    /** Default milliseconds between snapshots of a persisted board. */
+    private static final long DEFAULT_SNAPSHOT = 60 * 1000;
 
-    /** Socket for receiving incoming connections. */
+    /** Channel for receiving incoming connections. */
+    private final ServerSocketChannel serverChannel;
+    /** Socket of serverChannel, for blocking accept. */
     private final ServerSocket serverSocket;
     /** True if the server should *not* disconnect a client after a BOOM message. */
     private final boolean debug;
-    /** minesweeper board to play */
-    private final Board board;
-    /** how many player online */
-    private int players = 0;
+    /** True if connections are served by one selector thread instead of a thread each. */
+    private final boolean nio;
+    /** run each connection when not nio, see threads(String) */
+    private final Executor connections;
+    /**
+     * True if "new" and "join" switch games: false when connections is a 
+     * bounded pool, a connection hold a pool thread while connected, so the
+     * clients of one hot game could starve every other game
+     */
+    private final boolean hostsGames;
+    /** games hosted, every connection start in game 0, the board given to the constructor */
+    final Games games;
+    /** instrumentation of the requests, connections and boards of this server */
+    final Metrics metrics;
     
     // TODO: Abstraction function, rep invariant, rep exposure
 
@@ -47,9 +78,92 @@ public class MinesweeperServer {
      * @throws IOException if an error occurs opening the server socket
      */
     public MinesweeperServer(Board board, int port, boolean debug) throws IOException {
-        serverSocket = new ServerSocket(port);
+        this(board, port, debug, false);
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port.
+     * 
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param nio serve every connection from one selector thread with non-blocking
+     *            channels if true, else serve each connection from its own thread.
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(Board board, int port, boolean debug, boolean nio) throws IOException {
+        this(board, port, debug, nio, threads("platform"), Watchers.DEFAULT_TICK, Games.DEFAULT_IDLE, null, null);
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port and
+     * serve each connection as a task of connections.
+     * 
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param connections run each connection, see threads(String), only the
+     *                    first game is hosted if it is a bounded pool.
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(Board board, int port, boolean debug, Executor connections) throws IOException {
+        this(board, port, debug, false, connections, Watchers.DEFAULT_TICK, Games.DEFAULT_IDLE, null, null);
+    }
+
+    private MinesweeperServer(Board board, int port, boolean debug, boolean nio, Executor connections,
+            long tickMillis, long idleMillis, OperationLog log, LockProfiler profiler) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+        serverSocket = serverChannel.socket();
         this.debug = debug;
-        this.board = board;
+        this.nio = nio;
+        this.connections = connections;
+        this.hostsGames = nio || !isBounded(connections);
+        this.metrics = new Metrics(profiler);
+        this.games = new Games(board, log, metrics, tickMillis, idleMillis);
+    }
+
+    /**
+     * Make the executor running each connection for a --threads mode.
+     * 
+     * @param mode "platform" for a new platform thread per connection, 
+     *             "pool:N" for a pool of N platform threads, connections beyond N wait for a free thread,
+     *             and the server does not host other games than the first,
+     *             "virtual" for a new virtual thread per connection, requires Java 21 or later.
+     * @return executor running each connection as one task.
+     * @throws IllegalArgumentException if mode is not one of the above.
+     */
+    public static Executor threads(String mode) {
+        if (mode.equals("platform")) {
+            return command -> new Thread(command).start();
+        } else if (mode.startsWith("pool:")) {
+            int size = Integer.parseInt(mode.substring("pool:".length()));
+            if (size <= 0) {
+                throw new IllegalArgumentException("pool size " + size + " must be positive");
+            }
+            return Executors.newFixedThreadPool(size);
+        } else if (mode.equals("virtual")) {
+            // looked up reflectively, so the server still builds and runs on Java versions without virtual threads
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException roe) {
+                throw new IllegalArgumentException("virtual threads require Java 21 or later");
+            }
+        }
+        throw new IllegalArgumentException("unknown threads mode: \"" + mode + "\"");
+    }
+
+    /**
+     * @return whether connections run at most a fixed number of tasks at once.
+     */
+    private static boolean isBounded(Executor connections) {
+        return connections instanceof ThreadPoolExecutor
+                && ((ThreadPoolExecutor) connections).getMaximumPoolSize() < Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the port this server is listening on.
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
     }
 
     /**
@@ -60,18 +174,21 @@ public class MinesweeperServer {
      *                     (IOExceptions from individual clients do *not* terminate serve())
      */
     public void serve() throws IOException {
+        if (nio) {
+            new SelectorServer(this, serverChannel, debug).serve();
+        }
         while (true) {
             // block until a client connects
             Socket socket = serverSocket.accept();
 
-            new Thread(() -> {
+            connections.execute(() -> {
 	            // handle the client
 	            try (socket){
 	                handleConnection(socket);
 	            } catch (IOException ioe) {
 	                ioe.printStackTrace();
 	            }
-			}).start();
+			});
         }
     }
 
@@ -82,122 +199,389 @@ public class MinesweeperServer {
      * @throws IOException if the connection encounters an error or terminates unexpectedly
      */
     private void handleConnection(Socket socket) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(metrics.counted(socket.getInputStream())));
+        OutputStream socketOut = metrics.counted(socket.getOutputStream());
+        PrintWriter out = new PrintWriter(socketOut, true);
         
+        metrics.connected();
+        Session session = new Session(games.first());
+        Pusher watcher = null;
         try {
-        	int players = incrementPlayers();
-        	out.println(String.format("Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d"
-        			+ "including you. Type 'help' for help.", board.sizeX, board.sizeY, players));
+        	out.println(welcome(session));
         	
+            Command command = new Command();
             for (String line = in.readLine(); line != null; line = in.readLine()) {
-                Optional<String> output = handleRequest(line);
+                command.parse(line);
+                if (command.type == Command.Type.BINARY) {
+                    metrics.count(command.type);
+                    session.unwatch();
+                    handleBinaryConnection(socket, session, command);
+                    break;
+                } else if (command.type == Command.Type.WATCH) {
+                    metrics.count(command.type);
+                    if (watcher == null) {
+                        watcher = new Pusher(socket, socketOut, out);
+                    }
+                    // pushes wait for out, so the snapshot is the first message of watcher
+                    synchronized (out) {
+                        out.println(session.watch(watcher));
+                    }
+                    continue;
+                }
+                Optional<String> output = handleRequest(session, command);
                 if (output.isPresent()) {
                     // TODO: Consider improving spec of handleRequest to avoid use of null
-                    out.println(output.get());
+                    synchronized (out) {
+                        out.println(output.get());
+                    }
                     
                     if (!debug && output.get() == BOOM_MSG) {
                     	socket.close();
-                    	decrementPlayers();
                     	break;
                     }
                 }
             }
         } catch (DisconnectException e) {
         	socket.close();
-        	decrementPlayers();
 		} finally {
+            session.close();
+            if (watcher != null) {
+                watcher.stop();
+            }
+            metrics.disconnected();
             out.close();
             in.close();
         }
     }
     
     /**
-     * decrement online players by one.
-     * @return current connect online players.
+     * Pusher is the Subscriber of a watching connection: the ticker only
+     * queue pushes, a thread of the connection write them to socketOut under
+     * the lock of out, whole messages between replies, so a client that does
+     * not read never block the ticker. A watcher with MAX_PENDING_PUSHES
+     * queued is not reading and is disconnected, as in SelectorServer.
      */
-    private synchronized int decrementPlayers() {
-		return --players;
-	}
+    static final class Pusher implements Watchers.Subscriber, Runnable {
+        private final Socket socket;
+        private final OutputStream socketOut;
+        private final PrintWriter out;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(MAX_PENDING_PUSHES);
+        private final Thread thread;
+
+        /**
+         * Make and start the pusher of a connection.
+         * @param socket of the connection, its channel is closed if the 
+         *               pusher is stopped while writing.
+         * @param socketOut output stream of socket.
+         * @param out writer of replies to socketOut, with automatic flushing.
+         */
+        Pusher(Socket socket, OutputStream socketOut, PrintWriter out) {
+            this.socket = socket;
+            this.socketOut = socketOut;
+            this.out = out;
+            this.thread = new Thread(this, "watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Queue message, called on the ticker thread, never write or wait.
+         */
+        @Override public boolean push(byte[] message) {
+            if (queue.offer(message)) {
+                return true;
+            }
+            stop();
+            return false;
+        }
+
+        /**
+         * Stop the pusher, closing the connection if it is writing or has
+         * pushes queued.
+         */
+        void stop() {
+            // interrupting a write on the socket channel close it
+            thread.interrupt();
+        }
+
+        @Override public void run() {
+            try {
+                while (true) {
+                    byte[] message = queue.take();
+                    synchronized (out) {
+                        socketOut.write(message);
+                        socketOut.flush();
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ioe) {
+                    // already closed
+                }
+            }
+        }
+    }
+    
+    /**
+     * Handle a client connection switched to BinaryProtocol. Returns when client disconnects.
+     * 
+     * @param socket socket where the client is connected, with no input buffered
+     * @param session of the client
+     * @param command the "binary" request, reused for every request
+     * @throws IOException if the connection encounters an error or terminates unexpectedly
+     * @throws DisconnectException if the client say bye
+     */
+    private void handleBinaryConnection(Socket socket, Session session, Command command)
+            throws IOException, DisconnectException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(metrics.counted(socket.getInputStream())));
+        OutputStream out = new BufferedOutputStream(metrics.counted(socket.getOutputStream()));
+        byte[] frame = new byte[BinaryProtocol.REQUEST_SIZE];
+        
+        Reply reply = perform(session.game(), command);
+        while (true) {
+            for (byte[] part : binaryReply(session.game().board, reply)) {
+                out.write(part);
+            }
+            out.flush();
+            if (!debug && reply == Reply.BOOM) {
+                socket.close();
+                return;
+            }
+            
+            try {
+                in.readFully(frame);
+            } catch (EOFException eofe) {
+                return;
+            }
+            BinaryProtocol.decode(frame, 0, command);
+            metrics.count(command.type);
+            reply = perform(session.game(), command);
+        }
+    }
     
     /**
-     * increment online players by one.
-     * @return current connect online players.
+     * @param session of a new connection.
+     * @return HELLO message for the connection.
      */
-    private synchronized int incrementPlayers() {
-		return ++players;
-	}
+    String welcome(Session session) {
+        Board board = session.game().board;
+    	return String.format("Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d"
+    			+ "including you. Type 'help' for help.", board.sizeX, board.sizeY, session.game().players());
+    }
+
+    /**
+     * Reply is the kind of message answering a request.
+     */
+    enum Reply {
+        BOARD, BOOM, HELP
+    }
 
     /**
      * Handler for client input, performing requested operations and returning an output message.
      * 
-     * @param input message from client
-     * @return message to client, or null if none
+     * @param session of the client, switched to delta mode or another game by command
+     * @param command message from client, decoded by Command.parse, not "watch"
+     * @return message to client, or empty if none, a HELP message if command is invalid
+     *         or name no game, or switch games on a server hosting only its first game
      * @throws DisconnectException indicate a user active disconnect.
      */
-    private Optional<String> handleRequest(String input) throws DisconnectException {
-        String regex = "(look)|(help)|(bye)|"
-                     + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
-        if ( ! input.matches(regex)) {
+    Optional<String> handleRequest(Session session, Command command) throws DisconnectException {
+        long start = System.nanoTime();
+        try {
+            return handle(session, command);
+        } finally {
+            metrics.request(command.type, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Handle a request as handleRequest, not timed.
+     */
+    private Optional<String> handle(Session session, Command command) throws DisconnectException {
+        if (command.type == Command.Type.STATS) {
+            return Optional.of(metrics.getReport());
+        } else if (command.type == Command.Type.GAMES) {
+            return Optional.of(games.list());
+        } else if (command.type == Command.Type.NEW || command.type == Command.Type.JOIN) {
+            if (!hostsGames) {
+                return Optional.of(HELP_MSG);
+            }
+            Game next = command.type == Command.Type.NEW ? games.create(command.x, command.y) : games.join(command.x);
+            if (next == null) {
+                return Optional.of(HELP_MSG);
+            }
+            session.switchTo(next);
+            return Optional.of(Games.joined(next));
+        } else if (command.type == Command.Type.DELTA && session.delta == null) {
+            session.delta = new DeltaReplies();
+        }
+        
+        Board board = session.game().board;
+        DeltaReplies delta = session.delta;
+        switch (perform(session.game(), command)) {
+        case BOOM:
+            return Optional.of(BOOM_MSG);
+        case HELP:
+            return Optional.of(HELP_MSG);
+        default:
+            if (delta == null) {
+                return Optional.of(board.toString());
+            } else if (command.type == Command.Type.LOOK || command.type == Command.Type.DELTA) {
+                return Optional.of(delta.snapshot(board));
+            }
+            return Optional.of(delta.delta(board));
+        }
+    }
+
+    /**
+     * Perform the operation requested by command on the board of game.
+     * 
+     * @param game played by the client
+     * @param command message from client, decoded by Command.parse or BinaryProtocol.decode
+     * @return the kind of reply to client, HELP if command is invalid
+     * @throws DisconnectException indicate a user active disconnect.
+     */
+    Reply perform(Game game, Command command) throws DisconnectException {
+        if (command.type == null) {
             // invalid input
-            // TODO Problem 5
+            return Reply.HELP;
         }
-        String[] tokens = input.split(" ");
-        if (tokens[0].equals("look")) {
+        switch (command.type) {
+        case LOOK:
             // 'look' request
-            // TODO Problem 5
-        	return Optional.of(board.toString());
-        } else if (tokens[0].equals("help")) {
+            return Reply.BOARD;
+        case HELP:
             // 'help' request
-            // TODO Problem 5
-        	return Optional.of(HELP_MSG);
-        } else if (tokens[0].equals("bye")) {
+            return Reply.HELP;
+        case BYE:
             // 'bye' request
-            // TODO Problem 5
-        	throw new DisconnectException();
-        } else {
-            int x = Integer.parseInt(tokens[1]);
-            int y = Integer.parseInt(tokens[2]);
-            if (tokens[0].equals("dig")) {
-                // 'dig x y' request
-                // TODO Problem 5
-            	if (board.dig(new Board.Position(x, y))) {
-            		return Optional.of(BOOM_MSG);
-            	}
-            	return Optional.of(board.toString());
-            } else if (tokens[0].equals("flag")) {
-                // 'flag x y' request
-                // TODO Problem 5
-            	board.flag(new Board.Position(x, y));
-            	return Optional.of(board.toString());
-            } else if (tokens[0].equals("deflag")) {
-                // 'deflag x y' request
-                // TODO Problem 5
-            	board.deflag(new Board.Position(x, y));
-            	return Optional.of(board.toString());
+            throw new DisconnectException();
+        case BINARY:
+            // 'binary' request, answered by a BOARD frame
+            return Reply.BOARD;
+        case DELTA:
+            // 'delta' request, answered by a BOARD message
+            return Reply.BOARD;
+        case WATCH:
+            // 'watch' request, answered by a BOARD message
+            return Reply.BOARD;
+        case GAMES:
+        case NEW:
+        case JOIN:
+        case STATS:
+            // game and stats requests, performed by handleRequest, text protocol only
+            return Reply.HELP;
+        case DIG:
+            // 'dig x y' request
+            if (game.dig(command.x, command.y)) {
+                return Reply.BOOM;
             }
+            return Reply.BOARD;
+        case FLAG:
+            // 'flag x y' request
+            game.flag(command.x, command.y);
+            return Reply.BOARD;
+        case DEFLAG:
+            // 'deflag x y' request
+            game.deflag(command.x, command.y);
+            return Reply.BOARD;
         }
-        // TODO: Should never get here, make sure to return in each of the cases above
+        // Should never get here, every Command.Type returns above
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @param board of the game played by the client.
+     * @param reply kind of reply to client.
+     * @return the BinaryProtocol frame of reply, in parts to be written in order,
+     * must not be modified.
+     */
+    byte[][] binaryReply(Board board, Reply reply) {
+        switch (reply) {
+        case BOOM:
+            return new byte[][] { BinaryProtocol.boom() };
+        case HELP:
+            return new byte[][] { BinaryProtocol.help() };
+        default:
+            return new byte[][] { BinaryProtocol.boardHeader(board.sizeX, board.sizeY), board.toPacked() };
+        }
+    }
+
     /**
      * Start a MinesweeperServer using the given arguments.
      * 
      * <br> Usage:
-     *      MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]
+     *      MinesweeperServer [--debug | --no-debug] [--nio | --threads THREADS] [--locking LOCKING] [--tick MILLIS] [--idle SECONDS] [--persist BINARY_FILE [--snapshot SECONDS] [--log MILLIS,OPS]] [--profile-locks MICROS] [--port PORT] [--size SIZE_X,SIZE_Y [--density DENSITY] [--seed SEED] | --file FILE]
      * 
      * <br> The --debug argument means the server should run in debug mode. The server should disconnect a
      *      client after a BOOM message if and only if the --debug flag was NOT given.
      *      Using --no-debug is the same as using no flag at all.
      * <br> E.g. "MinesweeperServer --debug" starts the server in debug mode.
      * 
+     * <br> The --nio argument means the server should serve every client from one selector thread with
+     *      non-blocking channels, instead of a thread per client. It speaks the same protocol and scales to
+     *      many more idle clients.
+     * <br> E.g. "MinesweeperServer --nio" starts the server in selector mode.
+     * 
+     * <br> THREADS is an optional argument specifying the threads serving clients when --nio is not given:
+     *      "platform" (the default) for a new thread per client, "pool:N" for at most N clients served at once
+     *      by a pool of N threads, or "virtual" for a virtual thread per client, which requires Java 21.
+     *      A client holds its pool thread while connected, so with "pool:N" the server hosts only its starting
+     *      board and "new" and "join" are answered by a HELP message; use --nio to host many games with few
+     *      threads.
+     * <br> E.g. "MinesweeperServer --threads pool:64" serves clients from 64 threads.
+     * 
+     * <br> LOCKING is an optional argument specifying how the board guards concurrent access:
+     *      "monitor", "reentrant", "striped" or "actors", see Board.Locking. The default is "reentrant" with
+     *      --threads virtual, so board operations do not pin carrier threads, and "monitor" otherwise.
+     * <br> E.g. "MinesweeperServer --locking striped" starts the server with a striped locking board.
+     * 
+     * <br> MILLIS is an optional positive integer, the milliseconds between two pushes of board changes to
+     *      the clients that sent "watch", see Watchers. The default is 100.
+     * <br> E.g. "MinesweeperServer --tick 20" pushes changes to watchers up to 50 times a second.
+     * 
+     * <br> SECONDS is an optional positive integer, how long a game made by "new X Y" is kept without
+     *      players before it is evicted, see Games. The default is 600.
+     * <br> E.g. "MinesweeperServer --idle 60" evicts games a minute after their last player left.
+     * 
+     * <br> BINARY_FILE is an optional argument specifying a binary board file, see Board.open, memory-mapped as
+     *      the squares of the starting board, so the board survives a restart. Rendering still takes about 3.6
+     *      bytes of heap per square, see Board.open.
+     *      If it exists the starting board is opened from it and --size and --file are ignored, otherwise it is
+     *      written with the board given by --size or --file, then opened.
+     * <br> E.g. "MinesweeperServer --persist board.bin" keeps the starting board in board.bin.
+     * 
+     * <br> SECONDS, for --snapshot, is an optional positive integer, the seconds between two snapshots of the
+     *      board to BINARY_FILE, see Board.snapshot. The default is 60. The board is also closed on exit.
+     * <br> E.g. "MinesweeperServer --persist board.bin --snapshot 5" writes board.bin every 5 seconds.
+     * 
+     * <br> MILLIS and OPS, for --log, are optional positive integers. If given, every dig, flag and deflag of
+     *      the persisted board is appended to the write-ahead log BINARY_FILE.log, fsynced every MILLIS
+     *      milliseconds or once OPS requests are appended, see OperationLog. BINARY_FILE is then only written
+     *      whole by snapshots, and on start the log is replayed after the last snapshot, so a crash rebuild the
+     *      board exactly but for the requests not fsynced yet. E.g. 10,4096. If the log cannot be written,
+     *      every later dig, flag and deflag disconnects its client without being applied.
+     * <br> E.g. "MinesweeperServer --persist board.bin --log 1,256" fsyncs the log every millisecond.
+     * 
+     * <br> MICROS, for --profile-locks, is an optional non-negative integer. If given, every board records how
+     *      long each request waited for its lock and held it, by operation and by dig cascade size, and traces
+     *      the last holds of at least MICROS microseconds, reported by the "stats" request, see LockProfiler.
+     *      Profiling times every request twice more, so it is off by default.
+     * <br> E.g. "MinesweeperServer --profile-locks 1000" traces the requests holding a board lock 1ms or more.
+     * 
      * <br> PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the server
      *      should be listening on for incoming connections.
      * <br> E.g. "MinesweeperServer --port 1234" starts the server listening on port 1234.
      * 
      * <br> SIZE_X and SIZE_Y are optional positive integer arguments, specifying that a random board of size
-     *      SIZE_X*SIZE_Y should be generated.
+     *      SIZE_X*SIZE_Y should be generated, of at most Board.MAX_SQUARES squares.
+     * <br> DENSITY is an optional number in the range 0 to 1 inclusive, the probability of a bomb in each
+     *      square of the random board. The default is 0.25.
+     * <br> SEED is an optional integer, the seed of the random board: the same size, density and seed always
+     *      generate the same board. The default is a new seed every start.
+     * <br> E.g. "MinesweeperServer --size 100,100 --density 0.1 --seed 6005" starts every time with the same
+     *      100*100 board of about 1000 bombs.
      * <br> E.g. "MinesweeperServer --size 42,58" starts the server initialized with a random board of size
      *      42*58.
      * 
@@ -228,9 +612,22 @@ public class MinesweeperServer {
     public static void main(String[] args) {
         // Command-line argument parsing is provided. Do not change this method.
         boolean debug = false;
+        boolean nio = false;
+        String threads = "platform";
+        Optional<Board.Locking> locking = Optional.empty();
+        long tick = Watchers.DEFAULT_TICK;
+        long idle = Games.DEFAULT_IDLE;
+        Optional<File> persist = Optional.empty();
+        long snapshot = DEFAULT_SNAPSHOT;
+        long flushMillis = 0;
+        int flushOps = 0;
+        long profileMicros = -1;
+        Executor connections;
         int port = DEFAULT_PORT;
         int sizeX = DEFAULT_SIZE;
         int sizeY = DEFAULT_SIZE;
+        double density = Board.DEFAULT_DENSITY;
+        OptionalLong seed = OptionalLong.empty();
         Optional<File> file = Optional.empty();
 
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
@@ -242,6 +639,46 @@ public class MinesweeperServer {
                         debug = true;
                     } else if (flag.equals("--no-debug")) {
                         debug = false;
+                    } else if (flag.equals("--nio")) {
+                        nio = true;
+                    } else if (flag.equals("--threads")) {
+                        threads = arguments.remove();
+                    } else if (flag.equals("--locking")) {
+                        String mode = arguments.remove();
+                        try {
+                            locking = Optional.of(Board.Locking.valueOf(mode.toUpperCase(Locale.ROOT)));
+                        } catch (IllegalArgumentException iae) {
+                            throw new IllegalArgumentException("unknown locking mode: \"" + mode + "\"");
+                        }
+                    } else if (flag.equals("--tick")) {
+                        tick = Long.parseLong(arguments.remove());
+                        if (tick <= 0) {
+                            throw new IllegalArgumentException("tick " + tick + " must be positive");
+                        }
+                    } else if (flag.equals("--idle")) {
+                        idle = Long.parseLong(arguments.remove()) * 1000;
+                        if (idle <= 0) {
+                            throw new IllegalArgumentException("idle " + idle / 1000 + " must be positive");
+                        }
+                    } else if (flag.equals("--persist")) {
+                        persist = Optional.of(new File(arguments.remove()));
+                    } else if (flag.equals("--snapshot")) {
+                        snapshot = Long.parseLong(arguments.remove()) * 1000;
+                        if (snapshot <= 0) {
+                            throw new IllegalArgumentException("snapshot " + snapshot / 1000 + " must be positive");
+                        }
+                    } else if (flag.equals("--log")) {
+                        String[] flush = arguments.remove().split(",");
+                        flushMillis = Long.parseLong(flush[0]);
+                        flushOps = Integer.parseInt(flush[1]);
+                        if (flushMillis <= 0 || flushOps <= 0) {
+                            throw new IllegalArgumentException("log " + flushMillis + "," + flushOps + " must be positive");
+                        }
+                    } else if (flag.equals("--profile-locks")) {
+                        profileMicros = Long.parseLong(arguments.remove());
+                        if (profileMicros < 0) {
+                            throw new IllegalArgumentException("profile-locks " + profileMicros + " must not be negative");
+                        }
                     } else if (flag.equals("--port")) {
                         port = Integer.parseInt(arguments.remove());
                         if (port < 0 || port > MAXIMUM_PORT) {
@@ -251,7 +688,17 @@ public class MinesweeperServer {
                         String[] sizes = arguments.remove().split(",");
                         sizeX = Integer.parseInt(sizes[0]);
                         sizeY = Integer.parseInt(sizes[1]);
+                        if (sizeX <= 0 || sizeY <= 0 || (long) sizeX * sizeY > Board.MAX_SQUARES) {
+                            throw new IllegalArgumentException("size " + sizeX + "," + sizeY + " out of range");
+                        }
                         file = Optional.empty();
+                    } else if (flag.equals("--density")) {
+                        density = Double.parseDouble(arguments.remove());
+                        if (!(density >= 0 && density <= 1)) {
+                            throw new IllegalArgumentException("density " + density + " out of range");
+                        }
+                    } else if (flag.equals("--seed")) {
+                        seed = OptionalLong.of(Long.parseLong(arguments.remove()));
                     } else if (flag.equals("--file")) {
                         sizeX = -1;
                         sizeY = -1;
@@ -268,14 +715,25 @@ public class MinesweeperServer {
                     throw new IllegalArgumentException("unable to parse number for " + flag);
                 }
             }
+            if (nio && !threads.equals("platform")) {
+                throw new IllegalArgumentException("--nio and --threads may not be specified simultaneously");
+            }
+            try {
+                connections = threads(threads);
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("unable to parse number for --threads");
+            }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]");
+            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--nio | --threads THREADS] [--locking LOCKING] [--tick MILLIS] [--idle SECONDS] [--persist BINARY_FILE [--snapshot SECONDS] [--log MILLIS,OPS]] [--profile-locks MICROS] [--port PORT] [--size SIZE_X,SIZE_Y [--density DENSITY] [--seed SEED] | --file FILE]");
             return;
         }
 
         try {
-            runMinesweeperServer(debug, file, sizeX, sizeY, port);
+            runMinesweeperServer(debug, nio, connections,
+                    locking.orElse(threads.equals("virtual") ? Board.Locking.REENTRANT : Board.Locking.MONITOR),
+                    tick, idle, persist, snapshot, flushMillis, flushOps, profileMicros, file, sizeX, sizeY, density,
+                    seed, port);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -296,17 +754,111 @@ public class MinesweeperServer {
      * @throws IOException if a network error occurs
      */
     public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY, int port) throws IOException {
+        runMinesweeperServer(debug, false, threads("platform"), Board.Locking.MONITOR, Watchers.DEFAULT_TICK,
+                Games.DEFAULT_IDLE, Optional.empty(), DEFAULT_SNAPSHOT, 0, 0, -1, file, sizeX, sizeY,
+                Board.DEFAULT_DENSITY, OptionalLong.empty(), port);
+    }
+
+    /**
+     * Start a MinesweeperServer running on the specified port, with either a random new board or a
+     * board loaded from a file.
+     * 
+     * @param nio If nio, serve every client from one selector thread, else serve each client as a task
+     *            of connections.
+     * @param connections run each client if !nio, see threads(String), only the
+     *                    first game is hosted if it is a bounded pool.
+     * @param locking how the board guards concurrent access.
+     * @param tickMillis milliseconds between pushes to watchers, requires tickMillis > 0.
+     * @param idleMillis milliseconds without players before a game is evicted, requires idleMillis > 0.
+     * @param persist If persist.isPresent(), the starting board is opened from this binary board file,
+     *                written first if it does not exist, see Board.open.
+     * @param snapshotMillis milliseconds between snapshots of a persisted board, requires snapshotMillis > 0.
+     * @param flushMillis If flushMillis > 0 and persist.isPresent(), the requests of the board are logged to
+     *                    persist with ".log" appended, fsynced every flushMillis, see OperationLog.
+     * @param flushOps requests appended before the log is fsynced early, requires flushOps > 0 if logged.
+     * @param profileMicros If profileMicros >= 0, profile the board locks, tracing holds of at least
+     *                      profileMicros microseconds, see LockProfiler.
+     * @see #runMinesweeperServer(boolean, Optional, int, int, int) for the other parameters.
+     * @throws IOException if a network error occurs, or persist cannot be opened
+     */
+    public static void runMinesweeperServer(boolean debug, boolean nio, Executor connections, Board.Locking locking,
+            long tickMillis, long idleMillis, Optional<File> persist, long snapshotMillis,
+            long flushMillis, int flushOps, long profileMicros, Optional<File> file, int sizeX, int sizeY,
+            double density, OptionalLong seed, int port) throws IOException {
         
         // TODO: Continue implementation here in problem 4
-    	Board board = file.isEmpty() ? Board.random(sizeX, sizeY) : Board.load(file.get());
-        MinesweeperServer server = new MinesweeperServer(board, port, debug);
+        Board board;
+        OperationLog log = null;
+        long boardSeed = seed.orElseGet(() -> ThreadLocalRandom.current().nextLong());
+        if (persist.isPresent() && !persist.get().isFile()) {
+            Board start = file.isEmpty() ? Board.random(sizeX, sizeY, density, boardSeed, locking)
+                    : Board.load(file.get(), locking);
+            start.save(persist.get());
+            // a log left by a previous board file is not of this board
+            new File(persist.get().getPath() + ".log").delete();
+        }
+        if (persist.isEmpty()) {
+            board = file.isEmpty() ? Board.random(sizeX, sizeY, density, boardSeed, locking)
+                    : Board.load(file.get(), locking);
+        } else if (flushMillis > 0) {
+            board = Board.openPrivate(persist.get(), locking);
+            log = OperationLog.open(board, persist.get(), new File(persist.get().getPath() + ".log"),
+                    flushMillis, flushOps);
+            persistent(log::snapshot, log::close, snapshotMillis);
+        } else {
+            board = Board.open(persist.get(), locking);
+            persistent(board::snapshot, board::close, snapshotMillis);
+        }
+        LockProfiler profiler = profileMicros < 0 ? null : new LockProfiler(TimeUnit.MICROSECONDS.toNanos(profileMicros));
+        MinesweeperServer server = new MinesweeperServer(board, port, debug, nio, connections, tickMillis, idleMillis,
+                log, profiler);
+        try {
+            server.metrics.register(server.getPort());
+        } catch (JMException jme) {
+            // still readable by the stats request
+            jme.printStackTrace();
+        }
         server.serve();
     }
     
+    /**
+     * Snapshot a persisted board every snapshotMillis on a daemon thread, 
+     * and close it when the process exit.
+     */
+    private static void persistent(Persistence snapshot, Persistence close, long snapshotMillis) {
+        ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "board-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshots.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot.run();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            snapshots.shutdownNow();
+            try {
+                close.run();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }, "board-close"));
+    }
+    
+    /**
+     * Persistence is a snapshot or close of a persisted board.
+     */
+    private interface Persistence {
+        void run() throws IOException;
+    }
+    
     /**
      * DisconnectException indicate a user or server active disconnection.
      */
-    private class DisconnectException extends Exception {
+    static class DisconnectException extends Exception {
 		private static final long serialVersionUID = 3115812493847404535L;
     }
     
@@ -0,0 +1,459 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import minesweeper.Board;
+
+/**
+ * OperationLog is the write-ahead log of the dig, flag and deflag requests
+ * of a Board opened by Board.openPrivate, so the board is rebuilt exactly
+ * after a crash by replaying the log from its last snapshot, the board file.
+ * The log is the Journal of the board: every request take its sequence
+ * number and leave its record in memory inside the critical section of the
+ * board, so the log order is an order the requests were applied in, and
+ * records are written to the log file outside of it, with one fsync per
+ * group of requests, every flushMillis or flushOps requests, by a background
+ * thread: requests do not wait for the disk, and a crash lose at most the
+ * requests of the group not written yet.
+ * A request waits for room in memory before it is applied, at most
+ * WAIT_MILLIS. Once a group cannot be written the log is broken: every
+ * later request fails without being applied, so the log never skips a
+ * request the board applied, until the server is restarted.
+ * Every snapshot save the board file with the requests it include as its
+ * checkpoint, then start a new log file holding only the requests after it.
+ * The board file is only written whole by Board.save, so it is always the
+ * board of its checkpoint exactly.
+ * Every integer is big-endian.
+ * <pre>
+ *   LOG ::= MAGIC VERSION BASE RECORD*
+ *   MAGIC ::= "MSWL"
+ *   VERSION ::= 1, 4 bytes
+ *   BASE ::= 8 bytes, requests before the first RECORD, the checkpoint of the snapshot that started the log
+ *   RECORD ::= KIND_X Y, 4 bytes each, KIND_X is KIND << 30 | X
+ *   KIND ::= 0 for dig | 1 for flag | 2 for deflag
+ * </pre>
+ * A last RECORD cut by a crash is ignored.
+ */
+class OperationLog implements Board.Journal {
+
+    /**
+     * Abstraction function:
+     * 	AF(board, boardFile, file, sequence, records, consumed, copied) 
+     * 	represent the requests applied to board, sequence of them since
+     * 	boardFile was made, the first checkpoint of them saved in boardFile,
+     * 	the next up to consumed in file, up to copied in flushing, the others
+     * 	in records not written to file yet.
+     * rep invariant:
+     * 	checkpoint <= consumed <= copied <= sequence <= consumed + capacity,
+     * 	capacity less the permits of space are the requests reserved by 
+     * 	apply since consumed, unless broken.
+     * 	file hold requests [checkpoint, consumed) once flush return,
+     * 	flushing[0, position) hold the records [consumed, copied).
+     * 	the record of request s is in slot s & mask of records, once
+     * 	stamps hold s + 1 there.
+     * rep exposure:
+     * 	board is shared with the game played, never replaced.
+     * thread safety:
+     * 	applied is only called inside the critical sections of board, see
+     * 	Journal, and take no lock and never wait: sequence is taken by 
+     * 	getAndIncrement and the record published by the volatile write of
+     * 	its stamp, in a slot apply reserved from space before the request
+     * 	took the locks of the board, and flush release once written.
+     * 	consumed, copied, checkpoint, flushing, channel and closed are 
+     * 	guarded by writing, consumed also read volatile by applied.
+     * 	broken is volatile, set once.
+     * 	snapshots are serialized by snapshotting, taken before the locks of
+     * 	the board, then writing once the board is saved: requests only
+     * 	wait while save copy the squares.
+     */
+
+    static final int DIG = 0, FLAG = 1, DEFLAG = 2;
+    /** Default milliseconds between two fsyncs of the log. */
+    static final long DEFAULT_FLUSH_MILLIS = 10;
+    /** Default requests appended before the log is fsynced early. */
+    static final int DEFAULT_FLUSH_OPS = 4096;
+    /** Most milliseconds a request wait for room in memory, the flusher is stalled after. */
+    static final long WAIT_MILLIS = 10_000;
+
+    private static final int MAGIC = 'M' << 24 | 'S' << 16 | 'W' << 8 | 'L';
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 8;
+    /** Bytes of log read at once by replay. */
+    private static final int CHUNK = 1 << 20;
+
+    private final Board board;
+    private final File boardFile;
+    private final Path file;
+    private final int flushOps;
+    private final int mask;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final Object writing = new Object();
+    private final Object snapshotting = new Object();
+
+    /** requests applied since the board file was made */
+    private final AtomicLong sequence = new AtomicLong();
+    /** records of the requests not written yet, by sequence & mask */
+    private final AtomicLongArray records;
+    /** sequence + 1 of the record in each slot of records */
+    private final AtomicLongArray stamps;
+    /** slots of records free for requests, reserved by apply */
+    private final Semaphore space;
+    /** requests written to file */
+    private volatile long consumed;
+    /** requests copied to flushing */
+    private long copied;
+    /** requests saved in boardFile, the base of file */
+    private long checkpoint;
+    /** records being written by flush */
+    private final ByteBuffer flushing;
+    private FileChannel channel;
+    private boolean closed = false;
+    /** why the log cannot be written, null while it can */
+    private volatile IOException broken = null;
+
+    /**
+     * Recover board from the log in file, replaying the requests after its
+     * checkpoint, then snapshot board, start a new log in file and set the
+     * log as the journal of board.
+     * @param board opened from boardFile by Board.openPrivate, with no journal.
+     * @param boardFile binary board file of board, saved by every snapshot.
+     * @param file log of board, made if it does not exist.
+     * @param flushMillis milliseconds between two fsyncs, requires flushMillis > 0.
+     * @param flushOps requests appended before an early fsync, requires flushOps > 0.
+     * @return the log of board, logging every request of board until closed,
+     *         its requests must be made through apply.
+     * @throws IOException if file cannot be read or written, is not a log,
+     *         or start after the board checkpoint.
+     */
+    static OperationLog open(Board board, File boardFile, File file, long flushMillis, int flushOps) throws IOException {
+        OperationLog log = new OperationLog(board, boardFile, file.toPath().toAbsolutePath(), flushMillis, flushOps);
+        long sequence = board.checkpoint();
+        if (Files.exists(log.file)) {
+            sequence = replay(board, log.file);
+        }
+        log.sequence.set(sequence);
+        log.consumed = sequence;
+        log.copied = sequence;
+        log.checkpoint = sequence;
+        log.snapshot();
+        board.setJournal(log);
+        log.flusher.scheduleWithFixedDelay(log::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        return log;
+    }
+
+    private OperationLog(Board board, File boardFile, Path file, long flushMillis, int flushOps) {
+        this.board = board;
+        this.boardFile = boardFile;
+        this.file = file;
+        this.flushOps = flushOps;
+        // room for the requests made while a group is written
+        int capacity = Integer.highestOneBit(flushOps) << 2;
+        this.mask = capacity - 1;
+        this.records = new AtomicLongArray(capacity);
+        this.stamps = new AtomicLongArray(capacity);
+        this.space = new Semaphore(capacity);
+        this.flushing = ByteBuffer.allocate(capacity * RECORD_SIZE);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "operation-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Apply the requests of the log in file after the checkpoint of board.
+     * @return requests applied to board, including those of the checkpoint.
+     */
+    private static long replay(Board board, Path file) throws IOException {
+        long checkpoint = board.checkpoint();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+            readFully(in, buffer, HEADER_SIZE);
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("not an operation log: " + file);
+            }
+            long base = buffer.getLong();
+            if (base > checkpoint) {
+                throw new IOException("operation log " + file + " start after the board checkpoint");
+            }
+            long sequence = base;
+            while (true) {
+                buffer.clear();
+                readFully(in, buffer, CHUNK);
+                if (buffer.remaining() < RECORD_SIZE) {
+                    // requests of the checkpoint may be lost from the log, not from the board
+                    return Math.max(sequence, checkpoint);
+                }
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    int kindX = buffer.getInt();
+                    int y = buffer.getInt();
+                    if (sequence++ >= checkpoint) {
+                        apply(board, kindX >>> 30, kindX & 0x3FFFFFFF, y);
+                    }
+                }
+                // a cut record is read again with the next chunk, then ignored
+                in.position(in.position() - buffer.remaining());
+            }
+        }
+    }
+
+    /**
+     * Fill buffer with up to length bytes of in, then flip it.
+     */
+    private static void readFully(FileChannel in, ByteBuffer buffer, int length) throws IOException {
+        buffer.limit(length);
+        while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+        }
+        buffer.flip();
+    }
+
+    private static boolean apply(Board board, int kind, int x, int y) {
+        Board.Position position = new Board.Position(x, y);
+        switch (kind) {
+        case DIG: return board.dig(position);
+        case FLAG: board.flag(position); return false;
+        case DEFLAG: board.deflag(position); return false;
+        default: throw new IllegalArgumentException("unknown request kind " + kind);
+        }
+    }
+
+    /**
+     * Apply a request to the board, which append it to the log, once there
+     * is room for its record.
+     * @param kind DIG, FLAG or DEFLAG.
+     * @param x column of the square, in [0, 2^30).
+     * @param y row of the square.
+     * @return whether a dig found a bomb, see Board.dig.
+     * @throws UncheckedIOException without applying the request if the log
+     *         is broken, or the flusher made no room for WAIT_MILLIS.
+     */
+    boolean apply(int kind, int x, int y) {
+        reserve();
+        try {
+            return apply(board, kind, x, y);
+        } catch (IndexOutOfBoundsException notOnBoard) {
+            // thrown before the board told the log
+            space.release();
+            throw notOnBoard;
+        }
+    }
+
+    /**
+     * Reserve the slot of one request in records, waiting for flush at most
+     * WAIT_MILLIS.
+     * @throws UncheckedIOException if the log is broken or no slot is freed.
+     */
+    private void reserve() {
+        checkBroken();
+        if (!space.tryAcquire()) {
+            queueFlush();
+            boolean reserved;
+            try {
+                reserved = space.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("interrupted waiting for the operation log"));
+            }
+            if (!reserved) {
+                throw new UncheckedIOException(new IOException("operation log not flushed for " + WAIT_MILLIS + " ms"));
+            }
+        }
+        if (broken != null) {
+            space.release();
+            checkBroken();
+        }
+    }
+
+    private void checkBroken() {
+        IOException broken = this.broken;
+        if (broken != null) {
+            throw new UncheckedIOException("operation log broken", broken);
+        }
+    }
+
+    /**
+     * Append a request of the board to the log, see Board.Journal, in the
+     * slot apply reserved for it.
+     */
+    @Override public void applied(Board.Operation operation, int x, int y) {
+        int kind = operation == Board.Operation.DIG ? DIG : operation == Board.Operation.FLAG ? FLAG : DEFLAG;
+        long s = sequence.getAndIncrement();
+        if (s - consumed > mask) {
+            // a request not made through apply, its slot is not free
+            fail(new IOException("operation log overrun by request " + s));
+            return;
+        }
+        int slot = (int) s & mask;
+        records.set(slot, (long) (kind << 30 | x) << 32 | (y & 0xFFFFFFFFL));
+        stamps.set(slot, s + 1);
+        if (s - consumed >= flushOps) {
+            queueFlush();
+        }
+    }
+
+    /**
+     * Break the log, failing every request from now on, and wake the
+     * requests waiting for room so they fail too.
+     */
+    private void fail(IOException cause) {
+        if (broken == null) {
+            broken = cause;
+            space.release(mask + 1);
+        }
+    }
+
+    private void queueFlush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException closing) {
+                // close flush the rest
+            }
+        }
+    }
+
+    /**
+     * Write and fsync the records appended so far, and those a failed flush
+     * did not write.
+     * @throws IOException if the log cannot be written, the log is then
+     *         broken, the records are kept for the next flush.
+     */
+    void flush() throws IOException {
+        synchronized (writing) {
+            flushQueued.set(false);
+            long s = copied;
+            while (stamps.get((int) s & mask) == s + 1) {
+                flushing.putLong(records.get((int) s & mask));
+                s++;
+            }
+            copied = s;
+            if (copied == consumed || closed) return;
+            flushing.flip();
+            try {
+                // after a failed flush, write again from the first record not written
+                channel.position(HEADER_SIZE + (consumed - checkpoint) * RECORD_SIZE);
+                while (flushing.hasRemaining()) {
+                    channel.write(flushing);
+                }
+                channel.force(false);
+            } catch (IOException | RuntimeException e) {
+                // keep every record copied, the next ones are appended after them
+                flushing.position(flushing.limit()).limit(flushing.capacity());
+                fail(e instanceof IOException ? (IOException) e : new IOException(e));
+                throw e;
+            }
+            flushing.clear();
+            int written = (int) (copied - consumed);
+            consumed = copied;
+            space.release(written);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException ioe) {
+            // the log is broken, requests fail from now on
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Save the board with the requests applied so far as checkpoint and
+     * start a new log after it. Requests only wait while the squares are
+     * copied, see Board.save.
+     * @throws IOException if the board or the log cannot be written.
+     */
+    void snapshot() throws IOException {
+        synchronized (snapshotting) {
+            synchronized (writing) {
+                if (closed) return;
+            }
+            // read under the locks of the board, so every request before it is recorded
+            long[] cut = new long[1];
+            board.save(boardFile, () -> cut[0] = sequence.get());
+            synchronized (writing) {
+                flush();
+                rotate(cut[0]);
+                checkpoint = cut[0];
+            }
+        }
+    }
+
+    /**
+     * Stop logging the board, then snapshot it, requires no request made
+     * after.
+     * @throws IOException if the board or the log cannot be written.
+     */
+    void close() throws IOException {
+        flusher.shutdownNow();
+        board.setJournal(null);
+        synchronized (snapshotting) {
+            snapshot();
+            synchronized (writing) {
+                closed = true;
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Replace the log file by a log starting at cut, holding the records
+     * of file after cut, requires writing held and file flushed.
+     */
+    private void rotate(long cut) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel next = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(cut);
+            header.flip();
+            while (header.hasRemaining()) {
+                next.write(header);
+            }
+            if (channel != null) {
+                // requests applied while the board was saved
+                long position = HEADER_SIZE + (cut - checkpoint) * RECORD_SIZE;
+                long end = HEADER_SIZE + (consumed - checkpoint) * RECORD_SIZE;
+                long moved = 1;
+                while (position < end && moved > 0) {
+                    // a file cut by a failed flush end early
+                    moved = channel.transferTo(position, end - position, next);
+                    position += moved;
+                }
+            }
+            next.force(true);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            next.close();
+            throw e;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        channel = next;
+    }
+}
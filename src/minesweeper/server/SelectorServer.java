@@ -0,0 +1,450 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import minesweeper.server.MinesweeperServer.DisconnectException;
+
+/**
+ * SelectorServer serve every client of a MinesweeperServer from one thread,
+ * with non-blocking channels and a Selector, so an idle client costs a few
+ * objects instead of a thread.
+ * Lines are framed like BufferedReader.readLine and replies are written like
+ * PrintWriter.println, so clients see the same protocol as the thread per
+ * connection server, including the switch to BinaryProtocol and the pushes
+ * to watchers.
+ * Connections take turns of at most REQUESTS_PER_TURN requests, a client
+ * pipelining many requests, e.g. of a hot game, wait for the other clients
+ * ready before its next turn, so it cannot starve the players of other games.
+ */
+class SelectorServer {
+
+    /**
+     * Abstraction function:
+     * 	AF(server, serverChannel, selector) represent the selector thread of
+     * 	server, accepting clients from serverChannel, each client is a
+     * 	Connection attached to its key of selector.
+     * rep invariant:
+     * 	serverChannel and every Connection channel are non-blocking and
+     * 	registered with selector.
+     * rep exposure:
+     * 	every field is private and never returned
+     * thread safety:
+     * 	confined to the thread running serve, Board, the players count and
+     * 	the server Metrics are thread safe. pushes is a concurrent queue, the Watchers ticker
+     * 	add a push and wake up selector, the thread running serve send it.
+     * 	a Connection is in ready iff its queued flag is set.
+     */
+
+    /** Size of the read buffer shared by every connection. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Longest line accepted from a client, longer lines disconnect it. */
+    private static final int MAX_LINE = 64 * 1024;
+    /** Line separator of replies, as written by PrintWriter.println. */
+    private static final String NEWLINE = System.lineSeparator();
+    /** Charset of replies, as used by PrintWriter. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+    /** Most requests of one connection handled before the other connections get a turn. */
+    private static final int REQUESTS_PER_TURN = 16;
+    /** Most messages queued to a watcher, a watcher not reading more is disconnected. */
+    private static final int MAX_PENDING_PUSHES = 64;
+
+    private final MinesweeperServer server;
+    private final ServerSocketChannel serverChannel;
+    private final boolean debug;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    /** pushes to watchers from the Watchers ticker, not sent yet */
+    private final Queue<Runnable> pushes = new ConcurrentLinkedQueue<>();
+    /** connections whose turn ended with complete requests left, in turn order */
+    private final ArrayDeque<Connection> ready = new ArrayDeque<>();
+
+    /** request being handled, decoded from the input bytes of its connection */
+    private final Command command = new Command();
+    /** last reply encoded and its bytes, BOARD messages are the same String until the board change */
+    private String lastReply = null;
+    private byte[] lastReplyBytes = null;
+
+    /**
+     * Make a SelectorServer for the clients of server.
+     * @param server handle requests.
+     * @param serverChannel bound channel of server.
+     * @param debug disconnect a client after a BOOM message iff debug is false.
+     * @throws IOException if the selector cannot be opened.
+     */
+    SelectorServer(MinesweeperServer server, ServerSocketChannel serverChannel, boolean debug) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.debug = debug;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Accept and serve clients. Never returns unless an exception is thrown.
+     * @throws IOException if the server channel or selector is broken
+     *                     (IOExceptions from individual clients do *not* terminate serve())
+     */
+    void serve() throws IOException {
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        while (true) {
+            if (ready.isEmpty()) {
+                selector.select();
+            } else {
+                selector.selectNow();
+            }
+            for (Runnable push = pushes.poll(); push != null; push = pushes.poll()) {
+                push.run();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isWritable()) connection.flush();
+                    if (key.isValid() && key.isReadable()) connection.read();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+            // another turn for the connections ready before this round
+            for (int turns = ready.size(); turns > 0; turns--) {
+                Connection connection = ready.remove();
+                try {
+                    connection.resume();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accept every pending client and send its HELLO message.
+     * @throws IOException if the server channel is broken.
+     */
+    private void accept() throws IOException {
+        for (SocketChannel channel = serverChannel.accept(); channel != null; channel = serverChannel.accept()) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            try {
+                connection.send(server.welcome(connection.session));
+            } catch (IOException e) {
+                e.printStackTrace();
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @param reply message to a client.
+     * @return reply and a newline encoded.
+     */
+    private byte[] encode(String reply) {
+        if (reply != lastReply) {
+            lastReplyBytes = (reply + NEWLINE).getBytes(CHARSET);
+            lastReply = reply;
+        }
+        return lastReplyBytes;
+    }
+
+    /**
+     * Connection is one client: its unhandled input and unsent output.
+     * While output is pending the client is not read, so a client that does
+     * not read its replies cannot make the server queue unbounded output.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        /** input received but not handled yet, input[0, inputLength) */
+        private byte[] input = new byte[0];
+        private int inputLength = 0;
+        /** true if the last line ended with '\r', so a following '\n' is skipped */
+        private boolean skipLF = false;
+        /** true once switched to BinaryProtocol */
+        private boolean binary = false;
+        /** game, delta mode and watch subscription of the client */
+        private final Session session = new Session(server.games.first());
+        /** pushes to this connection once "watch" was sent, null before */
+        private Watchers.Subscriber watcher = null;
+        /** true while in ready, waiting for another turn */
+        private boolean queued = false;
+        /** replies not written yet, in order */
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        /** true if the client is disconnected once output is written */
+        private boolean closing = false;
+        private boolean closed = false;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+            server.metrics.connected();
+        }
+
+        /**
+         * Read available input and handle every complete request.
+         * @throws IOException if the connection is broken.
+         */
+        void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            server.metrics.bytesRead(read);
+            readBuffer.flip();
+            if (inputLength + read > input.length) {
+                input = Arrays.copyOf(input, Math.max(inputLength + read, 2 * input.length));
+            }
+            readBuffer.get(input, inputLength, read);
+            inputLength += read;
+            handleRequests();
+        }
+
+        /**
+         * Write pending output, then handle the input left while it was pending.
+         * @throws IOException if the connection is broken.
+         */
+        void flush() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer buffer = output.peek();
+                server.metrics.bytesWritten(channel.write(buffer));
+                if (buffer.hasRemaining()) return;
+                output.remove();
+            }
+            handleRequests();
+        }
+
+        /**
+         * Queue reply to the client and write as much as the socket accept.
+         * @param reply message to the client, without newline.
+         * @throws IOException if the connection is broken.
+         */
+        void send(String reply) throws IOException {
+            send(encode(reply));
+        }
+
+        /**
+         * Queue bytes to the client and write as much as the socket accept.
+         * @param bytes message to the client, not modified afterwards.
+         * @throws IOException if the connection is broken.
+         */
+        private void send(byte[] bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (output.isEmpty()) {
+                server.metrics.bytesWritten(channel.write(buffer));
+            }
+            if (buffer.hasRemaining()) {
+                output.add(buffer);
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Take the turn this connection waited for in ready.
+         * @throws IOException if the connection is broken.
+         */
+        void resume() throws IOException {
+            queued = false;
+            if (!closed) handleRequests();
+        }
+
+        /**
+         * Handle complete requests of input until output is pending or the
+         * turn is over, then update the interest of key: write while output
+         * is pending, nothing while waiting in ready, read otherwise.
+         * @throws IOException if the connection is broken.
+         */
+        private void handleRequests() throws IOException {
+            int start = 0;
+            int turn = REQUESTS_PER_TURN;
+            boolean incomplete = false;
+            while (start < inputLength && output.isEmpty() && !closing) {
+                if (turn-- == 0) {
+                    if (!queued) {
+                        queued = true;
+                        ready.add(this);
+                    }
+                    break;
+                }
+                int next = binary ? handleFrame(start) : handleLine(start);
+                if (next < 0) {
+                    incomplete = true;
+                    break;
+                }
+                start = next;
+            }
+            inputLength -= start;
+            System.arraycopy(input, start, input, 0, inputLength);
+            if (!binary && incomplete && inputLength > MAX_LINE) {
+                throw new IOException("line longer than " + MAX_LINE + " bytes");
+            }
+
+            if (closing && output.isEmpty()) {
+                close();
+            } else if (!closed) {
+                key.interestOps(!output.isEmpty() ? SelectionKey.OP_WRITE : queued ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Handle the text line at input[start] if it is complete.
+         * @return index after the line and its newline, or -1 if incomplete.
+         * @throws IOException if the connection is broken.
+         */
+        private int handleLine(int start) throws IOException {
+            if (skipLF) {
+                skipLF = false;
+                if (input[start] == '\n') return start + 1;
+            }
+            for (int i = start; i < inputLength; i++) {
+                byte b = input[i];
+                if (b == '\n' || b == '\r') {
+                    skipLF = b == '\r';
+                    command.parse(input, start, i);
+                    if (command.type == Command.Type.BINARY) {
+                        server.metrics.count(command.type);
+                        binary = true;
+                        session.unwatch();
+                        handleBinary();
+                    } else if (command.type == Command.Type.WATCH) {
+                        server.metrics.count(command.type);
+                        watch();
+                    } else {
+                        handle();
+                    }
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Handle the BinaryProtocol request at input[start] if it is complete.
+         * @return index after the request, or -1 if incomplete.
+         * @throws IOException if the connection is broken.
+         */
+        private int handleFrame(int start) throws IOException {
+            if (skipLF) {
+                // the '\n' of a "binary\r\n" request, no opcode is '\n'
+                skipLF = false;
+                if (input[start] == '\n') return start + 1;
+            }
+            if (inputLength - start < BinaryProtocol.REQUEST_SIZE) return -1;
+            BinaryProtocol.decode(input, start, command);
+            server.metrics.count(command.type);
+            handleBinary();
+            return start + BinaryProtocol.REQUEST_SIZE;
+        }
+
+        /**
+         * Handle the text request in command and send its reply.
+         * @throws IOException if the connection is broken.
+         */
+        private void handle() throws IOException {
+            try {
+                Optional<String> reply = server.handleRequest(session, command);
+                if (reply.isPresent()) {
+                    send(reply.get());
+                    if (!debug && reply.get() == MinesweeperServer.BOOM_MSG) {
+                        closing = true;
+                    }
+                }
+            } catch (DisconnectException e) {
+                closing = true;
+            }
+        }
+
+        /**
+         * Subscribe to the changes of the game played and send the BOARD message.
+         * Pushes are queued to pushes and sent after it, by push.
+         * @throws IOException if the connection is broken.
+         */
+        private void watch() throws IOException {
+            if (watcher == null) {
+                watcher = message -> {
+                    pushes.add(() -> push(message));
+                    selector.wakeup();
+                    return true;
+                };
+            }
+            send(session.watch(watcher));
+        }
+
+        /**
+         * Send a push to the client, or disconnect it if too many are pending.
+         * @param message WATCH message and its newline, not modified afterwards.
+         */
+        private void push(byte[] message) {
+            if (closed) return;
+            try {
+                if (output.size() >= MAX_PENDING_PUSHES) {
+                    throw new IOException("watcher not reading pushes");
+                }
+                send(message);
+            } catch (IOException e) {
+                e.printStackTrace();
+                close();
+            }
+        }
+
+        /**
+         * Handle the BinaryProtocol request in command and send its reply frame.
+         * @throws IOException if the connection is broken.
+         */
+        private void handleBinary() throws IOException {
+            try {
+                MinesweeperServer.Reply reply = server.perform(session.game(), command);
+                for (byte[] part : server.binaryReply(session.game().board, reply)) {
+                    send(part);
+                }
+                if (!debug && reply == MinesweeperServer.Reply.BOOM) {
+                    closing = true;
+                }
+            } catch (DisconnectException e) {
+                closing = true;
+            }
+        }
+
+        /**
+         * Disconnect the client, if not disconnected yet.
+         */
+        void close() {
+            if (closed) return;
+            closed = true;
+            server.metrics.disconnected();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            session.close();
+        }
+    }
+}
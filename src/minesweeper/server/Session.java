@@ -0,0 +1,92 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * Session is the protocol state of one connection: the game it plays, its
+ * delta mode and its watch subscription. A session start in game 0 and
+ * switch game by "new X Y" or "join ID", which leave delta mode as it is
+ * and stop watching the previous game.
+ */
+class Session {
+
+    /**
+     * Abstraction function:
+     * 	AF(game, delta, watcher, closed) represent a connection playing game,
+     * 	in delta mode iff delta is not null, watching game iff watcher is not
+     * 	null, disconnected iff closed.
+     * rep invariant:
+     * 	game is joined once by this session until closed.
+     * rep exposure:
+     * 	game is shared with the other players, delta is package visible for
+     * 	the server encoding replies.
+     * thread safety:
+     * 	not thread safe, confined to the thread serving the connection.
+     */
+
+    private Game game;
+    /** BOARD replies of game once switched to delta mode, null before */
+    DeltaReplies delta = null;
+    private Watchers.Subscriber watcher = null;
+    private boolean closed = false;
+
+    /**
+     * Start a session in game, joining it.
+     * @param game to play, not evicted.
+     */
+    Session(Game game) {
+        game.join();
+        this.game = game;
+    }
+
+    /**
+     * @return the game played.
+     */
+    Game game() {
+        return game;
+    }
+
+    /**
+     * Leave the game played for next.
+     * @param next game to play, already joined for this session.
+     */
+    void switchTo(Game next) {
+        unwatch();
+        game.leave();
+        game = next;
+        if (delta != null) {
+            delta = new DeltaReplies();
+        }
+    }
+
+    /**
+     * Subscribe subscriber to the changes of the game played.
+     * @return the whole BOARD message of the game, see Watchers.subscribe.
+     */
+    String watch(Watchers.Subscriber subscriber) {
+        watcher = subscriber;
+        return game.watchers.subscribe(subscriber);
+    }
+
+    /**
+     * Stop watching, if watching.
+     */
+    void unwatch() {
+        if (watcher != null) {
+            game.watchers.unsubscribe(watcher);
+            watcher = null;
+        }
+    }
+
+    /**
+     * Leave the game played, once the connection is disconnected.
+     * Closing again does nothing.
+     */
+    void close() {
+        if (closed) return;
+        closed = true;
+        unwatch();
+        game.leave();
+    }
+}
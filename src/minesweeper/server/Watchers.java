@@ -0,0 +1,179 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import minesweeper.Board;
+
+/**
+ * Watchers are the connections subscribed to board changes by the text
+ * request "watch". watch is answered by the whole BOARD message, then at most
+ * once per tick the squares changed since the last push, by any client, are
+ * pushed to every watcher as a WATCH message:
+ * <pre>
+ *   WATCH ::= "WATCH" SPACE N (NEWLINE X SPACE Y SPACE SYMBOL){N}
+ * </pre>
+ * in the format of a DELTA message, see DeltaReplies. If too many squares
+ * changed every square is listed. A square may be listed again in a later
+ * push, or with a change the watcher already seen, with its current SYMBOL.
+ * Pushes are interleaved with the replies of the watcher own requests.
+ */
+class Watchers {
+
+    /**
+     * Abstraction function:
+     * 	AF(board, subscribers, seen) represent the watchers of board, who all
+     * 	have seen board at least up to version seen.
+     * rep invariant:
+     * 	seen >= -1, tick is null iff subscribers was always empty or closed.
+     * rep exposure:
+     * 	every field is private and never returned
+     * thread safety:
+     * 	seen, tick and adding subscribers are guarded by the monitor, so a
+     * 	subscriber snapshot is never older than the pushes it receives.
+     * 	changed is atomic and set by board listener without lock.
+     * 	pushes are handed by the ticker thread outside the monitor, to the
+     * 	copy-on-write subscribers, so a slow watcher never block subscribe.
+     * 	subscribers only queue them, so a watcher not reading never block
+     * 	the ticker shared by every game.
+     */
+
+    /**
+     * Subscriber is how a connection receive pushes.
+     */
+    interface Subscriber {
+        /**
+         * Send message to the watcher, called on the ticker thread, must
+         * queue it and never write to a socket or wait.
+         * @param message a WATCH message and its newline, shared by every
+         *                subscriber, must not be modified.
+         * @return false if the watcher is disconnected and must be removed.
+         */
+        boolean push(byte[] message);
+    }
+
+    static final String WATCH_PREFIX = "WATCH ";
+    /** Default milliseconds between pushes. */
+    static final long DEFAULT_TICK = 100;
+
+    /** Line separator of pushes, as written by PrintWriter.println. */
+    private static final String NEWLINE = System.lineSeparator();
+    /** Charset of pushes, as used by PrintWriter. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final Board board;
+    /** run the ticks of watchers, shared by every game */
+    private final ScheduledExecutorService ticker;
+    private final long tickMillis;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final Board.Listener listener = board -> changed.set(true);
+    private long seen = -1;
+    private ScheduledFuture<?> tick = null;
+    private boolean closed = false;
+
+    /**
+     * Make the watchers of board.
+     * @param board to watch.
+     * @param ticker run the pushes, on a single thread.
+     * @param tickMillis milliseconds between pushes, requires tickMillis > 0.
+     */
+    Watchers(Board board, ScheduledExecutorService ticker, long tickMillis) {
+        this.board = board;
+        this.ticker = ticker;
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * Push changes of the board to subscriber, until it is unsubscribed or
+     * disconnected. Subscribing again is the same as subscribing once.
+     * @param subscriber to add.
+     * @return the whole BOARD message, to be sent to subscriber before any push.
+     */
+    synchronized String subscribe(Subscriber subscriber) {
+        if (tick == null && !closed) {
+            board.addListener(listener);
+            tick = ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+        Board.Changes snapshot = board.changesSince(-1);
+        if (subscribers.isEmpty()) {
+            // nobody seen the changes before snapshot
+            seen = snapshot.version;
+        }
+        subscribers.addIfAbsent(subscriber);
+        return snapshot.snapshot();
+    }
+
+    /**
+     * Stop pushing to subscriber.
+     * @param subscriber to remove.
+     */
+    void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Stop pushing, to every subscriber, once the board is no longer played.
+     */
+    synchronized void close() {
+        closed = true;
+        if (tick != null) {
+            tick.cancel(false);
+            board.removeListener(listener);
+            tick = null;
+        }
+    }
+
+    /**
+     * Push the changes since the last push, encoded once, to every subscriber.
+     */
+    private void tick() {
+        byte[] message;
+        Iterator<Subscriber> watchers;
+        synchronized (this) {
+            if (subscribers.isEmpty() || !changed.getAndSet(false)) return;
+            Board.Changes changes = board.changesSince(seen);
+            seen = changes.version;
+            if (!changes.isSnapshot() && changes.size() == 0) return;
+            message = encode(changes);
+            watchers = subscribers.iterator();
+        }
+        while (watchers.hasNext()) {
+            Subscriber subscriber = watchers.next();
+            if (!subscriber.push(message)) {
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * @param changes squares changed since the last push.
+     * @return WATCH message of changes and a newline encoded.
+     */
+    private static byte[] encode(Board.Changes changes) {
+        String message;
+        if (changes.isSnapshot()) {
+            // every square, BOARD rows are SYMBOL separated by a space
+            String[] rows = changes.snapshot().split("\n");
+            StringBuilder all = new StringBuilder(WATCH_PREFIX);
+            all.append(rows.length * ((rows[0].length() + 1) / 2));
+            for (int y = 0; y < rows.length; y++) {
+                for (int x = 0; 2 * x < rows[y].length(); x++) {
+                    all.append('\n').append(x).append(' ').append(y).append(' ').append(rows[y].charAt(2 * x));
+                }
+            }
+            message = all.toString();
+        } else {
+            message = DeltaReplies.message(WATCH_PREFIX, changes);
+        }
+        return (message + NEWLINE).getBytes(CHARSET);
+    }
+}
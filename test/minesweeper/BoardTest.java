@@ -4,11 +4,23 @@
 package minesweeper;
 
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -694,6 +706,550 @@ public class BoardTest {
     	assertEquals("expected square dug", State.count(1), board.inspect(new Position(2, 2)));
     }
     
+    /**
+     * covers dig more than two deep further on a large board
+     */
+    @Test
+    public void testDigLargeEmptyBoard() {
+    	Board board = new Board(1000, 1000, List.of(new Position(999, 999)));
+    	assertFalse("expected dig no bomb", board.dig(new Position(0, 0)));
+    	assertEquals("expected square dug", State.Space, board.inspect(new Position(998, 0)));
+    	assertEquals("expected square dug", State.count(1), board.inspect(new Position(998, 998)));
+    	assertEquals("expected square untouched", State.Untouched, board.inspect(new Position(999, 999)));
+    	assertTrue("expected game over", board.isGameOver());
+    }
+    
+    /**
+     * covers board built from a bomb bitmap
+     */
+    @Test
+    public void testBitmapConstructor() {
+    	BitSet bombs = new BitSet();
+    	bombs.set(3 * 10 + 2);
+    	bombs.set(9 * 10 + 9);
+    	Board bitmap = new Board(10, 10, bombs);
+    	Board list = new Board(10, 10, List.of(new Position(2, 3), new Position(9, 9)));
+    	assertFalse("expected dig no bomb", bitmap.dig(new Position(0, 0)));
+    	assertFalse("expected dig no bomb", list.dig(new Position(0, 0)));
+    	assertEquals("expected same board", list.toString(), bitmap.toString());
+    	assertTrue("expected dig a bomb", bitmap.dig(new Position(2, 3)));
+    	assertEquals("expected equal positions hash equal", 
+    			new Position(2, 3).hashCode(), new Position(2, 3).hashCode());
+    }
+    
+    /**
+     * covers striped and reentrant locking, concurrent dig and flag across tiles
+     */
+    @Test
+    public void testStripedConcurrentDig() throws InterruptedException {
+    	final int size = 200;
+    	final Random random = new Random(6005);
+    	final BitSet bombs = new BitSet();
+    	for (int i = 0; i < size * size; i++) {
+    		if (random.nextDouble() < 0.1) bombs.set(i);
+    	}
+    	final Board monitor = new Board(size, size, bombs, Board.Locking.MONITOR);
+    	
+    	// dig squares with no bomb and flag squares with a bomb, final board
+    	// does not depend on the order
+    	final List<Position> moves = new ArrayList<>();
+    	for (int k = 0; k < 4000; k++) {
+    		moves.add(new Position(random.nextInt(size), random.nextInt(size)));
+    	}
+    	for (Position p : moves) {
+    		if (bombs.get(p.y * size + p.x)) monitor.flag(p); else monitor.dig(p);
+    	}
+    	
+    	for (Board.Locking locking : new Board.Locking[] { Board.Locking.STRIPED, Board.Locking.REENTRANT, Board.Locking.ACTORS }) {
+    		final Board board = new Board(size, size, bombs, locking);
+    		Thread[] threads = new Thread[4];
+    		for (int t = 0; t < threads.length; t++) {
+    			final int first = t;
+    			threads[t] = new Thread(() -> {
+    				for (int k = first; k < moves.size(); k += threads.length) {
+    					Position p = moves.get(k);
+    					if (bombs.get(p.y * size + p.x)) board.flag(p); else board.dig(p);
+    				}
+    			});
+    			threads[t].start();
+    		}
+    		for (Thread thread : threads) thread.join();
+
+    		assertEquals("expected same board " + locking, monitor.toString(), board.toString());
+    		assertEquals("expected same game state " + locking, monitor.isGameOver(), board.isGameOver());
+    	}
+    }
+    
+    /**
+     * covers actors locking with several workers, cascades and neighbor
+     * counts crossing bands, concurrent dig and flag
+     */
+    @Test
+    public void testActorsWorkers() throws InterruptedException {
+    	final int size = 200;
+    	final Random random = new Random(6005);
+    	final BitSet bombs = new BitSet();
+    	for (int i = 0; i < size * size; i++) {
+    		if (random.nextDouble() < 0.02) bombs.set(i);
+    	}
+    	final List<Position> moves = new ArrayList<>();
+    	for (int k = 0; k < 400; k++) {
+    		moves.add(new Position(random.nextInt(size), random.nextInt(size)));
+    	}
+    	
+    	for (int workers : new int[] { 3, 5 }) {
+    		TileActors.Pool pool = new TileActors.Pool(workers);
+    		
+    		// one cascade across every band
+    		Board empty = new Board(size, size, new BitSet(), Board.Locking.ACTORS, pool);
+    		assertFalse("expected dig no bomb", empty.dig(new Position(size / 2, size / 2)));
+    		assertEquals("expected every square dug " + workers, 
+    				new Board(size, size, new BitSet()).toString().replace('-', ' '), empty.toString());
+    		assertTrue("expected game over " + workers, empty.isGameOver());
+    		
+    		final Board monitor = new Board(size, size, bombs, Board.Locking.MONITOR);
+    		final Board board = new Board(size, size, bombs, Board.Locking.ACTORS, pool);
+    		for (Position p : moves) {
+    			if (bombs.get(p.y * size + p.x)) monitor.flag(p); else monitor.dig(p);
+    		}
+    		Thread[] threads = new Thread[4];
+    		for (int t = 0; t < threads.length; t++) {
+    			final int first = t;
+    			threads[t] = new Thread(() -> {
+    				for (int k = first; k < moves.size(); k += threads.length) {
+    					Position p = moves.get(k);
+    					if (bombs.get(p.y * size + p.x)) board.flag(p); else board.dig(p);
+    				}
+    			});
+    			threads[t].start();
+    		}
+    		for (Thread thread : threads) thread.join();
+    		
+    		assertEquals("expected same board " + workers, monitor.toString(), board.toString());
+    		// a bomb dug decrement the counts of its neighbors in other bands
+    		Position bomb = null;
+    		for (int i = bombs.nextSetBit(0); i >= 0 && bomb == null; i = bombs.nextSetBit(i + 1)) {
+    			if (i / size % TileLocks.TILE_SIZE == 0 && i / size > 0) bomb = new Position(i % size, i / size);
+    		}
+    		monitor.deflag(bomb);
+    		board.deflag(bomb);
+    		assertTrue("expected dig a bomb", monitor.dig(bomb));
+    		assertTrue("expected dig a bomb", board.dig(bomb));
+    		assertEquals("expected same board after bomb " + workers, monitor.toString(), board.toString());
+    	}
+    }
+    
+    /**
+     * covers a handler throwing on a worker shared by two actor boards
+     */
+    @Test
+    public void testActorsFailure() {
+    	TileActors.Pool pool = new TileActors.Pool(2);
+    	List<Integer> written = new ArrayList<>();
+    	TileActors.Handler handler = new TileActors.Handler() {
+    		@Override public void handle(TileActors.Worker worker, int kind, int i) {
+    			worker.transaction.record(i, 0);
+    			worker.transaction.dug++;
+    			if (kind == 1) throw new IllegalStateException("broken square " + i);
+    		}
+    		
+    		@Override public void finished(TileActors.Worker worker) {
+    			for (int k = 0; k < worker.transaction.writes(); k++) {
+    				written.add(worker.transaction.written(k));
+    			}
+    			worker.job().dug.addAndGet(worker.transaction.dug);
+    			worker.transaction.dug = 0;
+    			worker.transaction.commit();
+    		}
+    	};
+    	// one tile each, both owned by the same worker
+    	TileActors broken = new TileActors(4, 4, handler, pool);
+    	TileActors other = new TileActors(4, 4, handler, pool);
+    	try {
+    		broken.run(1, 3);
+    		throw new AssertionError("expected the handler failure");
+    	} catch (IllegalStateException expected) {
+    	}
+    	TileActors.Job job = other.run(0, 5);
+    	assertEquals(1, job.dug.get());
+    	assertEquals(List.of(5), written);
+    }
+    
+    /**
+     * covers actors locking of a board too large for actor ops
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testActorsTooLarge() {
+    	Board.random(1 << 15, 1 << 14, 0, 6005, Board.Locking.ACTORS);
+    }
+    
+    /**
+     * covers a board whose squares overflow an int
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() {
+    	Board.random(1 << 16, 1 << 16, 0, 6005, Board.Locking.MONITOR);
+    }
+    
+    /**
+     * covers flag and deflag concurrent with dig updating neighbor counts
+     */
+    @Test
+    public void testConcurrentFlagDuringDig() throws InterruptedException {
+    	final int size = 100;
+    	final Random random = new Random(6005);
+    	final BitSet bombs = new BitSet();
+    	final List<Position> flagged = new ArrayList<>();
+    	final List<Position> dug = new ArrayList<>();
+    	for (int y = 0; y < size; y++) {
+    		for (int x = 0; x < size; x++) {
+    			if (random.nextDouble() < 0.3) {
+    				bombs.set(y * size + x);
+    				(random.nextBoolean() ? flagged : dug).add(new Position(x, y));
+    			}
+    		}
+    	}
+    	final Board board = new Board(size, size, bombs);
+    	final Board expected = new Board(size, size, bombs);
+    	for (Position p : dug) expected.dig(p);
+    	
+    	// flags on bombs never reached by dig commute with dig on other bombs
+    	Thread flagger = new Thread(() -> {
+    		for (int round = 0; round < 20; round++) {
+    			for (Position p : flagged) board.flag(p);
+    			for (Position p : flagged) board.deflag(p);
+    		}
+    	});
+    	flagger.start();
+    	for (Position p : dug) board.dig(p);
+    	flagger.join();
+    	
+    	assertEquals("expected same board", expected.toString(), board.toString());
+    	for (Position p : flagged) {
+    		board.dig(p);
+    		expected.dig(p);
+    	}
+    	assertEquals("expected same neighbor counts", expected.toString(), board.toString());
+    }
+    
+    /**
+     * covers game state, counters after dig, flag and deflag
+     */
+    @Test
+    public void testStats() {
+    	Board board = new Board(5, 5, List.of(new Position(2, 3), new Position(4, 4)));
+    	Board.Stats stats = board.stats();
+    	assertEquals("expected no square dug", 0, stats.dug);
+    	assertEquals("expected bombs", 2, stats.bombs);
+    	assertEquals("expected safe squares", 23, stats.safeLeft);
+    	
+    	board.flag(new Position(4, 4));
+    	board.flag(new Position(0, 4));
+    	board.deflag(new Position(0, 4));
+    	assertEquals("expected one square flagged", 1, board.stats().flagged);
+    	
+    	assertTrue("expected dig a bomb", board.dig(new Position(2, 3)));
+    	stats = board.stats();
+    	assertEquals("expected bomb removed", 1, stats.bombs);
+    	assertEquals("expected every square dug but the flagged one", 24, stats.dug);
+    	assertEquals("expected no safe square left", 0, stats.safeLeft);
+    	assertTrue("expected game over", board.isGameOver());
+    }
+    
+    /**
+     * covers toString of an unchanged board, a flagged square and a dug square
+     */
+    @Test
+    public void testToStringCached() {
+    	String[] expected = makeInitExpectStrings(3, 3);
+    	Board board = new Board(3, 3, List.of(new Position(2, 2)));
+    	String first = board.toString();
+    	assertSame("expected unchanged board not rendered again", first, board.toString());
+    	
+    	board.flag(new Position(0, 2));
+    	expected[2] = "F - -";
+    	assertEquals("expected lookup board", expectedBoardString(expected), board.toString());
+    	board.flag(new Position(0, 2));
+    	board.dig(new Position(1, 1));
+    	expected[1] = "- 1 -";
+    	assertEquals("expected lookup board", expectedBoardString(expected), board.toString());
+    	board.deflag(new Position(0, 2));
+    	expected[2] = "- - -";
+    	assertEquals("expected lookup board", expectedBoardString(expected), board.toString());
+    }
+    
+    /**
+     * covers packed untouched, flagged, dug with and without neighbors that have a bomb
+     */
+    @Test
+    public void testToPacked() {
+    	Board board = new Board(3, 3, List.of(new Position(2, 2)));
+    	assertArrayEquals(new byte[] { (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x90 },
+    			board.toPacked());
+    	
+    	board.flag(new Position(2, 2));
+    	board.dig(new Position(0, 0));
+    	// "    " / "  1 1" / "  1 F"
+    	assertArrayEquals(new byte[] { 0x00, 0x00, 0x11, 0x01, (byte) 0xA0 }, board.toPacked());
+    	board.toString();
+    	board.deflag(new Position(2, 2));
+    	assertArrayEquals(new byte[] { 0x00, 0x00, 0x11, 0x01, (byte) 0x90 }, board.toPacked());
+    }
+    
+    /**
+     * covers changes since no version, a recent version, a version older than the change log
+     */
+    @Test
+    public void testChangesSince() {
+    	Board board = new Board(3, 3, List.of(new Position(2, 2)));
+    	Board.Changes snapshot = board.changesSince(-1);
+    	assertTrue("expected snapshot", snapshot.isSnapshot());
+    	assertEquals("expected lookup board", board.toString(), snapshot.snapshot());
+    	
+    	Board.Changes none = board.changesSince(snapshot.version);
+    	assertFalse("expected delta", none.isSnapshot());
+    	assertEquals("expected no change", 0, none.size());
+    	
+    	board.flag(new Position(2, 2));
+    	board.toString();
+    	board.dig(new Position(1, 1));
+    	Board.Changes changes = board.changesSince(snapshot.version);
+    	assertEquals("expected flag and dig", 2, changes.size());
+    	assertEquals(new Position(2, 2), changes.position(0));
+    	assertEquals('F', changes.symbol(0));
+    	assertEquals(new Position(1, 1), changes.position(1));
+    	assertEquals('1', changes.symbol(1));
+    	
+    	assertEquals("expected no change", 0, board.changesSince(changes.version).size());
+    	
+    	// a board of 10000 squares keep much fewer changes than a full cascade
+    	Board large = new Board(100, 100, new ArrayList<>());
+    	long version = large.changesSince(-1).version;
+    	large.dig(new Position(0, 0));
+    	assertTrue("expected snapshot", large.changesSince(version).isSnapshot());
+    }
+    
+    @Test
+    public void testListener() {
+    	for (Board.Locking locking : Board.Locking.values()) {
+    		BitSet bombs = new BitSet();
+    		bombs.set(2 * 3 + 2);
+    		Board board = new Board(3, 3, bombs, locking);
+    		int[] notified = { 0 };
+    		Board.Listener listener = changed -> {
+    			assertSame(board, changed);
+    			notified[0]++;
+    		};
+    		board.addListener(listener);
+    		
+    		board.flag(new Position(1, 1));
+    		board.flag(new Position(1, 1));
+    		board.deflag(new Position(0, 0));
+    		assertEquals("expected only the changing flag " + locking, 1, notified[0]);
+    		board.deflag(new Position(1, 1));
+    		board.dig(new Position(0, 0));
+    		board.dig(new Position(0, 0));
+    		assertEquals("expected deflag and first dig " + locking, 3, notified[0]);
+    		
+    		board.removeListener(listener);
+    		board.dig(new Position(2, 2));
+    		assertEquals("expected removed " + locking, 3, notified[0]);
+    	}
+    }
+    
+    // covers random with the same seed, another seed, density 0 and 1, a board of many stripes
+    @Test
+    public void testRandomSeed() {
+    	Board board = Board.random(700, 500, 0.2, 6005, Board.Locking.MONITOR);
+    	Board same = Board.random(700, 500, 0.2, 6005, Board.Locking.MONITOR);
+    	Board other = Board.random(700, 500, 0.2, 6006, Board.Locking.MONITOR);
+    	int bombs = board.stats().bombs;
+    	assertEquals(bombs, same.stats().bombs);
+    	assertTrue("expected about 20% bombs " + bombs, Math.abs(bombs - 70000) < 2000);
+    	boolean differ = false;
+    	for (int y = 0; y < 500; y += 7) {
+    		for (int x = 0; x < 700; x += 3) {
+    			Position position = new Position(x, y);
+    			boolean boom = board.dig(position);
+    			assertEquals(boom, same.dig(position));
+    			differ |= boom != other.dig(position);
+    		}
+    	}
+    	assertEquals(board.toString(), same.toString());
+    	assertTrue("expected another board", differ);
+    	
+    	assertEquals(0, Board.random(30, 20, 0, 1, Board.Locking.MONITOR).stats().bombs);
+    	Board full = Board.random(30, 20, 1, 1, Board.Locking.MONITOR);
+    	assertEquals(600, full.stats().bombs);
+    	assertTrue(full.dig(new Position(0, 0)));
+    	assertEquals(State.count(3), full.inspect(new Position(0, 0)));
+    }
+    
+    // covers load with "\r\n" and "\r" line ends, no last newline, empty squares, empty rows,
+    // too few squares, an extra line
+    @Test
+    public void testLoad() throws IOException {
+    	File file = File.createTempFile("board", ".txt");
+    	file.deleteOnExit();
+    	Files.write(file.toPath(), "3 2\r\n1 0 0\r0 0 1".getBytes(StandardCharsets.UTF_8));
+    	Board board = Board.load(file);
+    	assertEquals(State.Untouched, board.inspect(new Position(0, 0)));
+    	assertFalse(board.dig(new Position(1, 0)));
+    	assertTrue(board.dig(new Position(2, 1)));
+    	assertEquals("- 1  \n- 1  ", board.toString());
+    	
+    	// squares shorter than "0 " each, as the line based loader read them
+    	StringBuilder empty = new StringBuilder("3 10\n");
+    	for (int y = 0; y < 10; y++) empty.append(y == 0 ? "  1\n" : "  0\n");
+    	Files.write(file.toPath(), empty.toString().getBytes(StandardCharsets.UTF_8));
+    	board = Board.load(file);
+    	assertTrue(board.dig(new Position(2, 0)));
+    	assertFalse(board.dig(new Position(0, 9)));
+    	Files.write(file.toPath(), "1 12\n\n\n\n\n\n\n\n\n\n\n\n\n".getBytes(StandardCharsets.UTF_8));
+    	board = Board.load(file);
+    	assertEquals(0, board.stats().bombs);
+    	assertEquals(12, board.stats().safeLeft);
+    	
+    	for (String malformed : new String[] { "3 2\n1 0 0\n0 1\n", "1 1\n0\n\n", "2\n0 0\n" }) {
+    		Files.write(file.toPath(), malformed.getBytes(StandardCharsets.UTF_8));
+    		try {
+    			Board.load(file);
+    			throw new AssertionError("expected improperly formatted " + malformed);
+    		} catch (Board.FileImproperlyFormatted expected) {
+    		}
+    	}
+    }
+    
+    // covers open of a file holding more squares than a board, than an actors board
+    @Test
+    public void testOpenTooLarge() throws IOException {
+    	File file = File.createTempFile("board", ".bin");
+    	file.deleteOnExit();
+    	int[][] sizes = { { 1 << 15, 1 << 15 }, { 1 << 15, 1 << 14 } };
+    	Board.Locking[] lockings = { Board.Locking.MONITOR, Board.Locking.ACTORS };
+    	for (int k = 0; k < sizes.length; k++) {
+    		new Board(1, 1, new BitSet()).save(file);
+    		try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+    			// sparse, as long as the squares of its header
+    			raw.setLength(BoardFile.HEADER_SIZE + (long) sizes[k][0] * sizes[k][1]);
+    			raw.seek(8);
+    			raw.writeInt(sizes[k][0]);
+    			raw.writeInt(sizes[k][1]);
+    		}
+    		try {
+    			Board.openPrivate(file, lockings[k]);
+    			throw new AssertionError("expected a corrupt file for " + lockings[k]);
+    		} catch (IOException expected) {
+    		}
+    	}
+    	file.delete();
+    }
+    
+    // covers save, open of a closed file and of a file not closed, snapshot
+    @Test
+    public void testSaveOpen() throws IOException {
+    	File file = File.createTempFile("board", ".bin");
+    	file.deleteOnExit();
+    	for (Board.Locking locking : Board.Locking.values()) {
+    		BitSet bombs = new BitSet();
+    		bombs.set(0);
+    		bombs.set(4 * 5 + 4);
+    		Board board = new Board(5, 5, bombs, locking);
+    		board.flag(new Position(4, 0));
+    		board.dig(new Position(0, 4));
+    		assertFalse("expected heap board", board.snapshot());
+    		board.save(file);
+    		
+    		Board opened = Board.open(file, locking);
+    		assertEquals(board.toString(), opened.toString());
+    		assertEquals(board.stats().toString(), opened.stats().toString());
+    		opened.dig(new Position(0, 0));
+    		assertTrue(opened.snapshot());
+    		String dug = opened.toString();
+    		String stats = opened.stats().toString();
+    		
+    		// not closed, counters are recounted
+    		Board recounted = Board.open(file, locking);
+    		assertEquals(dug, recounted.toString());
+    		assertEquals(stats, recounted.stats().toString());
+    		recounted.dig(new Position(4, 4));
+    		recounted.close();
+    		
+    		Board reopened = Board.open(file, locking);
+    		assertEquals(recounted.toString(), reopened.toString());
+    		assertEquals(recounted.stats().toString(), reopened.stats().toString());
+    		assertTrue("expected " + locking, reopened.isGameOver() == recounted.isGameOver());
+    		reopened.close();
+    	}
+    }
+    
+    // covers setProfiler, each operation, a dig cascade, profiler removed
+    @Test
+    public void testProfiler() {
+    	for (Board.Locking locking : Board.Locking.values()) {
+    		BitSet bombs = new BitSet();
+    		bombs.set(4 * 5 + 4);
+    		Board board = new Board(5, 5, bombs, locking);
+    		List<String> held = new ArrayList<>();
+    		board.setProfiler((operation, waitNanos, holdNanos, squares) -> {
+    			assertTrue("expected wait and hold", waitNanos >= 0 && holdNanos >= 0);
+    			held.add(operation + " " + squares);
+    		});
+    		board.dig(new Position(0, 0));
+    		board.flag(new Position(4, 4));
+    		board.deflag(new Position(4, 4));
+    		assertEquals(State.Space, board.inspect(new Position(1, 1)));
+    		board.toString();
+    		assertTrue(board.isGameOver());
+    		assertEquals("expected " + locking,
+    				"[DIG 24, FLAG 0, DEFLAG 0, INSPECT 0, TO_STRING 0, IS_GAME_OVER 0]", held.toString());
+    		
+    		board.setProfiler(null);
+    		board.dig(new Position(4, 4));
+    		board.toString();
+    		assertEquals(6, held.size());
+    	}
+    }
+
+    // covers toString, toPacked, inspect and changesSince while a writer hold the monitor
+    @Test
+    public void testSnapshotReadNotBlocked() throws Exception {
+    	Board board = new Board(3, 3, new BitSet());
+    	board.flag(new Position(0, 0));
+    	String look = board.toString();
+    	synchronized (board) {
+    		CompletableFuture<String> reader = CompletableFuture.supplyAsync(() ->
+    				board.toString() + board.inspect(new Position(0, 0)) + board.toPacked().length
+    				+ board.changesSince(-1).isSnapshot());
+    		assertEquals("expected look without the monitor", look + "F5true", reader.get(10, TimeUnit.SECONDS));
+    	}
+    }
+
+    // covers squares of every chunk of the snapshot, across lockings
+    @Test
+    public void testSnapshotLargeBoard() {
+    	for (Board.Locking locking : Board.Locking.values()) {
+    		Board board = Board.random(120, 90, 0.1, 6005, locking);
+    		Random random = new Random(6005);
+    		for (int k = 0; k < 50; k++) {
+    			board.dig(new Position(random.nextInt(120), random.nextInt(90)));
+    			board.flag(new Position(random.nextInt(120), random.nextInt(90)));
+    		}
+    		String look = board.toString();
+    		byte[] packed = board.toPacked();
+    		for (int y = 0; y < 90; y++) {
+    			for (int x = 0; x < 120; x++) {
+    				int i = y * 120 + x;
+    				char symbol = board.inspect(new Position(x, y)).toString().charAt(0);
+    				assertEquals("expected " + locking + " " + x + "," + y, look.charAt(2 * i), symbol);
+    				int nibble = (packed[i / 2] >> (i % 2 == 0 ? 4 : 0)) & 0xF;
+    				int expected = symbol == '-' ? 9 : symbol == 'F' ? 10 : symbol == ' ' ? 0 : symbol - '0';
+    				assertEquals("expected " + locking + " " + x + "," + y, expected, nibble);
+    			}
+    		}
+    	}
+    }
+
     private String expectedBoardString(String[] arr) {
     	return Stream.of(arr).parallel().collect(Collectors.joining("\n", "", ""));
     }
@@ -0,0 +1,101 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests Command decoding.
+ */
+public class CommandTest {
+
+	/**
+	 *  parse():
+	 *  	partition on type: look, help, bye, binary, delta, watch, games, dig, flag, deflag, new, join, invalid
+	 *  	partition on coordinates: positive, negative, beyond int range
+	 *  	partition on input: CharSequence, byte range
+	 */
+
+    /**
+     * covers every type, positive and negative coordinates
+     */
+    @Test
+    public void testParseValid() {
+        Command command = new Command();
+        assertTrue("expected valid", command.parse("look"));
+        assertEquals(Command.Type.LOOK, command.type);
+        assertTrue("expected valid", command.parse("help"));
+        assertEquals(Command.Type.HELP, command.type);
+        assertTrue("expected valid", command.parse("bye"));
+        assertEquals(Command.Type.BYE, command.type);
+        assertTrue("expected valid", command.parse("binary"));
+        assertEquals(Command.Type.BINARY, command.type);
+        assertTrue("expected valid", command.parse("delta"));
+        assertEquals(Command.Type.DELTA, command.type);
+        assertTrue("expected valid", command.parse("watch"));
+        assertEquals(Command.Type.WATCH, command.type);
+        assertTrue("expected valid", command.parse("games"));
+        assertEquals(Command.Type.GAMES, command.type);
+
+        assertTrue("expected valid", command.parse("dig 3 10"));
+        assertEquals(Command.Type.DIG, command.type);
+        assertEquals(3, command.x);
+        assertEquals(10, command.y);
+        assertTrue("expected valid", command.parse("flag -1 0"));
+        assertEquals(Command.Type.FLAG, command.type);
+        assertEquals(-1, command.x);
+        assertEquals(0, command.y);
+        assertTrue("expected valid", command.parse("deflag 9 -42"));
+        assertEquals(Command.Type.DEFLAG, command.type);
+        assertEquals(9, command.x);
+        assertEquals(-42, command.y);
+        assertTrue("expected valid", command.parse("new 30 20"));
+        assertEquals(Command.Type.NEW, command.type);
+        assertEquals(30, command.x);
+        assertEquals(20, command.y);
+        assertTrue("expected valid", command.parse("join 7"));
+        assertEquals(Command.Type.JOIN, command.type);
+        assertEquals(7, command.x);
+
+        assertTrue("expected valid", command.parse("dig 99999999999 -99999999999"));
+        assertEquals(Integer.MAX_VALUE, command.x);
+        assertEquals(Integer.MIN_VALUE, command.y);
+    }
+
+    /**
+     * covers invalid
+     */
+    @Test
+    public void testParseInvalid() {
+        Command command = new Command();
+        for (String line : new String[] { "", "lookx", "look ", "Look", "he", "bye 1",
+                "dig", "dig 1", "dig 1 ", "dig  1 2", "dig 1 2 3", "dig a 2", "dig - 2",
+                "dig 1 2\r", "digs 1 2", "deflag1 2", "flag\t1 2", "foo 1 2", "binaryx", "delta 1 2",
+                "watch 1", "watchx", "games 1", "new 1", "join", "join 1 2", "join x" }) {
+            assertFalse("expected invalid: \"" + line + "\"", command.parse(line));
+            assertNull("expected no type", command.type);
+        }
+    }
+
+    /**
+     * covers byte range
+     */
+    @Test
+    public void testParseBytes() {
+        Command command = new Command();
+        byte[] bytes = "look\ndig 4 5\nflag 1".getBytes();
+        assertTrue("expected valid", command.parse(bytes, 5, 12));
+        assertEquals(Command.Type.DIG, command.type);
+        assertEquals(4, command.x);
+        assertEquals(5, command.y);
+        assertTrue("expected valid", command.parse(bytes, 0, 4));
+        assertEquals(Command.Type.LOOK, command.type);
+        assertFalse("expected invalid", command.parse(bytes, 13, bytes.length));
+    }
+}
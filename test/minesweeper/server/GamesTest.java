@@ -0,0 +1,102 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests Games registry.
+ */
+public class GamesTest {
+
+	/**
+	 *  create(), join(), evictIdle():
+	 *  	partition on size: in range, out of range
+	 *  	partition on game: game 0, new game with players, new game without players, evicted
+	 *  	partition on caps: below, at MAX_GAMES or MAX_SQUARES, released by eviction, racing creates
+	 */
+
+    /**
+     * covers every partition
+     */
+    @Test
+    public void testEviction() {
+        Games games = new Games(new Board(3, 3, new BitSet()), Watchers.DEFAULT_TICK, Games.DEFAULT_IDLE);
+        assertNull("expected too large", games.create(Games.MAX_SIZE + 1, 1));
+        assertNull("expected empty", games.create(0, 5));
+
+        Game game = games.create(5, 4);
+        assertEquals(1, game.id);
+        assertEquals(1, game.players());
+        assertSame(game, games.join(1));
+        assertEquals("GAMES 2\n0 3 3 0\n1 5 4 2", games.list());
+
+        // game 0 and games with players are kept
+        games.evictIdle(0);
+        assertEquals(1, game.leave());
+        games.evictIdle(0);
+        assertSame(game, games.join(1));
+        assertEquals(1, game.leave());
+        assertEquals(0, game.leave());
+
+        games.evictIdle(0);
+        assertNull("expected evicted", games.join(1));
+        assertEquals(-1, game.players());
+        assertEquals("GAMES 1\n0 3 3 0", games.list());
+    }
+
+    /**
+     * covers at MAX_SQUARES, released by eviction
+     */
+    @Test
+    public void testSquaresCap() {
+        Games games = new Games(new Board(3, 3, new BitSet()), Watchers.DEFAULT_TICK, Games.DEFAULT_IDLE);
+        long largest = (long) Games.MAX_SIZE * Games.MAX_SIZE;
+        Game last = null;
+        for (long hosted = 0; hosted + largest <= Games.MAX_SQUARES; hosted += largest) {
+            last = games.create(Games.MAX_SIZE, Games.MAX_SIZE);
+            assertNotNull("expected below cap", last);
+        }
+        assertNull("expected squares cap", games.create(Games.MAX_SIZE, Games.MAX_SIZE));
+        assertNull("expected squares cap", games.create(1, 1));
+
+        assertEquals(0, last.leave());
+        games.evictIdle(0);
+        assertNotNull("expected squares released", games.create(Games.MAX_SIZE, 1));
+    }
+
+    /**
+     * covers at MAX_GAMES, racing creates
+     */
+    @Test
+    public void testGamesCap() throws Exception {
+        Games games = new Games(new Board(3, 3, new BitSet()), Watchers.DEFAULT_TICK, Games.DEFAULT_IDLE);
+        AtomicInteger created = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                while (games.create(1, 1) != null) {
+                    created.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Games.MAX_GAMES - 1, created.get());
+        assertTrue(games.list().startsWith("GAMES " + Games.MAX_GAMES + "\n"));
+    }
+}
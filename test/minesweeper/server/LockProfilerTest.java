@@ -0,0 +1,87 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.Board.Position;
+
+/**
+ * Tests LockProfiler reports.
+ */
+public class LockProfilerTest {
+
+    /*
+     * Testing strategy:
+     *  held: dig with and without cascade, other operations,
+     *        hold below, at and above threshold, more holds traced than TRACES
+     *  report: histograms, cascade buckets, traces oldest first
+     */
+
+    // covers cascade buckets, holds below and at threshold, histograms
+    @Test
+    public void testReport() {
+        LockProfiler profiler = new LockProfiler(1000);
+        profiler.held(Board.Operation.DIG, 10, 999, 0);
+        profiler.held(Board.Operation.DIG, 20, 1000, 1);
+        profiler.held(Board.Operation.DIG, 30, 3000, 5);
+        profiler.held(Board.Operation.DIG, 40, 5000, 6);
+        profiler.held(Board.Operation.TO_STRING, 50, 70, 0);
+
+        Map<String, String> report = lines(profiler.report());
+        assertTrue(report.get("locks.dig.wait.ns").startsWith("count 4 "));
+        assertTrue(report.get("locks.dig.hold.ns").endsWith(" max 5000 mean 2500"));
+        assertTrue(report.get("locks.toString.hold.ns").startsWith("count 1 "));
+        assertTrue(report.get("locks.flag.hold.ns").startsWith("count 0 "));
+        assertEquals("count 1 mean 999 max 999 long 0", report.get("locks.dig.hold.squares.0-0"));
+        assertEquals("count 1 mean 1000 max 1000 long 1", report.get("locks.dig.hold.squares.1-1"));
+        assertEquals("count 2 mean 4000 max 5000 long 2", report.get("locks.dig.hold.squares.4-7"));
+        assertEquals("3", report.get("locks.traced"));
+        assertTrue(report.get("locks.trace").startsWith("operation dig wait 40 hold 5000 squares 6 thread "));
+    }
+
+    // covers more holds traced than TRACES, a board profiled
+    @Test
+    public void testTraces() {
+        LockProfiler profiler = new LockProfiler(0);
+        Board board = new Board(3, 3, new BitSet());
+        board.setProfiler(profiler);
+        board.dig(new Position(0, 0));
+        for (int t = 0; t < LockProfiler.TRACES; t++) {
+            board.inspect(new Position(1, 1));
+        }
+
+        String[] report = profiler.report().split("\n");
+        int traced = 0;
+        for (String line : report) {
+            if (line.startsWith("locks.trace ")) {
+                traced++;
+                assertTrue("expected dig replaced", line.startsWith("locks.trace operation inspect "));
+            }
+        }
+        assertEquals(LockProfiler.TRACES, traced);
+        assertTrue(profiler.report().contains("\nlocks.traced " + (LockProfiler.TRACES + 1) + "\n"));
+        assertTrue(profiler.report().contains("\nlocks.dig.hold.squares.8-15 count 1 "));
+    }
+
+    /**
+     * @return the value of every NAME of report, the last one if repeated.
+     */
+    private static Map<String, String> lines(String report) {
+        Map<String, String> lines = new HashMap<>();
+        for (String line : report.split("\n")) {
+            String[] nameValue = line.split(" ", 2);
+            lines.put(nameValue[0], nameValue[1]);
+        }
+        return lines;
+    }
+}
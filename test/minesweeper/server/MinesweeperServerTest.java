@@ -3,11 +3,369 @@
  */
 package minesweeper.server;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
 /**
- * TODO
+ * Tests MinesweeperServer protocol over a real socket.
  */
 public class MinesweeperServerTest {
-    
-    // TODO
-    
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    /**
+     * Start a server on a free port for a 3x3 board with a bomb at 2,2.
+     * @param debug debug mode flag.
+     * @param nio selector mode flag.
+     * @return the started server.
+     */
+    private static MinesweeperServer startServer(boolean debug, boolean nio) throws IOException {
+        BitSet bombs = new BitSet();
+        bombs.set(2 * 3 + 2);
+        MinesweeperServer server = new MinesweeperServer(new Board(3, 3, bombs), 0, debug, nio);
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static Socket connect(MinesweeperServer server) throws IOException {
+        Socket socket = new Socket(LOCALHOST, server.getPort());
+        socket.setSoTimeout(3000);
+        return socket;
+    }
+
+    @Test(timeout = 10000)
+    public void testNioBoomDisconnect() throws IOException {
+        MinesweeperServer server = startServer(false, true);
+        try (Socket socket = connect(server)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+
+            out.write("dig 0 0\n".getBytes());
+            assertEquals("     ", in.readLine());
+            assertEquals("  1 1", in.readLine());
+            assertEquals("  1 -", in.readLine());
+
+            out.write("dig 2 2\n".getBytes());
+            assertEquals("BOOM!", in.readLine());
+            assertNull("expected disconnect", in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testNioPipelinedLines() throws IOException {
+        MinesweeperServer server = startServer(true, true);
+        try (Socket socket = connect(server)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+
+            // several requests in one write, with every kind of line end, one split
+            out.write("flag 1 1\r\nlook\rdeflag 1 1\nlo".getBytes());
+            out.flush();
+            assertEquals("- - -", in.readLine());
+            assertEquals("- F -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- F -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- - -", in.readLine());
+
+            out.write("ok\ndig 2 2\nbye\n".getBytes());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("- - -", in.readLine());
+            assertEquals("BOOM!", in.readLine());
+            assertNull("expected disconnect", in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBinaryProtocol() throws IOException {
+        for (boolean nio : new boolean[] { false, true }) {
+            MinesweeperServer server = startServer(false, nio);
+            try (Socket socket = connect(server)) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                String hello = readLine(in);
+                assertTrue("expected HELLO message", hello.startsWith("Welcome"));
+
+                out.write("binary\r\n".getBytes());
+                assertBoard(in, new byte[] { (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x90 });
+
+                // two requests in one write, one unknown opcode
+                byte[] dig = BinaryProtocol.request(BinaryProtocol.DIG, 0, 0);
+                byte[] unknown = BinaryProtocol.request((byte) 42, 0, 0);
+                byte[] both = new byte[2 * BinaryProtocol.REQUEST_SIZE];
+                System.arraycopy(dig, 0, both, 0, dig.length);
+                System.arraycopy(unknown, 0, both, dig.length, unknown.length);
+                out.write(both);
+                assertBoard(in, new byte[] { 0x00, 0x00, 0x11, 0x01, (byte) 0x90 });
+                assertEquals("expected HELP reply " + nio, BinaryProtocol.HELP_REPLY, in.readByte());
+                byte[] help = new byte[in.readInt()];
+                in.readFully(help);
+                assertEquals(MinesweeperServer.HELP_MSG, new String(help, "UTF-8"));
+
+                out.write(BinaryProtocol.request(BinaryProtocol.DIG, 2, 2));
+                assertEquals("expected BOOM reply " + nio, BinaryProtocol.BOOM_REPLY, in.readByte());
+                assertEquals("expected disconnect " + nio, -1, in.read());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testDeltaReplies() throws IOException {
+        for (boolean nio : new boolean[] { false, true }) {
+            MinesweeperServer server = startServer(true, nio);
+            try (Socket socket = connect(server); Socket other = connect(server)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+                BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+                assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+                assertTrue("expected HELLO message", otherIn.readLine().startsWith("Welcome"));
+
+                out.write("delta\n".getBytes());
+                assertEquals("- - -", in.readLine());
+                assertEquals("- - -", in.readLine());
+                assertEquals("- - -", in.readLine());
+
+                out.write("flag 1 0\n".getBytes());
+                assertEquals("DELTA 1", in.readLine());
+                assertEquals("1 0 F", in.readLine());
+
+                // changes of other clients are included
+                other.getOutputStream().write("dig 1 1\n".getBytes());
+                for (int y = 0; y < 3; y++) otherIn.readLine();
+                out.write("deflag 1 0\n".getBytes());
+                assertEquals("expected changes of both clients", "DELTA 2", in.readLine());
+                assertEquals("1 1 1", in.readLine());
+                assertEquals("1 0 -", in.readLine());
+
+                out.write("look\n".getBytes());
+                assertEquals("- - -", in.readLine());
+                assertEquals("- 1 -", in.readLine());
+                assertEquals("- - -", in.readLine());
+                out.write("flag 1 1\n".getBytes());
+                assertEquals("DELTA 0", in.readLine());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWatch() throws IOException {
+        for (boolean nio : new boolean[] { false, true }) {
+            MinesweeperServer server = startServer(true, nio);
+            try (Socket socket = connect(server); Socket other = connect(server)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+                BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+                OutputStream otherOut = other.getOutputStream();
+                assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+                assertTrue("expected HELLO message", otherIn.readLine().startsWith("Welcome"));
+
+                out.write("watch\n".getBytes());
+                assertEquals("- - -", in.readLine());
+                assertEquals("- - -", in.readLine());
+                assertEquals("- - -", in.readLine());
+
+                // changes of other clients are pushed without a request
+                otherOut.write("flag 1 0\n".getBytes());
+                for (int y = 0; y < 3; y++) otherIn.readLine();
+                assertEquals("expected push " + nio, "WATCH 1", in.readLine());
+                assertEquals("1 0 F", in.readLine());
+
+                // a request that change nothing push nothing
+                otherOut.write("flag 1 0\ndeflag 1 0\n".getBytes());
+                for (int y = 0; y < 6; y++) otherIn.readLine();
+                assertEquals("expected push " + nio, "WATCH 1", in.readLine());
+                assertEquals("1 0 -", in.readLine());
+
+                out.write("bye\n".getBytes());
+                assertNull("expected disconnect", in.readLine());
+            }
+        }
+    }
+
+    // covers a watcher not reading, pushes never wait and it is disconnected
+    @Test(timeout = 10000)
+    public void testWatcherNotReading() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress(LOCALHOST, 0));
+                Socket client = new Socket(LOCALHOST, listener.socket().getLocalPort());
+                Socket socket = listener.socket().accept()) {
+            OutputStream socketOut = socket.getOutputStream();
+            MinesweeperServer.Pusher pusher = new MinesweeperServer.Pusher(socket, socketOut,
+                    new PrintWriter(socketOut, true));
+            // larger than the socket buffers, so the pusher write wait
+            byte[] message = new byte[16 << 20];
+            int pushed = 0;
+            while (pusher.push(message)) {
+                pushed++;
+            }
+            assertTrue("expected pushes queued " + pushed, pushed >= 64 && pushed <= 66);
+
+            client.setSoTimeout(3000);
+            InputStream in = client.getInputStream();
+            byte[] buffer = new byte[1 << 16];
+            try {
+                while (in.read(buffer) != -1) {
+                    // a part of the first push, then disconnected
+                }
+            } catch (SocketException se) {
+                // connection reset, disconnected
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testGames() throws IOException {
+        for (boolean nio : new boolean[] { false, true }) {
+            MinesweeperServer server = startServer(true, nio);
+            try (Socket socket = connect(server); Socket other = connect(server)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+                BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+                OutputStream otherOut = other.getOutputStream();
+                assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+                assertTrue("expected HELLO message", otherIn.readLine().startsWith("Welcome"));
+
+                out.write("new 4 2\nflag 3 1\n".getBytes());
+                assertEquals("expected new game " + nio, "JOINED 1 4 2 1", in.readLine());
+                assertEquals("- - - -", in.readLine());
+                assertEquals("- - - F", in.readLine());
+
+                otherOut.write("games\n".getBytes());
+                assertEquals("GAMES 2", otherIn.readLine());
+                assertEquals("0 3 3 1", otherIn.readLine());
+                assertEquals("1 4 2 1", otherIn.readLine());
+
+                // boards of different games are independent
+                otherOut.write("look\njoin 1\nlook\n".getBytes());
+                assertEquals("- - -", otherIn.readLine());
+                assertEquals("- - -", otherIn.readLine());
+                assertEquals("- - -", otherIn.readLine());
+                assertEquals("JOINED 1 4 2 2", otherIn.readLine());
+                assertEquals("- - - -", otherIn.readLine());
+                assertEquals("- - - F", otherIn.readLine());
+
+                otherOut.write("join 9\n".getBytes());
+                assertEquals("expected HELP for no game", "LOOK message", otherIn.readLine());
+            }
+        }
+    }
+
+    // covers a pool of threads, hosting only the first game
+    @Test(timeout = 10000)
+    public void testPoolHostsFirstGame() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(new Board(3, 3, new BitSet()), 0, true,
+                MinesweeperServer.threads("pool:2"));
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        try (Socket socket = connect(server)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+
+            out.write("new 4 2\ngames\n".getBytes());
+            assertEquals("expected HELP for new", "LOOK message", in.readLine());
+            String line = in.readLine();
+            while (!line.startsWith("GAMES ")) {
+                line = in.readLine();
+            }
+            assertEquals("GAMES 1", line);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testStats() throws IOException {
+        for (boolean nio : new boolean[] { false, true }) {
+            MinesweeperServer server = startServer(true, nio);
+            try (Socket socket = connect(server)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+                assertTrue("expected HELLO message", in.readLine().startsWith("Welcome"));
+
+                // dig 0,0 cascade to every square but the bomb at 2,2
+                out.write("dig 0 0\ndig 2 2\nfoo\nstats\n".getBytes());
+                for (int line = 0; line < 3; line++) in.readLine();
+                assertEquals("BOOM!", in.readLine());
+                assertEquals("expected HELP for foo", "LOOK message", in.readLine());
+                while (!in.readLine().equals("STATS")) {
+                }
+                Map<String, String> stats = new HashMap<>();
+                for (String line = in.readLine(); !line.startsWith("dig.squares"); line = in.readLine()) {
+                    String[] nameValue = line.split(" ", 2);
+                    stats.put(nameValue[0], nameValue[1]);
+                }
+                assertEquals("1", stats.get("connections.active"));
+                assertEquals("2", stats.get("requests.dig"));
+                assertEquals("1", stats.get("requests.invalid"));
+                assertEquals("0", stats.get("requests.stats"));
+                assertTrue("expected bytes in", Long.parseLong(stats.get("bytes.in")) >= 20);
+                assertTrue("expected 3 requests timed", stats.get("handleRequest.ns").startsWith("count 3 "));
+                assertTrue("expected dig renders", !stats.get("render.ns").startsWith("count 0 "));
+
+                assertEquals(1, server.metrics.getActiveConnections());
+                assertEquals(Long.valueOf(2), server.metrics.getDigSquares().get("count"));
+                assertEquals(Long.valueOf(8), server.metrics.getDigSquares().get("max"));
+            }
+        }
+    }
+
+    private static void assertBoard(DataInputStream in, byte[] squares) throws IOException {
+        assertEquals("expected BOARD reply", BinaryProtocol.BOARD_REPLY, in.readByte());
+        assertEquals("expected columns", 3, in.readInt());
+        assertEquals("expected rows", 3, in.readInt());
+        byte[] packed = new byte[squares.length];
+        in.readFully(packed);
+        assertArrayEquals(squares, packed);
+    }
+
+    /**
+     * Read a text line byte by byte, so no binary byte after it is buffered.
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n' && b >= 0; b = in.read()) {
+            if (b != '\r') line.append((char) b);
+        }
+        return line.toString();
+    }
 }
@@ -0,0 +1,180 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests OperationLog recovery.
+ */
+public class OperationLogTest {
+
+	/**
+	 *  open():
+	 *  	partition on log: no log, requests after the last snapshot, last record cut
+	 *  	partition on request: dig, flag, deflag
+	 *  	partition on requests: one thread, concurrent with each other and snapshots
+	 *  	partition on locking: MONITOR, STRIPED, ACTORS
+	 *  flush():
+	 *  	partition on log file: written, cannot be written
+	 */
+
+    /**
+     * covers every partition
+     */
+    @Test
+    public void testRecovery() throws IOException {
+        File boardFile = File.createTempFile("board", ".bin");
+        File logFile = new File(boardFile.getPath() + ".log");
+        boardFile.deleteOnExit();
+        logFile.deleteOnExit();
+        Random random = new Random(6005);
+        BitSet bombs = new BitSet();
+        for (int i = 0; i < 20 * 20; i++) {
+            if (random.nextInt(6) == 0) bombs.set(i);
+        }
+        new Board(20, 20, bombs).save(boardFile);
+
+        Board board = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        OperationLog log = OperationLog.open(board, boardFile, logFile, 60000, 1 << 16);
+        apply(log, random, 200);
+        log.snapshot();
+        apply(log, random, 200);
+        log.flush();
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+
+        // crash, the board file is the first snapshot, the log the requests after
+        Board recovered = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        assertEquals(200, recovered.checkpoint());
+        OperationLog.open(recovered, boardFile, logFile, 60000, 1 << 16).close();
+        assertEquals(board.toString(), recovered.toString());
+        assertEquals(board.stats().toString(), recovered.stats().toString());
+
+        Board reopened = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        assertEquals(400, reopened.checkpoint());
+        assertEquals(board.toString(), reopened.toString());
+    }
+
+    /**
+     * covers concurrent requests and snapshots, each locking, ring of records wrapping
+     */
+    @Test(timeout = 60000)
+    public void testConcurrentRecovery() throws Exception {
+        for (Board.Locking locking : new Board.Locking[] {
+                Board.Locking.MONITOR, Board.Locking.STRIPED, Board.Locking.ACTORS }) {
+            File boardFile = File.createTempFile("board", ".bin");
+            File logFile = new File(boardFile.getPath() + ".log");
+            boardFile.deleteOnExit();
+            logFile.deleteOnExit();
+            Random random = new Random(6005);
+            BitSet bombs = new BitSet();
+            for (int i = 0; i < 60 * 60; i++) {
+                if (random.nextInt(8) == 0) bombs.set(i);
+            }
+            new Board(60, 60, bombs).save(boardFile);
+
+            Board board = Board.openPrivate(boardFile, locking);
+            OperationLog log = OperationLog.open(board, boardFile, logFile, 60000, 16);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                Random own = new Random(t);
+                threads[t] = new Thread(() -> {
+                    for (int k = 0; k < 3000; k++) {
+                        int kind = own.nextInt(8) == 0 ? OperationLog.DIG : 1 + own.nextInt(2);
+                        log.apply(kind, own.nextInt(60), own.nextInt(60));
+                    }
+                });
+                threads[t].start();
+            }
+            for (int k = 0; k < 5; k++) {
+                log.snapshot();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            log.flush();
+
+            // crash
+            Board recovered = Board.openPrivate(boardFile, locking);
+            OperationLog.open(recovered, boardFile, logFile, 60000, 16).close();
+            assertEquals(locking.toString(), board.toString(), recovered.toString());
+            assertEquals(locking.toString(), board.stats().toString(), recovered.stats().toString());
+            assertEquals(locking.toString(), 4 * 3000, Board.openPrivate(boardFile, locking).checkpoint());
+        }
+    }
+
+    /**
+     * covers a log file that cannot be written: no request is applied after
+     * the failure, and recovery replay every request written before it
+     */
+    @Test
+    public void testBrokenLog() throws IOException {
+        File boardFile = File.createTempFile("board", ".bin");
+        File logFile = new File(boardFile.getPath() + ".log");
+        boardFile.deleteOnExit();
+        logFile.deleteOnExit();
+        Random random = new Random(6005);
+        new Board(20, 20, new BitSet()).save(boardFile);
+
+        Board board = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        OperationLog log = OperationLog.open(board, boardFile, logFile, 60000, 1 << 16);
+        apply(log, random, 100);
+        log.flush();
+        String written = board.toString();
+        apply(log, random, 100);
+
+        // an interrupted write close the log file
+        Thread.currentThread().interrupt();
+        try {
+            log.flush();
+            throw new AssertionError("expected the flush to fail");
+        } catch (IOException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        String applied = board.toString();
+        for (int k = 0; k < 10; k++) {
+            try {
+                log.apply(OperationLog.DIG, k, k);
+                throw new AssertionError("expected a broken log");
+            } catch (UncheckedIOException expected) {
+            }
+        }
+        assertEquals("expected no request applied", applied, board.toString());
+        try {
+            log.flush();
+            throw new AssertionError("expected the flush to fail again");
+        } catch (ClosedChannelException expected) {
+        }
+
+        // crash, the requests not written are lost as a group, none is skipped
+        Board recovered = Board.openPrivate(boardFile, Board.Locking.MONITOR);
+        OperationLog.open(recovered, boardFile, logFile, 60000, 1 << 16).close();
+        assertEquals(written, recovered.toString());
+    }
+
+    /**
+     * Apply count random dig, flag and deflag requests through log.
+     */
+    private static void apply(OperationLog log, Random random, int count) {
+        for (int k = 0; k < count; k++) {
+            int kind = random.nextInt(4) == 0 ? OperationLog.DIG : 1 + random.nextInt(2);
+            log.apply(kind, random.nextInt(20), random.nextInt(20));
+        }
+    }
+}